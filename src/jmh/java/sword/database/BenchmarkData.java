@@ -0,0 +1,125 @@
+package sword.database;
+
+import org.openjdk.jmh.infra.Blackhole;
+import sword.collections.ImmutableList;
+
+/**
+ * Tables and rows shared by all benchmarks.
+ * <p>
+ * Words are grouped in concepts, having one word per language for each concept.
+ * Each word has a different text of {@value #WORD_LENGTH} letters, spread along
+ * all combinations of letters, so that texts starting with, ending with or
+ * containing a given fragment are found along the whole table.
+ */
+final class BenchmarkData {
+
+    static final int LANGUAGE_COUNT = 4;
+    static final int CATEGORY_COUNT = 16;
+    static final int WORD_LENGTH = 5;
+
+    // 26^5, which is coprime with the multiplier, so that all words are different
+    private static final int WORD_COMBINATIONS = 11881376;
+    private static final int WORD_MULTIPLIER = 7919;
+
+    static final DbColumn CATEGORY_COLUMN = new DbIntColumn("category");
+    static final DbTable CONCEPTS = new DbTable("Concepts", CATEGORY_COLUMN);
+
+    static final DbColumn CONCEPT_COLUMN = new DbIntColumn("concept");
+    static final DbColumn LANGUAGE_COLUMN = new DbIntColumn("language");
+    static final DbColumn WRITTEN_COLUMN = new DbTextColumn("written");
+    static final DbTable WORDS = new DbTable("Words", CONCEPT_COLUMN, LANGUAGE_COLUMN, WRITTEN_COLUMN);
+
+    static final int CATEGORY = CONCEPTS.columns().indexOf(CATEGORY_COLUMN);
+    static final int CONCEPT = WORDS.columns().indexOf(CONCEPT_COLUMN);
+    static final int LANGUAGE = WORDS.columns().indexOf(LANGUAGE_COLUMN);
+    static final int WRITTEN = WORDS.columns().indexOf(WRITTEN_COLUMN);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Return the text for the word at the given position.
+     */
+    static String word(int index) {
+        int value = (int) (index * (long) WORD_MULTIPLIER % WORD_COMBINATIONS);
+        final char[] letters = new char[WORD_LENGTH];
+        for (int i = WORD_LENGTH - 1; i >= 0; i--) {
+            letters[i] = (char) ('a' + value % 26);
+            value /= 26;
+        }
+
+        return new String(letters);
+    }
+
+    /**
+     * Return a schema containing the tables for the benchmarks and the given indexes.
+     */
+    static DbSchema schema(DbIndex... indexes) {
+        final ImmutableList.Builder<DbIndex> indexesBuilder = new ImmutableList.Builder<>();
+        for (DbIndex index : indexes) {
+            indexesBuilder.add(index);
+        }
+
+        final ImmutableList<DbTable> tables = new ImmutableList.Builder<DbTable>().add(CONCEPTS).add(WORDS).build();
+        final ImmutableList<DbIndex> indexList = indexesBuilder.build();
+        return new DbSchema() {
+            @Override
+            public ImmutableList<DbTable> tables() {
+                return tables;
+            }
+
+            @Override
+            public ImmutableList<DbIndex> indexes() {
+                return indexList;
+            }
+        };
+    }
+
+    static DbInsertQuery wordInsertion(int concept, int language, String written) {
+        return new DbInsertQuery.Builder(WORDS)
+                .put(CONCEPT, concept)
+                .put(LANGUAGE, language)
+                .put(WRITTEN, written)
+                .build();
+    }
+
+    /**
+     * Insert the given number of words, and the concepts they belong to.
+     *
+     * @return Identifiers of the inserted words, in order of insertion.
+     */
+    static int[] populate(MemoryDatabase db, int wordCount) {
+        final int conceptCount = Math.max(1, wordCount / LANGUAGE_COUNT);
+        final int[] conceptIds = new int[conceptCount];
+        for (int i = 0; i < conceptCount; i++) {
+            conceptIds[i] = db.insert(new DbInsertQuery.Builder(CONCEPTS)
+                    .put(CATEGORY, i % CATEGORY_COUNT)
+                    .build());
+        }
+
+        final int[] wordIds = new int[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            final int concept = conceptIds[Math.min(i / LANGUAGE_COUNT, conceptCount - 1)];
+            wordIds[i] = db.insert(wordInsertion(concept, i % LANGUAGE_COUNT, word(i)));
+        }
+
+        return wordIds;
+    }
+
+    /**
+     * Read all rows of the given result, so that lazy results are completely computed.
+     *
+     * @return Number of rows read.
+     */
+    static int consume(DbResult result, Blackhole blackhole) {
+        int count = 0;
+        try (DbResult rows = result) {
+            while (rows.hasNext()) {
+                blackhole.consume(rows.next());
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
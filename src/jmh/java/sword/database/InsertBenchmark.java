@@ -0,0 +1,94 @@
+package sword.database;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sword.collections.ImmutableList;
+
+import static sword.database.BenchmarkData.CONCEPT;
+import static sword.database.BenchmarkData.LANGUAGE;
+import static sword.database.BenchmarkData.WORDS;
+import static sword.database.BenchmarkData.WRITTEN;
+
+/**
+ * Insertion of words, one by one into a table already containing the given number of rows,
+ * and all at once into an empty table.
+ * <p>
+ * As rows are never removed, the table grows along each iteration for single insertions.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InsertBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class PopulatedDatabase {
+
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int rows;
+
+        MemoryDatabase db;
+        int nextWord;
+
+        @Setup(Level.Iteration)
+        public void populate() {
+            db = new MemoryDatabase(BenchmarkData.schema());
+            BenchmarkData.populate(db, rows);
+            nextWord = rows;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class BulkInsertion {
+
+        @Param({"1000", "10000", "100000", "1000000"})
+        public int rows;
+
+        ImmutableList<DbInsertQuery> queries;
+
+        @Setup(Level.Trial)
+        public void prepare() {
+            final DbMultiInsertQuery.WildcardBuilder builder = new DbMultiInsertQuery.Builder(WORDS)
+                    .put(CONCEPT, 1)
+                    .put(LANGUAGE, 0)
+                    .wildcard(WRITTEN);
+            for (int i = 0; i < rows; i++) {
+                builder.add(BenchmarkData.word(i));
+            }
+
+            queries = builder.build().queryList();
+        }
+    }
+
+    @Benchmark
+    public Integer insert(PopulatedDatabase state) {
+        final int index = state.nextWord++;
+        return state.db.insert(BenchmarkData.wordInsertion(index, index % BenchmarkData.LANGUAGE_COUNT, BenchmarkData.word(index)));
+    }
+
+    /**
+     * Insert all rows into a new database, as {@link DbMultiInserter} does.
+     */
+    @Benchmark
+    public MemoryDatabase bulkInsert(BulkInsertion state) {
+        final MemoryDatabase db = new MemoryDatabase(BenchmarkData.schema());
+        for (DbInsertQuery query : state.queries) {
+            db.insert(query);
+        }
+
+        return db;
+    }
+}
@@ -0,0 +1,80 @@
+package sword.database;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static sword.database.BenchmarkData.WORDS;
+import static sword.database.BenchmarkData.WRITTEN;
+
+/**
+ * Update and deletion of words by identifier, within a table containing the given number of words.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ModificationBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private MemoryDatabase _db;
+    private int[] _wordIds;
+    private int _nextWord;
+    private int _nextText;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        _db = new MemoryDatabase(BenchmarkData.schema());
+        _wordIds = BenchmarkData.populate(_db, rows);
+        _nextText = rows;
+    }
+
+    private int nextWordPosition() {
+        final int position = _nextWord;
+        _nextWord = (position + 1) % rows;
+        return position;
+    }
+
+    @Benchmark
+    public boolean update() {
+        final DbUpdateQuery query = new DbUpdateQuery.Builder(WORDS)
+                .where(WORDS.getIdColumnIndex(), _wordIds[nextWordPosition()])
+                .put(WRITTEN, BenchmarkData.word(_nextText++))
+                .build();
+        return _db.update(query);
+    }
+
+    /**
+     * Delete the oldest word and insert a new one, keeping the table at the same size.
+     */
+    @Benchmark
+    public Integer deleteAndInsert() {
+        final int position = nextWordPosition();
+        final DbDeleteQuery query = new DbDeleteQuery.Builder(WORDS)
+                .where(WORDS.getIdColumnIndex(), _wordIds[position])
+                .build();
+        if (!_db.delete(query)) {
+            throw new AssertionError();
+        }
+
+        final int index = _nextText++;
+        final Integer id = _db.insert(BenchmarkData.wordInsertion(index, index % BenchmarkData.LANGUAGE_COUNT, BenchmarkData.word(index)));
+        _wordIds[position] = id;
+        return id;
+    }
+}
@@ -0,0 +1,148 @@
+package sword.database;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sword.collections.ImmutableIntRange;
+
+import static sword.database.BenchmarkData.CATEGORY;
+import static sword.database.BenchmarkData.CONCEPT;
+import static sword.database.BenchmarkData.CONCEPTS;
+import static sword.database.BenchmarkData.LANGUAGE;
+import static sword.database.BenchmarkData.WORDS;
+import static sword.database.BenchmarkData.WRITTEN;
+
+/**
+ * Queries on a database without secondary indexes, whose tables contain the given number of words.
+ * <p>
+ * Restrictions are resolved by scanning the tables, and joins not involving
+ * identifiers are resolved by hashing one of their sides.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SelectBenchmark {
+
+    private static final int WORDS_COLUMN_COUNT = WORDS.columns().size();
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private MemoryDatabase _db;
+    private int[] _wordIds;
+    private int _nextWord;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        _db = new MemoryDatabase(BenchmarkData.schema());
+        _wordIds = BenchmarkData.populate(_db, rows);
+    }
+
+    @Benchmark
+    public int selectById(Blackhole blackhole) {
+        final int id = _wordIds[_nextWord];
+        _nextWord = (_nextWord + 1) % rows;
+
+        final DbQuery query = new DbQuery.Builder(WORDS)
+                .where(WORDS.getIdColumnIndex(), id)
+                .select(WRITTEN);
+        return BenchmarkData.consume(_db.select(query), blackhole);
+    }
+
+    @Benchmark
+    public int scanWithExactRestriction(Blackhole blackhole) {
+        final DbQuery query = new DbQuery.Builder(WORDS)
+                .where(LANGUAGE, 1)
+                .select(CONCEPT, WRITTEN);
+        return BenchmarkData.consume(_db.select(query), blackhole);
+    }
+
+    /**
+     * Words of one language within a range of identifiers covering 1% of the table.
+     */
+    @Benchmark
+    public int scanWithRangeRestriction(Blackhole blackhole) {
+        final int first = _wordIds[rows / 2];
+        final DbQuery.Restriction restriction = new DbQuery.Restriction(new DbIntValue(first), new DbIntValue(first + rows / 100));
+        final DbQuery query = new DbQuery.Builder(WORDS)
+                .where(WORDS.getIdColumnIndex(), restriction)
+                .where(LANGUAGE, 1)
+                .select(WRITTEN);
+        return BenchmarkData.consume(_db.select(query), blackhole);
+    }
+
+    /**
+     * Words of the concepts in one category, joining each word with its concept through its identifier.
+     */
+    @Benchmark
+    public int joinById(Blackhole blackhole) {
+        final DbQuery query = new DbQuery.Builder(WORDS)
+                .join(CONCEPTS, CONCEPT, CONCEPTS.getIdColumnIndex())
+                .where(WORDS_COLUMN_COUNT + CATEGORY, 3)
+                .select(WRITTEN);
+        return BenchmarkData.consume(_db.select(query), blackhole);
+    }
+
+    /**
+     * Translations from one language to another, joining words sharing the same concept.
+     */
+    @Benchmark
+    public int joinByNonIdColumn(Blackhole blackhole) {
+        final DbQuery query = new DbQuery.Builder(WORDS)
+                .join(WORDS, CONCEPT, CONCEPT)
+                .where(LANGUAGE, 0)
+                .where(WORDS_COLUMN_COUNT + LANGUAGE, 1)
+                .select(WRITTEN, WORDS_COLUMN_COUNT + WRITTEN);
+        return BenchmarkData.consume(_db.select(query), blackhole);
+    }
+
+    /**
+     * Same rows as {@link #joinById(Blackhole)} for a single language, but reading the words from a nested query.
+     */
+    @Benchmark
+    public int nestedQueryView(Blackhole blackhole) {
+        final DbQuery languageWords = new DbQuery.Builder(WORDS)
+                .where(LANGUAGE, 0)
+                .select(CONCEPT, WRITTEN);
+        final DbQuery query = new DbQuery.Builder(languageWords)
+                .join(CONCEPTS, 0, CONCEPTS.getIdColumnIndex())
+                .where(2 + CATEGORY, 3)
+                .select(1);
+        return BenchmarkData.consume(_db.select(query), blackhole);
+    }
+
+    @Benchmark
+    public int groupByWithMaxAndConcat(Blackhole blackhole) {
+        final DbQuery query = new DbQuery.Builder(WORDS)
+                .groupBy(CONCEPT)
+                .select(CONCEPT, DbQuery.max(LANGUAGE), DbQuery.concat(WRITTEN));
+        return BenchmarkData.consume(_db.select(query), blackhole);
+    }
+
+    /**
+     * First page of the words, sorted in the opposite order they were inserted.
+     */
+    @Benchmark
+    public int orderByWithRange(Blackhole blackhole) {
+        final DbQuery query = new DbQuery.Builder(WORDS)
+                .orderBy(new DbQuery.Ordered(CONCEPT, true))
+                .range(new ImmutableIntRange(0, 19))
+                .select(CONCEPT, WRITTEN);
+        return BenchmarkData.consume(_db.select(query), blackhole);
+    }
+}
@@ -0,0 +1,104 @@
+package sword.database;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static sword.database.BenchmarkData.CONCEPT;
+import static sword.database.BenchmarkData.WORDS;
+import static sword.database.BenchmarkData.WRITTEN;
+
+/**
+ * Scan of the words whose text matches a restriction of each type within
+ * {@link DbQuery.RestrictionStringTypes}, with and without the index that
+ * can resolve it.
+ * <p>
+ * Fragments are taken from the word in the middle of the table, so that at least one row matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TextRestrictionBenchmark {
+
+    private static final int FRAGMENT_LENGTH = 3;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"exact", "startsWith", "endsWith", "contains"})
+    public String restriction;
+
+    /**
+     * Whether the column is indexed with the index matching the restriction:
+     * a value index for exact values, a prefix index for starting texts, a suffix
+     * index for ending texts and a trigram index for contained texts.
+     */
+    @Param({"false", "true"})
+    public boolean indexed;
+
+    private MemoryDatabase _db;
+    private DbQuery _query;
+
+    @Setup(Level.Trial)
+    public void populate() {
+        final String word = BenchmarkData.word(rows / 2);
+        final int type;
+        final int indexType;
+        final String text;
+        switch (restriction) {
+            case "exact":
+                type = DbQuery.RestrictionStringTypes.EXACT;
+                indexType = DbIndex.Types.VALUE;
+                text = word;
+                break;
+
+            case "startsWith":
+                type = DbQuery.RestrictionStringTypes.STARTS_WITH;
+                indexType = DbIndex.Types.PREFIX;
+                text = word.substring(0, FRAGMENT_LENGTH);
+                break;
+
+            case "endsWith":
+                type = DbQuery.RestrictionStringTypes.ENDS_WITH;
+                indexType = DbIndex.Types.SUFFIX;
+                text = word.substring(word.length() - FRAGMENT_LENGTH);
+                break;
+
+            case "contains":
+                type = DbQuery.RestrictionStringTypes.CONTAINS;
+                indexType = DbIndex.Types.TRIGRAM;
+                text = word.substring(1, 1 + FRAGMENT_LENGTH);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown restriction " + restriction);
+        }
+
+        final DbSchema schema = indexed? BenchmarkData.schema(new DbIndex(WORDS, WRITTEN, indexType)) : BenchmarkData.schema();
+        _db = new MemoryDatabase(schema);
+        BenchmarkData.populate(_db, rows);
+        _query = new DbQuery.Builder(WORDS)
+                .where(WRITTEN, new DbQuery.Restriction(new DbStringValue(text), type))
+                .select(CONCEPT, WRITTEN);
+    }
+
+    @Benchmark
+    public int select(Blackhole blackhole) {
+        return BenchmarkData.consume(_db.select(_query), blackhole);
+    }
+}
@@ -0,0 +1,44 @@
+package sword.database;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Access to the bytes allocated by the current thread, through the extension
+ * of {@link java.lang.management.ThreadMXBean} provided by HotSpot based platforms.
+ * <p>
+ * This is kept apart from {@link PlanProfiler}, so that platforms without
+ * that extension only fail when loading this class.
+ */
+final class AllocationMeter {
+
+    private final com.sun.management.ThreadMXBean _bean;
+
+    private AllocationMeter(com.sun.management.ThreadMXBean bean) {
+        _bean = bean;
+    }
+
+    /**
+     * Return a meter for the current platform, or null if allocations can not be measured.
+     * This is also the case if measuring allocated memory has been disabled through
+     * {@link com.sun.management.ThreadMXBean#setThreadAllocatedMemoryEnabled(boolean)},
+     * as that setting applies to the whole JVM and it is not overridden.
+     */
+    static AllocationMeter create() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean extendedBean = (com.sun.management.ThreadMXBean) bean;
+            if (extendedBean.isThreadAllocatedMemorySupported() && extendedBean.isThreadAllocatedMemoryEnabled()) {
+                return new AllocationMeter(extendedBean);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the total bytes allocated by the current thread since it started.
+     */
+    long allocatedBytes() {
+        return _bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
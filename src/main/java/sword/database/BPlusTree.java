@@ -0,0 +1,318 @@
+package sword.database;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Sorted set of pairs of key and row identifier, kept as a B+ tree, for the
+ * secondary indexes in {@link MemoryDatabase} that look up ranges of keys.
+ * <p>
+ * Pairs are sorted by key and then by identifier, and placed in leaves of up to
+ * {@value #NODE_CAPACITY} pairs that are linked in order, so that a range is read
+ * by locating its first pair and walking the leaves from there. Adding or removing
+ * a pair costs O(log n). Full nodes are split in halves, while nodes are only
+ * removed once they become empty, without merging them with their neighbours.
+ * All leaves are kept at the same depth in any case.
+ *
+ * @param <K> Type of the keys.
+ */
+final class BPlusTree<K extends Comparable<? super K>> {
+
+    static final int NODE_CAPACITY = 64;
+
+    private abstract static class Node {
+        // Arrays have room for an extra pair, placed before splitting a full node
+        final Object[] keys;
+        final int[] ids;
+        int size;
+
+        Node(int keyCapacity) {
+            keys = new Object[keyCapacity];
+            ids = new int[keyCapacity];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        Leaf previous;
+        Leaf next;
+
+        Leaf() {
+            super(NODE_CAPACITY + 1);
+        }
+    }
+
+    /**
+     * Node whose pairs separate its children, where the pair at a given index
+     * is the lowest one that can be found in the child after that index.
+     * Its size is the number of children.
+     */
+    private static final class Inner extends Node {
+        final Node[] children = new Node[NODE_CAPACITY + 1];
+
+        Inner() {
+            super(NODE_CAPACITY);
+        }
+    }
+
+    private Node _root = new Leaf();
+    private int _size;
+
+    // Lowest pair of the node returned by the latest split
+    private Object _splitKey;
+    private int _splitId;
+
+    @SuppressWarnings("unchecked")
+    private static <K extends Comparable<? super K>> int compare(K key, int id, Node node, int index) {
+        final int comparison = key.compareTo((K) node.keys[index]);
+        return (comparison != 0)? comparison : Integer.compare(id, node.ids[index]);
+    }
+
+    /**
+     * Return the position of the given pair within the given leaf, or the position
+     * where it should be inserted encoded as (-position - 1) if not present.
+     */
+    private static <K extends Comparable<? super K>> int find(Leaf leaf, K key, int id) {
+        int min = 0;
+        int max = leaf.size - 1;
+        while (min <= max) {
+            final int middle = (min + max) >>> 1;
+            final int comparison = compare(key, id, leaf, middle);
+            if (comparison > 0) {
+                min = middle + 1;
+            }
+            else if (comparison < 0) {
+                max = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+
+        return -min - 1;
+    }
+
+    /**
+     * Return the index of the child of the given node where the given pair should be placed.
+     */
+    private static <K extends Comparable<? super K>> int childIndex(Inner node, K key, int id) {
+        int min = 0;
+        int max = node.size - 1;
+        while (min < max) {
+            final int middle = (min + max) >>> 1;
+            if (compare(key, id, node, middle) >= 0) {
+                min = middle + 1;
+            }
+            else {
+                max = middle;
+            }
+        }
+
+        return min;
+    }
+
+    private static void insertPair(Node node, int index, int pairCount, Object key, int id) {
+        System.arraycopy(node.keys, index, node.keys, index + 1, pairCount - index);
+        System.arraycopy(node.ids, index, node.ids, index + 1, pairCount - index);
+        node.keys[index] = key;
+        node.ids[index] = id;
+    }
+
+    private static void removePair(Node node, int index, int pairCount) {
+        System.arraycopy(node.keys, index + 1, node.keys, index, pairCount - index - 1);
+        System.arraycopy(node.ids, index + 1, node.ids, index, pairCount - index - 1);
+        node.keys[pairCount - 1] = null;
+    }
+
+    /**
+     * Add the given pair within the given subtree.
+     *
+     * @return The new node placed after the given one if it had to be split, or null otherwise.
+     *         In the former case, its lowest pair is left in {@link #_splitKey} and {@link #_splitId}.
+     */
+    private Node insert(Node node, K key, int id) {
+        if (node instanceof Leaf) {
+            final Leaf leaf = (Leaf) node;
+            final int position = find(leaf, key, id);
+            if (position >= 0) {
+                return null;
+            }
+
+            insertPair(leaf, -position - 1, leaf.size++, key, id);
+            _size++;
+            return (leaf.size > NODE_CAPACITY)? split(leaf) : null;
+        }
+
+        final Inner inner = (Inner) node;
+        final int child = childIndex(inner, key, id);
+        final Node newChild = insert(inner.children[child], key, id);
+        if (newChild == null) {
+            return null;
+        }
+
+        insertPair(inner, child, inner.size - 1, _splitKey, _splitId);
+        System.arraycopy(inner.children, child + 1, inner.children, child + 2, inner.size - child - 1);
+        inner.children[child + 1] = newChild;
+        inner.size++;
+        return (inner.size > NODE_CAPACITY)? split(inner) : null;
+    }
+
+    private Leaf split(Leaf leaf) {
+        final Leaf right = new Leaf();
+        final int leftSize = leaf.size / 2;
+        right.size = leaf.size - leftSize;
+        System.arraycopy(leaf.keys, leftSize, right.keys, 0, right.size);
+        System.arraycopy(leaf.ids, leftSize, right.ids, 0, right.size);
+        Arrays.fill(leaf.keys, leftSize, leaf.size, null);
+        leaf.size = leftSize;
+
+        right.previous = leaf;
+        right.next = leaf.next;
+        if (leaf.next != null) {
+            leaf.next.previous = right;
+        }
+        leaf.next = right;
+
+        _splitKey = right.keys[0];
+        _splitId = right.ids[0];
+        return right;
+    }
+
+    private Inner split(Inner inner) {
+        // The pair separating both halves moves to the parent
+        final Inner right = new Inner();
+        final int leftSize = inner.size / 2;
+        right.size = inner.size - leftSize;
+        System.arraycopy(inner.children, leftSize, right.children, 0, right.size);
+        System.arraycopy(inner.keys, leftSize, right.keys, 0, right.size - 1);
+        System.arraycopy(inner.ids, leftSize, right.ids, 0, right.size - 1);
+        _splitKey = inner.keys[leftSize - 1];
+        _splitId = inner.ids[leftSize - 1];
+
+        Arrays.fill(inner.children, leftSize, inner.size, null);
+        Arrays.fill(inner.keys, leftSize - 1, inner.size - 1, null);
+        inner.size = leftSize;
+        return right;
+    }
+
+    /**
+     * Remove the given pair within the given subtree.
+     *
+     * @return Whether the given node has become empty, and must be removed from its parent.
+     */
+    private boolean delete(Node node, K key, int id) {
+        if (node instanceof Leaf) {
+            final Leaf leaf = (Leaf) node;
+            final int position = find(leaf, key, id);
+            if (position < 0) {
+                return false;
+            }
+
+            removePair(leaf, position, leaf.size--);
+            _size--;
+            if (leaf.size > 0) {
+                return false;
+            }
+
+            if (leaf.previous != null) {
+                leaf.previous.next = leaf.next;
+            }
+
+            if (leaf.next != null) {
+                leaf.next.previous = leaf.previous;
+            }
+
+            return true;
+        }
+
+        final Inner inner = (Inner) node;
+        final int child = childIndex(inner, key, id);
+        if (!delete(inner.children[child], key, id)) {
+            return false;
+        }
+
+        // Removing the first child leaves its range to the next one, whose lower bound is not needed anymore
+        if (inner.size > 1) {
+            removePair(inner, (child > 0)? child - 1 : 0, inner.size - 1);
+        }
+
+        System.arraycopy(inner.children, child + 1, inner.children, child, inner.size - child - 1);
+        inner.children[--inner.size] = null;
+        return inner.size == 0;
+    }
+
+    /**
+     * Add the given pair, if not already present.
+     */
+    void add(K key, int id) {
+        final Node newNode = insert(_root, key, id);
+        if (newNode != null) {
+            final Inner root = new Inner();
+            root.children[0] = _root;
+            root.children[1] = newNode;
+            root.keys[0] = _splitKey;
+            root.ids[0] = _splitId;
+            root.size = 2;
+            _root = root;
+        }
+        _splitKey = null;
+    }
+
+    /**
+     * Remove the given pair, if present.
+     */
+    void remove(K key, int id) {
+        if (delete(_root, key, id)) {
+            _root = new Leaf();
+        }
+
+        while (_root instanceof Inner && _root.size == 1) {
+            _root = ((Inner) _root).children[0];
+        }
+    }
+
+    /**
+     * Return the number of pairs in this tree.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return the identifiers of the pairs whose key is equal or greater than the given one,
+     * in the order of their pairs, up to the first key not matching the given condition.
+     *
+     * @param from Lowest key to be included.
+     * @param within Condition that all included keys must match, assuming that
+     *               all keys matching it are placed contiguously after the lowest key.
+     */
+    @SuppressWarnings("unchecked")
+    int[] ids(K from, Predicate<? super K> within) {
+        Node node = _root;
+        while (node instanceof Inner) {
+            node = ((Inner) node).children[childIndex((Inner) node, from, Integer.MIN_VALUE)];
+        }
+
+        Leaf leaf = (Leaf) node;
+        final int found = find(leaf, from, Integer.MIN_VALUE);
+        int position = (found >= 0)? found : -found - 1;
+        int[] result = new int[Math.min(_size, NODE_CAPACITY)];
+        int count = 0;
+        while (leaf != null) {
+            for (; position < leaf.size; position++) {
+                if (!within.test((K) leaf.keys[position])) {
+                    return Arrays.copyOf(result, count);
+                }
+
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = leaf.ids[position];
+            }
+
+            leaf = leaf.next;
+            position = 0;
+        }
+
+        return Arrays.copyOf(result, count);
+    }
+}
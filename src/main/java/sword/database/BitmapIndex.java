@@ -0,0 +1,82 @@
+package sword.database;
+
+import java.util.HashMap;
+
+/**
+ * Secondary index for a single int column within a table in {@link MemoryDatabase},
+ * where the identifiers of the rows containing each value are kept as a {@link RoaringBitmap}.
+ * <p>
+ * This is intended for columns with few distinct values, where each bitmap
+ * is expected to be dense, and where restrictions on several columns can be
+ * resolved by intersecting their bitmaps before any row is read.
+ */
+final class BitmapIndex {
+
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+    private final HashMap<Integer, RoaringBitmap> _bitmaps = new HashMap<>();
+    private int _entryCount;
+
+    /**
+     * Register that the row with the given identifier contains the given value.
+     */
+    void add(int value, int id) {
+        final RoaringBitmap bitmap = _bitmaps.computeIfAbsent(value, key -> new RoaringBitmap());
+        if (!bitmap.contains(id)) {
+            bitmap.add(id);
+            _entryCount++;
+        }
+    }
+
+    /**
+     * Unregister the given value for the row with the given identifier.
+     */
+    void remove(int value, int id) {
+        final RoaringBitmap bitmap = _bitmaps.get(value);
+        if (bitmap != null && bitmap.contains(id)) {
+            bitmap.remove(id);
+            _entryCount--;
+            if (bitmap.isEmpty()) {
+                _bitmaps.remove(value);
+            }
+        }
+    }
+
+    /**
+     * Return the number of different values currently present in the column.
+     */
+    int distinctValueCount() {
+        return _bitmaps.size();
+    }
+
+    /**
+     * Return the number of pairs of value and row identifier registered in this index.
+     */
+    int entryCount() {
+        return _entryCount;
+    }
+
+    /**
+     * Return the identifiers of all rows containing the given value.
+     * The returned bitmap must not be modified.
+     */
+    RoaringBitmap get(int value) {
+        final RoaringBitmap bitmap = _bitmaps.get(value);
+        return (bitmap != null)? bitmap : EMPTY;
+    }
+
+    /**
+     * Return the identifiers of all rows containing any of the given values, as a new bitmap.
+     */
+    RoaringBitmap getAny(int[] values) {
+        RoaringBitmap result = EMPTY;
+        for (int value : values) {
+            final RoaringBitmap bitmap = _bitmaps.get(value);
+            if (bitmap != null) {
+                result = result.or(bitmap);
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,85 @@
+package sword.database;
+
+import sword.collections.ImmutableIntList;
+
+/**
+ * Snapshot of the statistics for a single column within a table in {@link MemoryDatabase},
+ * as returned by {@link MemoryDatabase#getStatistics(DbTable)}.
+ * <p>
+ * The number of distinct values is estimated through a HyperLogLog sketch,
+ * so it may differ from the real one by a few percent. Histograms are only
+ * built for int columns, and they may not reflect the last modifications
+ * in the table, as long as they do not involve more than a tenth of its rows.
+ */
+public final class ColumnStatistics {
+    private final int _rowCount;
+    private final int _distinctCount;
+    private final DbValue _min;
+    private final DbValue _max;
+    private final int[] _histogram;
+
+    ColumnStatistics(int rowCount, int distinctCount, DbValue min, DbValue max, int[] histogram) {
+        _rowCount = rowCount;
+        _distinctCount = distinctCount;
+        _min = min;
+        _max = max;
+        _histogram = histogram;
+    }
+
+    /**
+     * Return the estimated number of different values within the column.
+     */
+    public int distinctCount() {
+        return _distinctCount;
+    }
+
+    /**
+     * Return the minimum value within the column, or null if the table is empty.
+     * Texts are compared lexicographically.
+     */
+    public DbValue min() {
+        return _min;
+    }
+
+    /**
+     * Return the maximum value within the column, or null if the table is empty.
+     * Texts are compared lexicographically.
+     */
+    public DbValue max() {
+        return _max;
+    }
+
+    /**
+     * Return the bounds of the equi-depth histogram for the column.
+     * <p>
+     * Values are split into buckets holding the same number of rows, where the
+     * bucket at index i contains the values from the bound at index i to the
+     * bound at index i + 1, both included. This is empty for text columns and empty tables.
+     */
+    public ImmutableIntList histogramBounds() {
+        final ImmutableIntList.Builder builder = new ImmutableIntList.Builder();
+        if (_histogram != null) {
+            for (int bound : _histogram) {
+                builder.add(bound);
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Return the estimated number of rows whose value is within the given limits,
+     * both included, according to the histogram for the column.
+     *
+     * @param min Minimum value accepted.
+     * @param max Maximum value accepted.
+     * @throws UnsupportedOperationException if this is a text column.
+     */
+    public int estimateRowsBetween(int min, int max) {
+        if (_histogram == null) {
+            throw new UnsupportedOperationException("Histograms are only available for int columns");
+        }
+
+        return (int) Math.round(StatisticsCollector.estimateRows(_histogram, _rowCount, min, max));
+    }
+}
@@ -0,0 +1,401 @@
+package sword.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import sword.collections.ImmutableList;
+import sword.collections.List;
+
+/**
+ * Table storage where each column is kept as an array of primitive ints.
+ * <p>
+ * Identifiers are kept in the first array, sorted, and all arrays are
+ * aligned, so the values of a row are found at the same position in all of them.
+ * Texts are dictionary-coded: each distinct text is assigned an int code, and only
+ * that code is stored in the column. All text columns of the table share the same
+ * dictionary, so two texts are equal if and only if their codes are equal.
+ * <p>
+ * The dictionary counts the stored values using each code. Codes of texts that
+ * are no longer stored are released and reused for new texts, so the dictionary
+ * never grows beyond the number of distinct texts stored at the same time.
+ */
+final class ColumnarTableStore extends TableStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final boolean[] _textColumns;
+    private final int[][] _columns;
+    private final ArrayList<String> _texts = new ArrayList<>();
+    private final HashMap<String, Integer> _codes = new HashMap<>();
+    private int[] _codeReferences = new int[INITIAL_CAPACITY];
+    private int[] _freeCodes = new int[INITIAL_CAPACITY];
+    private int _freeCodeCount;
+    private int _size;
+
+    ColumnarTableStore(DbTable table) {
+        final ImmutableList<DbColumn> columns = table.columns();
+        final int columnCount = columns.size();
+        _textColumns = new boolean[columnCount];
+        _columns = new int[columnCount][];
+        for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+            _textColumns[columnIndex] = columns.valueAt(columnIndex).isText();
+            _columns[columnIndex] = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Return the int to be stored for the given value. For texts, this
+     * registers a new reference to its code, which must be released through
+     * {@link #release(int, int)} once the value is no longer stored.
+     */
+    private int encode(Object rawValue, int column) {
+        if (!_textColumns[column]) {
+            return (Integer) rawValue;
+        }
+
+        final String text = (String) rawValue;
+        final Integer code = _codes.get(text);
+        if (code != null) {
+            _codeReferences[code]++;
+            return code;
+        }
+
+        final int newCode;
+        if (_freeCodeCount > 0) {
+            newCode = _freeCodes[--_freeCodeCount];
+            _texts.set(newCode, text);
+        }
+        else {
+            newCode = _texts.size();
+            _texts.add(text);
+            if (newCode == _codeReferences.length) {
+                _codeReferences = Arrays.copyOf(_codeReferences, newCode * 2);
+            }
+        }
+
+        _codes.put(text, newCode);
+        _codeReferences[newCode] = 1;
+        return newCode;
+    }
+
+    /**
+     * Discard a reference to the given stored value, freeing its code if it was
+     * the last value using it. This does nothing for int columns.
+     */
+    private void release(int value, int column) {
+        if (_textColumns[column] && --_codeReferences[value] == 0) {
+            _codes.remove(_texts.get(value));
+            _texts.set(value, null);
+            if (_freeCodeCount == _freeCodes.length) {
+                _freeCodes = Arrays.copyOf(_freeCodes, _freeCodeCount * 2);
+            }
+
+            _freeCodes[_freeCodeCount++] = value;
+        }
+    }
+
+    private Object decode(int value, int column) {
+        return _textColumns[column]? _texts.get(value) : (Object) value;
+    }
+
+    /**
+     * Return the number of codes within the dictionary, including the released ones.
+     */
+    int dictionarySize() {
+        return _texts.size();
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    int idAt(int position) {
+        return _columns[0][position];
+    }
+
+    @Override
+    int position(int id) {
+        final int position = Arrays.binarySearch(_columns[0], 0, _size, id);
+        return (position >= 0)? position : -1;
+    }
+
+    @Override
+    Object valueAt(int position, int column) {
+        return decode(_columns[column][position], column);
+    }
+
+    @Override
+    ImmutableList<Object> registerAt(int position) {
+        final int columnCount = _columns.length;
+        final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> columnCount - 1);
+        for (int column = 1; column < columnCount; column++) {
+            builder.add(decode(_columns[column][position], column));
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    ImmutableList<Object> rowAt(int position) {
+        final int columnCount = _columns.length;
+        final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> columnCount);
+        for (int column = 0; column < columnCount; column++) {
+            builder.add(decode(_columns[column][position], column));
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    void put(int id, List<Object> register) {
+        final int columnCount = _columns.length;
+        int position = Arrays.binarySearch(_columns[0], 0, _size, id);
+        final boolean replacing = position >= 0;
+        if (!replacing) {
+            position = -position - 1;
+            final boolean full = _size == _columns[0].length;
+            for (int column = 0; column < columnCount; column++) {
+                final int[] oldArray = _columns[column];
+                final int[] newArray = full? new int[oldArray.length * 2] : oldArray;
+                if (full) {
+                    System.arraycopy(oldArray, 0, newArray, 0, position);
+                }
+
+                System.arraycopy(oldArray, position, newArray, position + 1, _size - position);
+                _columns[column] = newArray;
+            }
+
+            _columns[0][position] = id;
+            _size++;
+        }
+
+        for (int column = 1; column < columnCount; column++) {
+            // New value is encoded before releasing the old one, so that the code is kept if the text is the same
+            final int oldValue = _columns[column][position];
+            _columns[column][position] = encode(register.valueAt(column - 1), column);
+            if (replacing) {
+                release(oldValue, column);
+            }
+        }
+    }
+
+    @Override
+    void removeAt(int position) {
+        for (int column = 1; column < _columns.length; column++) {
+            release(_columns[column][position], column);
+        }
+
+        for (int[] array : _columns) {
+            System.arraycopy(array, position + 1, array, position, _size - position - 1);
+        }
+
+        _size--;
+    }
+
+    @Override
+    Matcher matcher(TableFilter filter) {
+        return new ColumnarMatcher(filter);
+    }
+
+    /**
+     * Check the rows comparing the stored ints directly, without decoding them.
+     * <p>
+     * Restrictions on text columns other than exact ones are evaluated at most
+     * once per distinct text, and the result is kept for the rest of rows sharing its code.
+     * Range restrictions on int columns are resolved to their inclusive limits before starting,
+     * and IN restrictions on int columns probe their set with the stored int directly.
+     * When checking batches, each restriction narrows the whole selection vector in a
+     * loop over the primitive column array before the next restriction is applied.
+     * This assumes that the table is not modified while the matcher is in use.
+     */
+    private final class ColumnarMatcher extends Matcher {
+        private static final byte UNKNOWN = 0;
+        private static final byte MATCHING = 1;
+        private static final byte NOT_MATCHING = 2;
+
+        private final TableFilter _filter;
+        private final int[] _exactValues;
+        private final long[] _lowerBounds;
+        private final long[] _upperBounds;
+        private final byte[][] _codeMatches;
+        private final boolean _neverMatches;
+
+        ColumnarMatcher(TableFilter filter) {
+            final int restrictionCount = filter.restrictedColumns.length;
+            _filter = filter;
+            _exactValues = new int[restrictionCount];
+            _lowerBounds = new long[restrictionCount];
+            _upperBounds = new long[restrictionCount];
+            _codeMatches = new byte[restrictionCount][];
+
+            boolean neverMatches = false;
+            for (int i = 0; i < restrictionCount; i++) {
+                final int column = filter.restrictedColumns[i];
+                final Object value = filter.restrictedValues[i];
+                if (filter.restrictionTypes[i] == DbQuery.RestrictionTypes.EXACT) {
+                    final Integer code = _textColumns[column]? _codes.get(value) :
+                            (value instanceof Integer)? (Integer) value : null;
+                    if (code == null) {
+                        neverMatches = true;
+                    }
+                    else {
+                        _exactValues[i] = code;
+                    }
+                }
+                else if (_textColumns[column]) {
+                    _codeMatches[i] = new byte[_texts.size()];
+                }
+                else if (filter.restrictionTypes[i] != DbQuery.RestrictionTypes.IN) {
+                    _lowerBounds[i] = filter.lowerBound(i);
+                    _upperBounds[i] = filter.upperBound(i);
+                    if (_lowerBounds[i] > _upperBounds[i]) {
+                        neverMatches = true;
+                    }
+                }
+            }
+
+            _neverMatches = neverMatches;
+        }
+
+        private boolean codeMatches(int restriction, int code) {
+            byte match = _codeMatches[restriction][code];
+            if (match == UNKNOWN) {
+                match = TableFilter.matchesRestriction(_filter.restrictionTypes[restriction], _filter.restrictedValues[restriction], null, _texts.get(code))?
+                        MATCHING : NOT_MATCHING;
+                _codeMatches[restriction][code] = match;
+            }
+
+            return match == MATCHING;
+        }
+
+        @Override
+        boolean matches(int position) {
+            if (_neverMatches) {
+                return false;
+            }
+
+            final int[] restrictedColumns = _filter.restrictedColumns;
+            for (int i = 0; i < restrictedColumns.length; i++) {
+                final int column = restrictedColumns[i];
+                final int value = _columns[column][position];
+                final int type = _filter.restrictionTypes[i];
+                if (type == DbQuery.RestrictionTypes.EXACT) {
+                    if (value != _exactValues[i]) {
+                        return false;
+                    }
+                }
+                else if (_codeMatches[i] != null) {
+                    if (!codeMatches(i, value)) {
+                        return false;
+                    }
+                }
+                else if (type == DbQuery.RestrictionTypes.IN) {
+                    if (!((IntProbeSet) _filter.restrictedValues[i]).contains(value)) {
+                        return false;
+                    }
+                }
+                else if (value < _lowerBounds[i] || value > _upperBounds[i]) {
+                    return false;
+                }
+            }
+
+            final int[] matchPairs = _filter.matchPairs;
+            final boolean[] mustMatch = _filter.mustMatch;
+            for (int i = 0; i < mustMatch.length; i++) {
+                final int a = matchPairs[2 * i];
+                final int b = matchPairs[2 * i + 1];
+                final boolean matching = _textColumns[a] == _textColumns[b] && _columns[a][position] == _columns[b][position];
+                if (matching != mustMatch[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Check all rows in the selection vector for each restriction and column
+         * value match before moving to the next one, reading the column arrays
+         * directly within each loop.
+         */
+        @Override
+        int filter(int[] selection, int count) {
+            if (_neverMatches) {
+                return 0;
+            }
+
+            final int[] restrictedColumns = _filter.restrictedColumns;
+            for (int i = 0; i < restrictedColumns.length && count > 0; i++) {
+                final int[] column = _columns[restrictedColumns[i]];
+                final int type = _filter.restrictionTypes[i];
+                int kept = 0;
+                if (type == DbQuery.RestrictionTypes.EXACT) {
+                    final int exactValue = _exactValues[i];
+                    for (int index = 0; index < count; index++) {
+                        final int position = selection[index];
+                        selection[kept] = position;
+                        kept += (column[position] == exactValue)? 1 : 0;
+                    }
+                }
+                else if (_codeMatches[i] != null) {
+                    for (int index = 0; index < count; index++) {
+                        final int position = selection[index];
+                        if (codeMatches(i, column[position])) {
+                            selection[kept++] = position;
+                        }
+                    }
+                }
+                else if (type == DbQuery.RestrictionTypes.IN) {
+                    final IntProbeSet values = (IntProbeSet) _filter.restrictedValues[i];
+                    for (int index = 0; index < count; index++) {
+                        final int position = selection[index];
+                        selection[kept] = position;
+                        kept += values.contains(column[position])? 1 : 0;
+                    }
+                }
+                else {
+                    final long lowerBound = _lowerBounds[i];
+                    final long upperBound = _upperBounds[i];
+                    for (int index = 0; index < count; index++) {
+                        final int position = selection[index];
+                        final int value = column[position];
+                        selection[kept] = position;
+                        kept += (value >= lowerBound && value <= upperBound)? 1 : 0;
+                    }
+                }
+
+                count = kept;
+            }
+
+            final int[] matchPairs = _filter.matchPairs;
+            final boolean[] mustMatch = _filter.mustMatch;
+            for (int i = 0; i < mustMatch.length && count > 0; i++) {
+                final int a = matchPairs[2 * i];
+                final int b = matchPairs[2 * i + 1];
+                if (_textColumns[a] != _textColumns[b]) {
+                    // Values of different types never match
+                    if (mustMatch[i]) {
+                        return 0;
+                    }
+                }
+                else {
+                    final int[] columnA = _columns[a];
+                    final int[] columnB = _columns[b];
+                    final boolean expected = mustMatch[i];
+                    int kept = 0;
+                    for (int index = 0; index < count; index++) {
+                        final int position = selection[index];
+                        selection[kept] = position;
+                        kept += ((columnA[position] == columnB[position]) == expected)? 1 : 0;
+                    }
+                    count = kept;
+                }
+            }
+
+            return count;
+        }
+    }
+}
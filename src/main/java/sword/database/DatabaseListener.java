@@ -0,0 +1,74 @@
+package sword.database;
+
+/**
+ * Receives a callback for each operation executed on a {@link MemoryDatabase}.
+ * <p>
+ * All callbacks provide the executed query, the nanoseconds spent executing it,
+ * the rows of tables checked while executing it, the rows returned and the rows
+ * inserted, updated or deleted. Callbacks are called in the thread that executed
+ * the operation, after it is executed, so they should return quickly.
+ * <p>
+ * All callbacks do nothing by default.
+ *
+ * @see MemoryDatabase#setListener(DatabaseListener)
+ */
+public interface DatabaseListener {
+
+    /**
+     * Called after executing a query.
+     * <p>
+     * Rows of results provided lazily are computed while they are read,
+     * so this is not called for them until all their rows have been computed
+     * or they are closed, and the elapsed time includes the time between
+     * their creation and that moment.
+     *
+     * @param query Executed query.
+     * @param elapsedNanos Nanoseconds spent executing the query.
+     * @param scannedRows Rows checked while scanning tables. Rows found by joining
+     *                    through identifiers or indexes are not included.
+     * @param returnedRows Rows within the result.
+     * @param affectedRows Always 0.
+     */
+    default void selected(DbQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+        // Nothing to be done by default
+    }
+
+    /**
+     * Called after executing an insertion.
+     *
+     * @param query Executed query.
+     * @param elapsedNanos Nanoseconds spent executing the query.
+     * @param scannedRows Always 0, as uniqueness is checked through the identifiers or the indexes.
+     * @param returnedRows Always 0.
+     * @param affectedRows 1 if the row has been inserted, or 0 if it was rejected.
+     */
+    default void inserted(DbInsertQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+        // Nothing to be done by default
+    }
+
+    /**
+     * Called after executing an update.
+     *
+     * @param query Executed query.
+     * @param elapsedNanos Nanoseconds spent executing the query.
+     * @param scannedRows Rows checked against the constraints of the query.
+     * @param returnedRows Always 0.
+     * @param affectedRows Rows updated.
+     */
+    default void updated(DbUpdateQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+        // Nothing to be done by default
+    }
+
+    /**
+     * Called after executing a deletion.
+     *
+     * @param query Executed query.
+     * @param elapsedNanos Nanoseconds spent executing the query.
+     * @param scannedRows Rows checked against the constraints of the query.
+     * @param returnedRows Always 0.
+     * @param affectedRows Rows deleted.
+     */
+    default void deleted(DbDeleteQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+        // Nothing to be done by default
+    }
+}
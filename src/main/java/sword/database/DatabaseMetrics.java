@@ -0,0 +1,320 @@
+package sword.database;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Registry of metrics for the operations executed on a {@link MemoryDatabase},
+ * created through {@link MemoryDatabase#enableMetrics()}.
+ * <p>
+ * It receives every operation of the database, alongside any listener set through
+ * {@link MemoryDatabase#setListener(DatabaseListener)}, so values are recorded in the
+ * thread executing each operation, while they can be read from any thread, including
+ * the ones serving JMX clients once published through {@link #register(ObjectName)}.
+ * All values are kept in lock-free structures: counters, rates over the last minute,
+ * and {@link LatencyHistogram}s for the latency percentiles. Sizes of tables and indexes are
+ * registered after each operation modifying them, so that they are never read from the
+ * database while it may be modified.
+ */
+public final class DatabaseMetrics implements DatabaseListener, DatabaseMetricsMXBean {
+
+    private static final class OperationMetrics {
+        final LongAdder count = new LongAdder();
+        final Rate rate = new Rate();
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        void record(long elapsedNanos) {
+            count.increment();
+            rate.mark();
+            latencies.record(elapsedNanos);
+        }
+
+        void reset() {
+            count.reset();
+            rate.reset();
+            latencies.reset();
+        }
+    }
+
+    /**
+     * Events per second, exponentially weighted over the last minute, as Unix load averages are.
+     * <p>
+     * Events are counted apart, and the rate is updated every {@value #TICK_SECONDS} seconds
+     * by the first thread marking or reading it after that interval.
+     */
+    private static final class Rate {
+        private static final int TICK_SECONDS = 5;
+        private static final long TICK_NANOS = TICK_SECONDS * 1000000000L;
+        private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+        private final LongAdder _uncounted = new LongAdder();
+        private final AtomicLong _lastTick = new AtomicLong(System.nanoTime());
+        private volatile double _rate;
+        private volatile boolean _initialized;
+
+        private void tickIfNecessary() {
+            final long lastTick = _lastTick.get();
+            final long age = System.nanoTime() - lastTick;
+            if (age >= TICK_NANOS && _lastTick.compareAndSet(lastTick, lastTick + age - age % TICK_NANOS)) {
+                // Only the thread updating the last tick updates the rate
+                for (long tick = age / TICK_NANOS; tick > 0; tick--) {
+                    final double instantRate = (double) _uncounted.sumThenReset() / TICK_SECONDS;
+                    if (_initialized) {
+                        _rate += ALPHA * (instantRate - _rate);
+                    }
+                    else {
+                        _rate = instantRate;
+                        _initialized = true;
+                    }
+                }
+            }
+        }
+
+        void mark() {
+            tickIfNecessary();
+            _uncounted.increment();
+        }
+
+        double perSecond() {
+            tickIfNecessary();
+            return _rate;
+        }
+
+        void reset() {
+            _uncounted.reset();
+            _initialized = false;
+            _rate = 0;
+        }
+    }
+
+    private final MemoryDatabase _database;
+    private final OperationMetrics _selects = new OperationMetrics();
+    private final OperationMetrics _inserts = new OperationMetrics();
+    private final OperationMetrics _updates = new OperationMetrics();
+    private final OperationMetrics _deletes = new OperationMetrics();
+    private final ConcurrentHashMap<String, Integer> _tableSizes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> _indexSizes = new ConcurrentHashMap<>();
+
+    // Cache counters of the database, as they were after the latest query and at the latest reset
+    private volatile long _planCacheHits;
+    private volatile long _planCacheMisses;
+    private volatile long _resultCacheHits;
+    private volatile long _resultCacheMisses;
+    private volatile long[] _resetCacheCounters;
+
+    private ObjectName _objectName;
+
+    DatabaseMetrics(MemoryDatabase database) {
+        _database = database;
+        readCacheCounters();
+        _resetCacheCounters = new long[] {_planCacheHits, _planCacheMisses, _resultCacheHits, _resultCacheMisses};
+    }
+
+    private void readCacheCounters() {
+        _planCacheHits = _database.planCacheHits();
+        _planCacheMisses = _database.planCacheMisses();
+        _resultCacheHits = _database.resultCacheHits();
+        _resultCacheMisses = _database.resultCacheMisses();
+    }
+
+    void setTableSize(String table, int rowCount) {
+        _tableSizes.put(table, rowCount);
+    }
+
+    void setIndexSize(String index, int entryCount) {
+        _indexSizes.put(index, entryCount);
+    }
+
+    /**
+     * Publish these metrics in the platform MBean server with the given name,
+     * like <code>sword.database:type=MemoryDatabase,name=main</code>.
+     *
+     * @throws JMException If the name is invalid or already registered.
+     * @throws IllegalStateException If these metrics are already published.
+     */
+    public synchronized void register(ObjectName name) throws JMException {
+        if (_objectName != null) {
+            throw new IllegalStateException("Already registered as " + _objectName);
+        }
+
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        _objectName = name;
+    }
+
+    /**
+     * Remove these metrics from the platform MBean server, if published.
+     */
+    public synchronized void unregister() throws JMException {
+        if (_objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+            _objectName = null;
+        }
+    }
+
+    @Override
+    public void selected(DbQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+        _selects.record(elapsedNanos);
+        readCacheCounters();
+    }
+
+    @Override
+    public void inserted(DbInsertQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+        _inserts.record(elapsedNanos);
+        _database.publishSizes(query.getTable(), this);
+    }
+
+    @Override
+    public void updated(DbUpdateQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+        _updates.record(elapsedNanos);
+        _database.publishSizes(query.table(), this);
+    }
+
+    @Override
+    public void deleted(DbDeleteQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+        _deletes.record(elapsedNanos);
+        _database.publishSizes(query.table(), this);
+    }
+
+    @Override
+    public long getSelectCount() {
+        return _selects.count.sum();
+    }
+
+    @Override
+    public long getInsertCount() {
+        return _inserts.count.sum();
+    }
+
+    @Override
+    public long getUpdateCount() {
+        return _updates.count.sum();
+    }
+
+    @Override
+    public long getDeleteCount() {
+        return _deletes.count.sum();
+    }
+
+    @Override
+    public double getSelectsPerSecond() {
+        return _selects.rate.perSecond();
+    }
+
+    @Override
+    public double getInsertsPerSecond() {
+        return _inserts.rate.perSecond();
+    }
+
+    @Override
+    public double getUpdatesPerSecond() {
+        return _updates.rate.perSecond();
+    }
+
+    @Override
+    public double getDeletesPerSecond() {
+        return _deletes.rate.perSecond();
+    }
+
+    @Override
+    public long getSelectLatencyP50() {
+        return _selects.latencies.valueAtPercentile(50);
+    }
+
+    @Override
+    public long getSelectLatencyP99() {
+        return _selects.latencies.valueAtPercentile(99);
+    }
+
+    @Override
+    public long getSelectLatencyP999() {
+        return _selects.latencies.valueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getInsertLatencyP50() {
+        return _inserts.latencies.valueAtPercentile(50);
+    }
+
+    @Override
+    public long getInsertLatencyP99() {
+        return _inserts.latencies.valueAtPercentile(99);
+    }
+
+    @Override
+    public long getInsertLatencyP999() {
+        return _inserts.latencies.valueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getUpdateLatencyP50() {
+        return _updates.latencies.valueAtPercentile(50);
+    }
+
+    @Override
+    public long getUpdateLatencyP99() {
+        return _updates.latencies.valueAtPercentile(99);
+    }
+
+    @Override
+    public long getUpdateLatencyP999() {
+        return _updates.latencies.valueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getDeleteLatencyP50() {
+        return _deletes.latencies.valueAtPercentile(50);
+    }
+
+    @Override
+    public long getDeleteLatencyP99() {
+        return _deletes.latencies.valueAtPercentile(99);
+    }
+
+    @Override
+    public long getDeleteLatencyP999() {
+        return _deletes.latencies.valueAtPercentile(99.9);
+    }
+
+    @Override
+    public Map<String, Integer> getTableSizes() {
+        return new HashMap<>(_tableSizes);
+    }
+
+    @Override
+    public Map<String, Integer> getIndexSizes() {
+        return new HashMap<>(_indexSizes);
+    }
+
+    private static double hitRate(long hits, long misses) {
+        final long total = hits + misses;
+        return (total > 0)? (double) hits / total : 0;
+    }
+
+    @Override
+    public double getResultCacheHitRate() {
+        final long[] reset = _resetCacheCounters;
+        return hitRate(_resultCacheHits - reset[2], _resultCacheMisses - reset[3]);
+    }
+
+    @Override
+    public double getPlanCacheHitRate() {
+        final long[] reset = _resetCacheCounters;
+        return hitRate(_planCacheHits - reset[0], _planCacheMisses - reset[1]);
+    }
+
+    @Override
+    public void reset() {
+        _selects.reset();
+        _inserts.reset();
+        _updates.reset();
+        _deletes.reset();
+        _resetCacheCounters = new long[] {_planCacheHits, _planCacheMisses, _resultCacheHits, _resultCacheMisses};
+    }
+}
@@ -0,0 +1,83 @@
+package sword.database;
+
+import java.util.Map;
+
+/**
+ * Management interface for {@link DatabaseMetrics}, as published through JMX.
+ * <p>
+ * Counts and latencies are accumulated since the metrics were created or last reset.
+ * Rates are exponentially weighted over the last minute. Latencies are in nanoseconds,
+ * with a relative error below 1/16.
+ */
+public interface DatabaseMetricsMXBean {
+
+    long getSelectCount();
+
+    long getInsertCount();
+
+    long getUpdateCount();
+
+    long getDeleteCount();
+
+    double getSelectsPerSecond();
+
+    double getInsertsPerSecond();
+
+    double getUpdatesPerSecond();
+
+    double getDeletesPerSecond();
+
+    long getSelectLatencyP50();
+
+    long getSelectLatencyP99();
+
+    long getSelectLatencyP999();
+
+    long getInsertLatencyP50();
+
+    long getInsertLatencyP99();
+
+    long getInsertLatencyP999();
+
+    long getUpdateLatencyP50();
+
+    long getUpdateLatencyP99();
+
+    long getUpdateLatencyP999();
+
+    long getDeleteLatencyP50();
+
+    long getDeleteLatencyP99();
+
+    long getDeleteLatencyP999();
+
+    /**
+     * Return the number of rows of each table, by table name,
+     * as they were after the latest modification of each table.
+     */
+    Map<String, Integer> getTableSizes();
+
+    /**
+     * Return the number of entries in each secondary index, by a name composed of the names
+     * of its table and column and its type, like <code>Words.written.trigram</code>,
+     * as they were after the latest modification of its table.
+     */
+    Map<String, Integer> getIndexSizes();
+
+    /**
+     * Return the fraction of executed queries whose result was found in the result cache,
+     * or 0 if no query has been executed with the cache enabled.
+     */
+    double getResultCacheHitRate();
+
+    /**
+     * Return the fraction of executed queries whose plan had already been compiled,
+     * or 0 if no query has been executed.
+     */
+    double getPlanCacheHitRate();
+
+    /**
+     * Discard all counts, rates and latencies registered so far.
+     */
+    void reset();
+}
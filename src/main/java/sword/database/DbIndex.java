@@ -6,21 +6,101 @@ package sword.database;
  * values faster.
  */
 public final class DbIndex {
+
+    /**
+     * Kinds of index that can be declared for a column.
+     */
+    public interface Types {
+
+        /**
+         * Index to look for rows containing an exact value.
+         */
+        int VALUE = 0;
+
+        /**
+         * Index to look for rows whose text contains a given substring,
+         * by registering all sequences of 3 consecutive characters (trigrams) of each text.
+         * <p>
+         * This is only applicable to text columns, and it is only used for
+         * restrictions whose text is at least 3 characters long.
+         */
+        int TRIGRAM = 1;
+
+        /**
+         * Index to look for rows whose text starts with a given prefix, by keeping all texts sorted.
+         * <p>
+         * This is only applicable to text columns.
+         */
+        int PREFIX = 2;
+
+        /**
+         * Index to look for rows whose text ends with a given suffix, by keeping
+         * all texts sorted with their characters in reverse order.
+         * <p>
+         * This is only applicable to text columns.
+         */
+        int SUFFIX = 3;
+
+        /**
+         * Index to look for rows whose value is within a range, by keeping all values sorted.
+         * <p>
+         * This is only applicable to int columns.
+         */
+        int ORDERED = 4;
+
+        /**
+         * Index to look for rows containing an exact value, keeping the rows
+         * for each value as a compressed bitmap. This is intended for columns
+         * with few distinct values, as restrictions on several of them can be
+         * resolved by intersecting their bitmaps.
+         * <p>
+         * This is only applicable to int columns.
+         */
+        int BITMAP = 5;
+    }
+
+    private static final String[] TYPE_NAMES = {"value", "trigram", "prefix", "suffix", "ordered", "bitmap"};
+
     public final DbTable table;
     public final int column;
 
+    /**
+     * One of the values within {@link Types}.
+     */
+    public final int type;
+
     public DbIndex(DbTable table, int column) {
-        if (table == null || column < 0 || column >= table.columns().size()) {
+        this(table, column, Types.VALUE);
+    }
+
+    public DbIndex(DbTable table, int column, int type) {
+        if (table == null || column < 0 || column >= table.columns().size() || type < Types.VALUE || type > Types.BITMAP) {
+            throw new IllegalArgumentException();
+        }
+
+        final boolean isText = table.columns().valueAt(column).isText();
+        final boolean intOnly = type == Types.ORDERED || type == Types.BITMAP;
+        if (intOnly && isText || type != Types.VALUE && !intOnly && !isText) {
             throw new IllegalArgumentException();
         }
 
         this.table = table;
         this.column = column;
+        this.type = type;
+    }
+
+    /**
+     * Return a short name for the given type, as used when describing indexes.
+     *
+     * @param type One of the values within {@link Types}.
+     */
+    static String typeName(int type) {
+        return TYPE_NAMES[type];
     }
 
     @Override
     public int hashCode() {
-        return table.hashCode() * 13 + column;
+        return (table.hashCode() * 13 + column) * 7 + type;
     }
 
     @Override
@@ -30,6 +110,6 @@ public final class DbIndex {
         }
 
         final DbIndex that = (DbIndex) other;
-        return column == that.column && table.equals(that.table);
+        return column == that.column && type == that.type && table.equals(that.table);
     }
 }
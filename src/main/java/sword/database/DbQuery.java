@@ -18,6 +18,10 @@ public final class DbQuery implements DbView {
 
     private static final int FLAG_COLUMN_FUNCTION_MAX = 0x10000;
     private static final int FLAG_COLUMN_FUNCTION_CONCAT = 0x20000;
+    private static final int FLAG_COLUMN_FUNCTION_COUNT = 0x40000;
+    private static final int FLAG_COLUMN_FUNCTION_SUM = 0x80000;
+    private static final int FLAG_COLUMN_FUNCTION_MIN = 0x100000;
+    private static final int FLAG_COLUMN_FUNCTION_AVG = 0x200000;
     private static final ImmutableIntRange ALL_ROWS_RANGE = new ImmutableIntRange(0, Integer.MAX_VALUE);
 
     private final DbView[] _tables;
@@ -34,6 +38,9 @@ public final class DbQuery implements DbView {
     // Function that should be applied on each selection. This list should match the selection length
     private final ImmutableIntList _selectionFunctions;
 
+    // Whether each parameter, by its index, is expected to be a text
+    private final boolean[] _textParameters;
+
     private final transient DbColumn[] _joinColumns;
     private transient ImmutableList<DbColumn> _columns;
 
@@ -85,9 +92,16 @@ public final class DbQuery implements DbView {
             selectionBuilder.add(column);
 
             final int func = selection[i] & ~(FLAG_COLUMN_FUNCTION_MAX - 1);
-            if (func != 0 && func != FLAG_COLUMN_FUNCTION_MAX && func != FLAG_COLUMN_FUNCTION_CONCAT) {
+            if (func != 0 && func != FLAG_COLUMN_FUNCTION_MAX && func != FLAG_COLUMN_FUNCTION_CONCAT &&
+                    func != FLAG_COLUMN_FUNCTION_COUNT && func != FLAG_COLUMN_FUNCTION_SUM &&
+                    func != FLAG_COLUMN_FUNCTION_MIN && func != FLAG_COLUMN_FUNCTION_AVG) {
                 throw new IllegalArgumentException("Unexpected aggregate function");
             }
+
+            if ((func == FLAG_COLUMN_FUNCTION_SUM || func == FLAG_COLUMN_FUNCTION_MIN || func == FLAG_COLUMN_FUNCTION_AVG) &&
+                    joinColumns[column].isText()) {
+                throw new IllegalArgumentException("Aggregate function only applicable to int columns");
+            }
             selectionFuncBuilder.add(func);
         }
 
@@ -108,6 +122,8 @@ public final class DbQuery implements DbView {
             }
         }
 
+        final boolean[] textParameters = parameterTypes(tables, restrictions);
+
         if (groupBy == null) {
             groupBy = new int[0];
         }
@@ -138,10 +154,93 @@ public final class DbQuery implements DbView {
         _range = range;
         _selection = selectionBuilder.build();
         _selectionFunctions = selectionFuncBuilder.build();
+        _textParameters = textParameters;
 
         _joinColumns = joinColumns;
     }
 
+    /**
+     * Collect the type of all parameters within the restrictions of the
+     * query and its nested queries, checking that their indexes are
+     * consecutive from 0 and that each index is always used with the same type.
+     */
+    private static boolean[] parameterTypes(DbView[] tables, ImmutableIntKeyMap<Restriction> restrictions) {
+        int parameterCount = 0;
+        for (DbView view : tables) {
+            final DbQuery viewAsQuery = view.asQuery();
+            if (viewAsQuery != null && viewAsQuery.getParameterCount() > parameterCount) {
+                parameterCount = viewAsQuery.getParameterCount();
+            }
+        }
+
+        for (Restriction restriction : restrictions) {
+            if (restriction.value instanceof Parameter && ((Parameter) restriction.value).index >= parameterCount) {
+                parameterCount = ((Parameter) restriction.value).index + 1;
+            }
+
+            if (restriction.maxValue instanceof Parameter && ((Parameter) restriction.maxValue).index >= parameterCount) {
+                parameterCount = ((Parameter) restriction.maxValue).index + 1;
+            }
+        }
+
+        final boolean[] textParameters = new boolean[parameterCount];
+        final boolean[] found = new boolean[parameterCount];
+        for (DbView view : tables) {
+            final DbQuery viewAsQuery = view.asQuery();
+            if (viewAsQuery != null) {
+                final int viewParameterCount = viewAsQuery.getParameterCount();
+                for (int index = 0; index < viewParameterCount; index++) {
+                    setParameterType(textParameters, found, index, viewAsQuery.isTextParameter(index));
+                }
+            }
+        }
+
+        for (Restriction restriction : restrictions) {
+            if (restriction.value instanceof Parameter) {
+                final Parameter parameter = (Parameter) restriction.value;
+                setParameterType(textParameters, found, parameter.index, parameter.isText());
+            }
+
+            if (restriction.maxValue instanceof Parameter) {
+                final Parameter parameter = (Parameter) restriction.maxValue;
+                setParameterType(textParameters, found, parameter.index, parameter.isText());
+            }
+        }
+
+        for (boolean parameterFound : found) {
+            if (!parameterFound) {
+                throw new IllegalArgumentException("Parameter indexes must be consecutive from 0");
+            }
+        }
+
+        return textParameters;
+    }
+
+    private static void setParameterType(boolean[] textParameters, boolean[] found, int index, boolean isText) {
+        if (found[index] && textParameters[index] != isText) {
+            throw new IllegalArgumentException("Parameter " + index + " used with different types");
+        }
+
+        textParameters[index] = isText;
+        found[index] = true;
+    }
+
+    /**
+     * Return the number of parameters that must be provided in order to execute this query,
+     * including the ones within any nested query.
+     * This is 0 if no restriction in the query is a {@link Parameter}.
+     */
+    public int getParameterCount() {
+        return _textParameters.length;
+    }
+
+    /**
+     * Whether the parameter with the given index is expected to be a text.
+     */
+    public boolean isTextParameter(int index) {
+        return _textParameters[index];
+    }
+
     public int getTableCount() {
         return _tables.length;
     }
@@ -186,8 +285,10 @@ public final class DbQuery implements DbView {
     public ImmutableList<DbColumn> columns() {
         if (_columns == null) {
             final ImmutableList.Builder<DbColumn> builder = new ImmutableList.Builder<>();
-            for (int selected : _selection) {
-                builder.add(_joinColumns[selected]);
+            final int selectionCount = _selection.size();
+            for (int i = 0; i < selectionCount; i++) {
+                final DbColumn column = _joinColumns[_selection.valueAt(i)];
+                builder.add(isCountAggregateFunctionSelection(i)? new DbIntColumn("count") : column);
             }
 
             _columns = builder.build();
@@ -248,6 +349,12 @@ public final class DbQuery implements DbView {
 
     public interface RestrictionTypes {
         int EXACT = 0;
+
+        /**
+         * Value must be equal to any of the given ones. Restrictions of this type must be created through
+         * {@link Restriction#Restriction(ImmutableList)}.
+         */
+        int IN = 9;
     }
 
     public interface RestrictionStringTypes extends RestrictionTypes {
@@ -256,23 +363,157 @@ public final class DbQuery implements DbView {
         int CONTAINS = 3;
     }
 
+    public interface RestrictionIntTypes extends RestrictionTypes {
+        int LT = 4;
+        int LE = 5;
+        int GT = 6;
+        int GE = 7;
+
+        /**
+         * Both limits included. Restrictions of this type must be created through
+         * {@link Restriction#Restriction(DbValue, DbValue)}.
+         */
+        int BETWEEN = 8;
+    }
+
     public static final class Restriction {
         public final DbValue value;
 
+        /**
+         * Upper limit for {@link RestrictionIntTypes#BETWEEN} restrictions, where {@link #value} is the lower one.
+         * This is null for any other type.
+         */
+        public final DbValue maxValue;
+
+        /**
+         * All allowed values for {@link RestrictionTypes#IN} restrictions, where {@link #value} is the first one.
+         * This is null for any other type.
+         */
+        public final ImmutableList<DbValue> values;
+
         /**
          * If DbValue is text, this must be one of the values within {@link DbQuery.RestrictionStringTypes}
-         * If DbValue is int, this must be 0
+         * If DbValue is int, this must be one of the values within {@link DbQuery.RestrictionIntTypes}
          */
         public final int type;
 
         public Restriction(DbValue value, int type) {
-            if (value == null || value.isText() && (type < 0 || type > 3) || !value.isText() && type != RestrictionTypes.EXACT) {
+            if (value == null || value.isText() && (type < 0 || type > RestrictionStringTypes.CONTAINS) ||
+                    !value.isText() && type != RestrictionTypes.EXACT && (type < RestrictionIntTypes.LT || type > RestrictionIntTypes.GE)) {
                 throw new IllegalArgumentException();
             }
 
             this.value = value;
+            this.maxValue = null;
+            this.values = null;
             this.type = type;
         }
+
+        /**
+         * Create a {@link RestrictionIntTypes#BETWEEN} restriction.
+         *
+         * @param minValue Minimum int value allowed, included.
+         * @param maxValue Maximum int value allowed, included.
+         */
+        public Restriction(DbValue minValue, DbValue maxValue) {
+            if (minValue == null || maxValue == null || minValue.isText() || maxValue.isText()) {
+                throw new IllegalArgumentException();
+            }
+
+            this.value = minValue;
+            this.maxValue = maxValue;
+            this.values = null;
+            this.type = RestrictionIntTypes.BETWEEN;
+        }
+
+        /**
+         * Create a {@link RestrictionTypes#IN} restriction.
+         *
+         * @param values All values allowed. There must be at least one, all of
+         *               them must be of the same type, and none of them can be a {@link Parameter}.
+         */
+        public Restriction(ImmutableList<DbValue> values) {
+            if (values == null || values.isEmpty()) {
+                throw new IllegalArgumentException();
+            }
+
+            final boolean isText = values.valueAt(0) != null && values.valueAt(0).isText();
+            for (DbValue value : values) {
+                if (value == null || value.isText() != isText || value instanceof Parameter) {
+                    throw new IllegalArgumentException();
+                }
+            }
+
+            this.value = values.valueAt(0);
+            this.maxValue = null;
+            this.values = values;
+            this.type = RestrictionTypes.IN;
+        }
+    }
+
+    /**
+     * Placeholder for a restricted value that is only provided when the query is executed.
+     * <p>
+     * Parameters are identified by their index. Within a query, including its nested queries,
+     * indexes must be consecutive from 0, and the same index can be used in more than
+     * one restriction, as far as the type is the same.
+     *
+     * @see PreparedQuery
+     */
+    public static final class Parameter implements DbValue {
+        public final int index;
+        private final boolean _text;
+
+        private Parameter(int index, boolean text) {
+            if (index < 0) {
+                throw new IllegalArgumentException();
+            }
+
+            this.index = index;
+            _text = text;
+        }
+
+        @Override
+        public boolean isText() {
+            return _text;
+        }
+
+        @Override
+        public int toInt() {
+            throw new IllegalStateException("Parameter " + index + " is not bound");
+        }
+
+        @Override
+        public String toText() {
+            throw new IllegalStateException("Parameter " + index + " is not bound");
+        }
+
+        @Override
+        public int hashCode() {
+            return _text? -index - 1 : index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            if (!(other instanceof Parameter)) {
+                return false;
+            }
+
+            final Parameter that = (Parameter) other;
+            return index == that.index && _text == that._text;
+        }
+    }
+
+    public static Parameter intParameter(int index) {
+        return new Parameter(index, false);
+    }
+
+    public static Parameter textParameter(int index) {
+        return new Parameter(index, true);
     }
 
     public static final class Ordered {
@@ -390,6 +631,29 @@ public final class DbQuery implements DbView {
         return (_selectionFunctions.get(selectionIndex) & FLAG_COLUMN_FUNCTION_CONCAT) != 0;
     }
 
+    public boolean isCountAggregateFunctionSelection(int selectionIndex) {
+        return (_selectionFunctions.get(selectionIndex) & FLAG_COLUMN_FUNCTION_COUNT) != 0;
+    }
+
+    public boolean isSumAggregateFunctionSelection(int selectionIndex) {
+        return (_selectionFunctions.get(selectionIndex) & FLAG_COLUMN_FUNCTION_SUM) != 0;
+    }
+
+    public boolean isMinAggregateFunctionSelection(int selectionIndex) {
+        return (_selectionFunctions.get(selectionIndex) & FLAG_COLUMN_FUNCTION_MIN) != 0;
+    }
+
+    public boolean isAvgAggregateFunctionSelection(int selectionIndex) {
+        return (_selectionFunctions.get(selectionIndex) & FLAG_COLUMN_FUNCTION_AVG) != 0;
+    }
+
+    /**
+     * Whether any aggregate function should be applied on the given selection.
+     */
+    public boolean isAggregateFunctionSelection(int selectionIndex) {
+        return _selectionFunctions.get(selectionIndex) != 0;
+    }
+
     public static int max(int index) {
         return FLAG_COLUMN_FUNCTION_MAX | index;
     }
@@ -398,6 +662,39 @@ public final class DbQuery implements DbView {
         return FLAG_COLUMN_FUNCTION_CONCAT | index;
     }
 
+    /**
+     * Select the number of rows within each group.
+     * <p>
+     * As any other aggregate function, no row is returned if there are no rows to be grouped.
+     */
+    public static int count() {
+        return FLAG_COLUMN_FUNCTION_COUNT;
+    }
+
+    /**
+     * Select the sum of all values for the given int column within each group.
+     * Values are accumulated as long, and an {@link ArithmeticException} is thrown
+     * when selecting any sum that does not fit into an int.
+     */
+    public static int sum(int index) {
+        return FLAG_COLUMN_FUNCTION_SUM | index;
+    }
+
+    /**
+     * Select the minimum value for the given int column within each group.
+     */
+    public static int min(int index) {
+        return FLAG_COLUMN_FUNCTION_MIN | index;
+    }
+
+    /**
+     * Select the average value for the given int column within each group,
+     * rounded towards zero as any integer division.
+     */
+    public static int avg(int index) {
+        return FLAG_COLUMN_FUNCTION_AVG | index;
+    }
+
     public static final class Builder implements DbIdentifiableQueryBuilder {
         private final ArrayList<DbView> _tables = new ArrayList<>();
         private final ArrayList<Integer> _joinPairs = new ArrayList<>();
@@ -434,6 +731,32 @@ public final class DbQuery implements DbView {
             return this;
         }
 
+        /**
+         * Restrict the given int column to be equal to any of the given values.
+         */
+        public Builder whereIn(int columnIndex, int... values) {
+            final ImmutableList.Builder<DbValue> builder = new ImmutableList.Builder<>();
+            for (int value : values) {
+                builder.add(new DbIntValue(value));
+            }
+
+            _restrictions.put(columnIndex, new Restriction(builder.build()));
+            return this;
+        }
+
+        /**
+         * Restrict the given text column to be equal to any of the given values.
+         */
+        public Builder whereIn(int columnIndex, String... values) {
+            final ImmutableList.Builder<DbValue> builder = new ImmutableList.Builder<>();
+            for (String value : values) {
+                builder.add(new DbStringValue(value));
+            }
+
+            _restrictions.put(columnIndex, new Restriction(builder.build()));
+            return this;
+        }
+
         public Builder whereColumnValueMatch(int columnIndexA, int columnIndexB) {
             final JoinColumnPair pair = new JoinColumnPair(columnIndexA, columnIndexB, true);
             if (pair.right() >= _joinColumnCount) {
@@ -452,7 +775,25 @@ public final class DbQuery implements DbView {
             return this;
         }
 
+        /**
+         * Join a new table.
+         *
+         * @param table Table to be joined.
+         * @param left Column index within the views already joined, whose value must match.
+         * @param newTableColumnIndex Column index within the new table, whose value must match.
+         */
         public Builder join(DbTable table, int left, int newTableColumnIndex) {
+            return join((DbView) table, left, newTableColumnIndex);
+        }
+
+        /**
+         * Join a new view, which can be a table or another query.
+         *
+         * @param table View to be joined.
+         * @param left Column index within the views already joined, whose value must match.
+         * @param newTableColumnIndex Column index within the new view, whose value must match.
+         */
+        public Builder join(DbView table, int left, int newTableColumnIndex) {
             final int tableColumnCount = table.columns().size();
             if (left < 0 || left >= _joinColumnCount || newTableColumnIndex < 0 || newTableColumnIndex >= tableColumnCount) {
                 throw new IndexOutOfBoundsException();
@@ -0,0 +1,24 @@
+package sword.database;
+
+/**
+ * Database able to describe the plan followed to execute its queries.
+ */
+public interface ExplainableDatabase extends Database {
+
+    /**
+     * Describe the plan that would be followed to execute the given query,
+     * with the estimated number of rows provided by each operator, without executing it.
+     *
+     * @param query Query to be described. It must not contain any parameter.
+     * @return The root operator of the plan.
+     */
+    PlanNode explain(DbQuery query);
+
+    /**
+     * Execute the given query, measuring the actual rows, time and allocated bytes of each operator of its plan.
+     *
+     * @param query Query to be executed. It must not contain any parameter.
+     * @return The root operator of the plan, including the measures of each operator.
+     */
+    PlanNode explainAnalyze(DbQuery query);
+}
@@ -0,0 +1,115 @@
+package sword.database;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of ints used to check the values of IN restrictions within {@link MemoryDatabase}.
+ * <p>
+ * If values are close enough to each other, they are kept as a bitmap, where
+ * checking a value is a single bit test. Otherwise they are kept in an open
+ * addressing hash table. In both cases no value is boxed when checking.
+ */
+final class IntProbeSet {
+
+    // Bitmaps are only used if they do not take more than this number of words per value
+    private static final int MAX_BITMAP_WORDS_PER_VALUE = 4;
+
+    private final int[] _values;
+    private final int _min;
+    private final long[] _bitmap;
+    private final int[] _table;
+    private final boolean _containsZero;
+
+    /**
+     * Create a new set with the given values, that may be repeated and in any order.
+     */
+    IntProbeSet(int[] values) {
+        final int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int size = 0;
+        for (int index = 0; index < sorted.length; index++) {
+            if (size == 0 || sorted[size - 1] != sorted[index]) {
+                sorted[size++] = sorted[index];
+            }
+        }
+        _values = Arrays.copyOf(sorted, size);
+
+        final long span = (size == 0)? 0 : (long) _values[size - 1] - _values[0];
+        if (size > 0 && (span >>> 6) < (long) size * MAX_BITMAP_WORDS_PER_VALUE) {
+            _min = _values[0];
+            _bitmap = new long[(int) (span >>> 6) + 1];
+            for (int value : _values) {
+                final int offset = value - _min;
+                _bitmap[offset >>> 6] |= 1L << offset;
+            }
+
+            _table = null;
+            _containsZero = false;
+        }
+        else {
+            int capacity = 2;
+            while (capacity < size * 2) {
+                capacity <<= 1;
+            }
+
+            // 0 marks empty slots, so it is tracked apart
+            boolean containsZero = false;
+            final int[] table = new int[capacity];
+            final int mask = capacity - 1;
+            for (int value : _values) {
+                if (value == 0) {
+                    containsZero = true;
+                }
+                else {
+                    int slot = hash(value) & mask;
+                    while (table[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    table[slot] = value;
+                }
+            }
+
+            _min = 0;
+            _bitmap = null;
+            _table = table;
+            _containsZero = containsZero;
+        }
+    }
+
+    private static int hash(int value) {
+        final int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    boolean contains(int value) {
+        if (_bitmap != null) {
+            final long offset = (long) value - _min;
+            return offset >= 0 && (offset >>> 6) < _bitmap.length && (_bitmap[(int) (offset >>> 6)] & (1L << offset)) != 0;
+        }
+
+        if (value == 0) {
+            return _containsZero;
+        }
+
+        final int mask = _table.length - 1;
+        int slot = hash(value) & mask;
+        int current;
+        while ((current = _table[slot]) != 0) {
+            if (current == value) {
+                return true;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return all values in this set, sorted and without repetitions.
+     * The returned array must not be modified.
+     */
+    int[] values() {
+        return _values;
+    }
+}
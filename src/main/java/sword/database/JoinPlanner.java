@@ -0,0 +1,185 @@
+package sword.database;
+
+/**
+ * Cost-based choice of the order in which the views of a query are joined
+ * within {@link MemoryDatabase}.
+ * <p>
+ * Joins in a {@link DbQuery} form a tree, as each view after the first one is
+ * joined through a single pair of columns to a view placed before it. Any order
+ * where each view is adjacent in that tree to a view already joined can be
+ * executed, using the same pair of columns in the opposite direction if required.
+ * <p>
+ * The cost of an order is estimated as the sum of the rows read, probed and
+ * produced by each join. The number of rows produced by a join is estimated
+ * as the product of both sides, divided by the greatest number of distinct
+ * values among the two joined columns. Views joined through an index or their
+ * identifiers are probed once per row on the left, while the rest have to be
+ * read completely to be hashed.
+ * <p>
+ * All orders starting from each view are built greedily, always joining next the
+ * view that produces fewer rows, and the cheapest one is only chosen if it is
+ * significantly cheaper than the order given in the query.
+ */
+final class JoinPlanner {
+
+    /**
+     * Factor by which the estimated cost of an order must improve the cost of the
+     * original one in order to be chosen, as reordered rows have to be sorted back.
+     */
+    static final double MIN_GAIN = 2.0;
+
+    private final double[] _rows;
+    private final int[] _leftViews;
+    private final double[] _leftDistinct;
+    private final double[] _rightDistinct;
+    private final boolean[] _leftLookup;
+    private final boolean[] _rightLookup;
+
+    /**
+     * Create a new planner for a query with the given number of views.
+     * All views must be described through {@link #setView(int, double)}
+     * and all joins through {@link #setJoin(int, int, double, double, boolean, boolean)}
+     * before asking for an order.
+     */
+    JoinPlanner(int viewCount) {
+        _rows = new double[viewCount];
+        _leftViews = new int[viewCount];
+        _leftDistinct = new double[viewCount];
+        _rightDistinct = new double[viewCount];
+        _leftLookup = new boolean[viewCount];
+        _rightLookup = new boolean[viewCount];
+    }
+
+    /**
+     * Set the estimated number of rows of the given view that match its filter.
+     */
+    void setView(int view, double rows) {
+        _rows[view] = rows;
+    }
+
+    /**
+     * Describe the join of the given view with a previous one.
+     *
+     * @param view Index of the view, greater than 0.
+     * @param leftView Index of the view containing the left column of the join.
+     * @param leftDistinct Estimated number of distinct values in the left column.
+     * @param rightDistinct Estimated number of distinct values in the right column, within the given view.
+     * @param leftLookup Whether the left view can be joined by looking up the left column, if reached from the given view.
+     * @param rightLookup Whether the given view can be joined by looking up the right column.
+     */
+    void setJoin(int view, int leftView, double leftDistinct, double rightDistinct, boolean leftLookup, boolean rightLookup) {
+        _leftViews[view] = leftView;
+        _leftDistinct[view] = leftDistinct;
+        _rightDistinct[view] = rightDistinct;
+        _leftLookup[view] = leftLookup;
+        _rightLookup[view] = rightLookup;
+    }
+
+    /**
+     * Return the join connecting the given view with the already joined ones,
+     * encoded as the index of the view whose join is used, negated if it is used in the
+     * opposite direction, or 0 if the given view is not adjacent to any of them.
+     */
+    private int connection(boolean[] joined, int view) {
+        if (view > 0 && joined[_leftViews[view]]) {
+            return view;
+        }
+
+        for (int other = view + 1; other < _rows.length; other++) {
+            if (joined[other] && _leftViews[other] == view) {
+                return -other;
+            }
+        }
+
+        return 0;
+    }
+
+    private double joinedRows(double leftRows, int view, int connection) {
+        final int join = Math.abs(connection);
+        return leftRows * _rows[view] / Math.max(1, Math.max(_leftDistinct[join], _rightDistinct[join]));
+    }
+
+    private double joinCost(double leftRows, int view, int connection) {
+        final int join = Math.abs(connection);
+        final boolean lookup = (connection > 0)? _rightLookup[join] : _leftLookup[join];
+        return leftRows + (lookup? 0 : _rows[view]) + joinedRows(leftRows, view, connection);
+    }
+
+    /**
+     * Return the estimated cost of joining the views in the given order,
+     * or infinity if any view is not adjacent to the ones before it.
+     */
+    double cost(int[] order) {
+        final boolean[] joined = new boolean[order.length];
+        joined[order[0]] = true;
+        double rows = _rows[order[0]];
+        double cost = rows;
+        for (int position = 1; position < order.length; position++) {
+            final int view = order[position];
+            final int connection = connection(joined, view);
+            if (connection == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            cost += joinCost(rows, view, connection);
+            rows = joinedRows(rows, view, connection);
+            joined[view] = true;
+        }
+
+        return cost;
+    }
+
+    private int[] greedyOrder(int firstView) {
+        final int viewCount = _rows.length;
+        final int[] order = new int[viewCount];
+        final boolean[] joined = new boolean[viewCount];
+        order[0] = firstView;
+        joined[firstView] = true;
+        double rows = _rows[firstView];
+        for (int position = 1; position < viewCount; position++) {
+            int bestView = -1;
+            double bestRows = Double.POSITIVE_INFINITY;
+            for (int view = 0; view < viewCount; view++) {
+                final int connection = joined[view]? 0 : connection(joined, view);
+                if (connection != 0) {
+                    final double viewRows = joinedRows(rows, view, connection);
+                    if (bestView < 0 || viewRows < bestRows) {
+                        bestView = view;
+                        bestRows = viewRows;
+                    }
+                }
+            }
+
+            order[position] = bestView;
+            joined[bestView] = true;
+            rows = bestRows;
+        }
+
+        return order;
+    }
+
+    /**
+     * Return the order in which views should be joined, or null if
+     * the order given in the query should be kept.
+     */
+    int[] order() {
+        final int viewCount = _rows.length;
+        final int[] originalOrder = new int[viewCount];
+        for (int view = 0; view < viewCount; view++) {
+            originalOrder[view] = view;
+        }
+
+        int[] bestOrder = null;
+        double bestCost = cost(originalOrder) / MIN_GAIN;
+        for (int firstView = 0; firstView < viewCount; firstView++) {
+            final int[] order = greedyOrder(firstView);
+            final double cost = cost(order);
+            if (cost < bestCost) {
+                bestOrder = order;
+                bestCost = cost;
+            }
+        }
+
+        return bestOrder;
+    }
+}
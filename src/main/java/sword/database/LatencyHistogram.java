@@ -0,0 +1,110 @@
+package sword.database;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values, like latencies in nanoseconds,
+ * that can be recorded and read concurrently without locking.
+ * <p>
+ * Buckets follow a log-linear layout: each power of two is split into
+ * {@value #SUB_BUCKET_COUNT} buckets of the same width, while values below
+ * {@value #SUB_BUCKET_COUNT} have a bucket each. This keeps the relative
+ * error of any percentile below 1 / {@value #SUB_BUCKET_COUNT}, for any
+ * positive long value, in a fixed array of counters.
+ * <p>
+ * Each value is recorded by atomically incrementing the counter of its bucket.
+ * Percentiles are computed from a pass over all counters, so values recorded
+ * during that pass may or may not be considered.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray _counts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * Return the index of the bucket containing the given value.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(0, value);
+        }
+
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * Return the greatest value contained in the given bucket.
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+
+        final int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        final long mantissa = SUB_BUCKET_COUNT + (bucket & (SUB_BUCKET_COUNT - 1));
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Record the given value. Negative values are recorded as 0.
+     */
+    void record(long value) {
+        _counts.incrementAndGet(bucketOf(value));
+    }
+
+    /**
+     * Return the number of values recorded.
+     */
+    long count() {
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            count += _counts.get(bucket);
+        }
+
+        return count;
+    }
+
+    /**
+     * Return the value below or equal to which the given percentage of the
+     * recorded values are found, rounded up to the greatest value of its bucket,
+     * or 0 if no value has been recorded.
+     *
+     * @param percentile Percentage, from 0 to 100.
+     */
+    long valueAtPercentile(double percentile) {
+        final long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            counts[bucket] = _counts.get(bucket);
+            total += counts[bucket];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long accumulated = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            accumulated += counts[bucket];
+            if (accumulated >= rank) {
+                return highestValueIn(bucket);
+            }
+        }
+
+        return highestValueIn(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Discard all recorded values.
+     */
+    void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            _counts.set(bucket, 0);
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package sword.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+import sword.collections.ImmutableIntRange;
+import sword.collections.ImmutableList;
+import sword.collections.IntKeyMap;
+import sword.collections.List;
+import sword.collections.MutableIntKeyMap;
+
+/**
+ * Precomputed rows of a query registered as materialized in {@link MemoryDatabase}.
+ * <p>
+ * Queries without ordering or range, reading only tables, and reading each table
+ * once, are maintained incrementally: each row is checked when it is inserted,
+ * updated or deleted in any of those tables, and only the rows of the view that
+ * depend on it are updated. How rows are keyed depends on the query:
+ * <ul>
+ *     <li>Queries reading a single table without grouping key their rows by the
+ *     identifier of the table row they come from.</li>
+ *     <li>Queries reading a single table, grouped, where each selected column is either
+ *     a grouping column, a count or a sum, keep the rows and sums of each group,
+ *     and key the row of each group by the lowest identifier among its table rows.</li>
+ *     <li>Queries joining several tables, without grouping, keep the rows of each
+ *     table matching its filter, with a hash index for each of its joined columns.
+ *     When a row changes, the joined rows including it are found by joining the
+ *     rest of tables, one after the other, starting from it. Joined rows are sorted
+ *     by the identifiers of the table rows they come from, in the order of the views
+ *     in the query, as the query would provide them. Once modified, rows are keyed
+ *     again by their position the next time they are read.</li>
+ * </ul>
+ * Any other query is invalidated when any of the tables it reads is modified,
+ * and it is recomputed the next time it is used. In that case rows are keyed
+ * by their position.
+ * <p>
+ * Hash indexes are built on demand for the columns of the view used in joins,
+ * and they are updated together with the rows.
+ */
+final class MaterializedView {
+
+    final QueryPlan plan;
+
+    // Whether changes are applied incrementally, or the view is recomputed on any change
+    private final boolean _incremental;
+
+    private MutableIntKeyMap<ImmutableList<Object>> _rows;
+
+    // Indexes for each column, by value. Columns not used in joins are null
+    private final HashMap<Object, MutableIntKeyMap<ImmutableList<Object>>>[] _indexes;
+
+    /**
+     * Table rows within a group, together with the sums of their values for the SUM columns.
+     */
+    private static final class Group {
+        final Object key;
+
+        // Selected columns of each table row, before aggregating them, by identifier
+        final MutableIntKeyMap<ImmutableList<Object>> rows = MutableIntKeyMap.empty();
+        final long[] sums;
+
+        // Whether any of the sums does not fit into an int
+        boolean overflow;
+
+        Group(Object key, int selectionCount) {
+            this.key = key;
+            sums = new long[selectionCount];
+        }
+    }
+
+    // Groups by their key, and the group of each table row by its identifier. Only used for grouped incremental views
+    private HashMap<Object, Group> _groups;
+    private MutableIntKeyMap<Group> _rowGroups;
+
+    // Number of groups whose sums do not fit into an int. Rows can not be read while there is any
+    private int _overflowedGroups;
+
+    // Steps to join all views starting from each view, as returned by joinSteps. Only used for joined incremental views
+    private final int[][] _joinSteps;
+
+    // Rows of each view matching its filter, including the identifier, and its indexes for the joined columns
+    private MutableIntKeyMap<ImmutableList<Object>>[] _viewRows;
+    private HashMap<Object, MutableIntKeyMap<ImmutableList<Object>>>[][] _viewIndexes;
+
+    // Joined rows, by the identifiers of the table rows they come from, and whether _rows must be filled again from them
+    private TreeMap<ImmutableList<Object>, ImmutableList<Object>> _joinedRows;
+    private boolean _joinedRowsModified;
+
+    @SuppressWarnings("unchecked")
+    MaterializedView(QueryPlan plan) {
+        this.plan = plan;
+        _incremental = isIncremental(plan);
+        _indexes = new HashMap[plan.selection.size()];
+
+        final int viewCount = plan.viewCount();
+        if (_incremental && viewCount > 1) {
+            _joinSteps = new int[viewCount][];
+            for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+                _joinSteps[viewIndex] = joinSteps(plan, viewIndex);
+            }
+        }
+        else {
+            _joinSteps = null;
+        }
+    }
+
+    private static boolean isIncremental(QueryPlan plan) {
+        final ImmutableIntRange range = plan.range;
+        if (plan.isOrdered() || range.min() != 0 || range.max() != Integer.MAX_VALUE) {
+            return false;
+        }
+
+        final int viewCount = plan.viewCount();
+        for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+            final DbTable table = plan.tables[viewIndex];
+            if (table == null) {
+                return false;
+            }
+
+            for (int previous = 0; previous < viewIndex; previous++) {
+                if (plan.tables[previous] == table) {
+                    return false;
+                }
+            }
+        }
+
+        if (!plan.grouped) {
+            return true;
+        }
+        else if (viewCount > 1) {
+            return false;
+        }
+
+        final int[] functions = plan.functions;
+        for (int i = 0; i < functions.length; i++) {
+            final int function = functions[i];
+            if (function != RowSource.HashAggregation.COUNT && function != RowSource.HashAggregation.SUM &&
+                    (function != RowSource.HashAggregation.NO_FUNCTION || !isGroupingColumn(plan, plan.selection.valueAt(i)))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isGroupingColumn(QueryPlan plan, int column) {
+        for (int groupingColumn : plan.groupingColumns) {
+            if (groupingColumn == column) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the order in which the rest of views must be joined to a row of the given view.
+     * <p>
+     * Each step takes 4 consecutive positions: the view to be joined, its column to be matched,
+     * and the view already joined together with its column providing the value to be matched.
+     * Each view is joined through the same column pair that joins it in the query, but in the
+     * opposite direction when the view is joined in the query to a view that is not joined yet.
+     */
+    private static int[] joinSteps(QueryPlan plan, int first) {
+        final int viewCount = plan.viewCount();
+        final boolean[] joined = new boolean[viewCount];
+        joined[first] = true;
+
+        final int[] steps = new int[4 * (viewCount - 1)];
+        int position = 0;
+        while (position < steps.length) {
+            for (int viewIndex = 1; viewIndex < viewCount; viewIndex++) {
+                final int leftView = MemoryDatabase.viewOfColumn(plan, plan.joinLeftColumns[viewIndex]);
+                if (joined[viewIndex] != joined[leftView]) {
+                    final int leftColumn = plan.joinLeftColumns[viewIndex] - plan.filters[leftView].offset;
+                    final int rightColumn = plan.joinRightColumns[viewIndex];
+                    if (joined[leftView]) {
+                        steps[position++] = viewIndex;
+                        steps[position++] = rightColumn;
+                        steps[position++] = leftView;
+                        steps[position++] = leftColumn;
+                    }
+                    else {
+                        steps[position++] = leftView;
+                        steps[position++] = leftColumn;
+                        steps[position++] = viewIndex;
+                        steps[position++] = rightColumn;
+                    }
+
+                    joined[viewIndex] = true;
+                    joined[leftView] = true;
+                }
+            }
+        }
+
+        return steps;
+    }
+
+    /**
+     * Whether the rows are kept up to date. If not, they must be recomputed before using them.
+     */
+    boolean isValid() {
+        return _rows != null;
+    }
+
+    boolean isIncremental() {
+        return _incremental;
+    }
+
+    /**
+     * Return the current rows of the view, in the order the query would provide them.
+     */
+    IntKeyMap<ImmutableList<Object>> rows() {
+        checkSums();
+        updateJoinedRows();
+        return _rows;
+    }
+
+    /**
+     * Throw an {@link ArithmeticException} if the sum of any group does not fit into an int,
+     * in the same way the query would fail if it was not materialized.
+     */
+    private void checkSums() {
+        if (_overflowedGroups != 0) {
+            throw new ArithmeticException("integer overflow");
+        }
+    }
+
+    /**
+     * Key the joined rows again by their position, if modified since the last time.
+     */
+    private void updateJoinedRows() {
+        if (_joinedRowsModified) {
+            setRows(_joinedRows.values());
+            _joinedRowsModified = false;
+        }
+    }
+
+    /**
+     * Replace all rows, which are keyed by their position.
+     * This should only be called for non-incremental views, or for joined incremental views.
+     */
+    void setRows(Iterable<ImmutableList<Object>> rows) {
+        final MutableIntKeyMap<ImmutableList<Object>> map = MutableIntKeyMap.empty();
+        int position = 0;
+        for (ImmutableList<Object> row : rows) {
+            map.put(position++, row);
+        }
+
+        _rows = map;
+        clearIndexes();
+    }
+
+    /**
+     * Remove all rows, in order to fill the view again through {@link #tableChanged(DbTable, int, List)}
+     * with all rows of all its tables. This should only be called for incremental views.
+     */
+    @SuppressWarnings("unchecked")
+    void clear() {
+        _rows = MutableIntKeyMap.empty();
+        clearIndexes();
+
+        if (plan.grouped) {
+            _groups = new HashMap<>();
+            _rowGroups = MutableIntKeyMap.empty();
+            _overflowedGroups = 0;
+        }
+        else if (_joinSteps != null) {
+            final int viewCount = plan.viewCount();
+            _viewRows = new MutableIntKeyMap[viewCount];
+            _viewIndexes = new HashMap[viewCount][];
+            for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+                _viewRows[viewIndex] = MutableIntKeyMap.empty();
+                _viewIndexes[viewIndex] = new HashMap[plan.tables[viewIndex].columns().size()];
+            }
+
+            for (int[] steps : _joinSteps) {
+                for (int position = 0; position < steps.length; position += 4) {
+                    _viewIndexes[steps[position]][steps[position + 1]] = new HashMap<>();
+                }
+            }
+
+            _joinedRows = new TreeMap<>(MaterializedView::compareJoinedIds);
+            _joinedRowsModified = false;
+        }
+    }
+
+    private void clearIndexes() {
+        for (int column = 0; column < _indexes.length; column++) {
+            _indexes[column] = null;
+        }
+    }
+
+    /**
+     * Update the view after a row has been inserted, updated or removed in the given table.
+     *
+     * @param table Table that has been modified.
+     * @param id Identifier of the modified row.
+     * @param register New values for the row, excluding its identifier, or null if the row has been removed.
+     */
+    void tableChanged(DbTable table, int id, List<Object> register) {
+        if (!plan.readTables.contains(table)) {
+            return;
+        }
+
+        if (!_incremental) {
+            _rows = null;
+            clearIndexes();
+        }
+        else if (_rows != null) {
+            if (plan.grouped) {
+                groupedRowChanged(id, register);
+            }
+            else if (_joinSteps != null) {
+                int viewIndex = 0;
+                while (plan.tables[viewIndex] != table) {
+                    viewIndex++;
+                }
+
+                joinedRowChanged(viewIndex, id, register);
+            }
+            else {
+                rowChanged(id, register);
+            }
+        }
+    }
+
+    private void rowChanged(int id, List<Object> register) {
+        removeRow(id);
+        if (register != null && plan.filters[0].matches(id, register)) {
+            putRow(id, project(id, register));
+        }
+    }
+
+    private void groupedRowChanged(int id, List<Object> register) {
+        final Group oldGroup = _rowGroups.get(id, null);
+        if (oldGroup != null) {
+            removeRow(oldGroup.rows.keyAt(0));
+            final ImmutableList<Object> oldRow = oldGroup.rows.get(id);
+            final int[] functions = plan.functions;
+            for (int i = 0; i < functions.length; i++) {
+                if (functions[i] == RowSource.HashAggregation.SUM) {
+                    oldGroup.sums[i] -= (Integer) oldRow.valueAt(i);
+                }
+            }
+
+            oldGroup.rows.remove(id);
+            _rowGroups.remove(id);
+            if (oldGroup.rows.isEmpty()) {
+                _groups.remove(oldGroup.key);
+                setOverflow(oldGroup, false);
+            }
+            else {
+                putRow(oldGroup.rows.keyAt(0), aggregatedRow(oldGroup));
+            }
+        }
+
+        if (register != null && plan.filters[0].matches(id, register)) {
+            final ImmutableList<Object> viewRow = viewRow(id, register);
+            final Object key = RowSource.HashAggregation.groupKey(plan.groupingColumns, viewRow);
+            Group group = _groups.get(key);
+            if (group == null) {
+                group = new Group(key, plan.functions.length);
+                _groups.put(key, group);
+            }
+            else {
+                removeRow(group.rows.keyAt(0));
+            }
+
+            final ImmutableList<Object> row = project(viewRow);
+            final int[] functions = plan.functions;
+            for (int i = 0; i < functions.length; i++) {
+                if (functions[i] == RowSource.HashAggregation.SUM) {
+                    group.sums[i] += (Integer) row.valueAt(i);
+                }
+            }
+
+            group.rows.put(id, row);
+            _rowGroups.put(id, group);
+            putRow(group.rows.keyAt(0), aggregatedRow(group));
+        }
+    }
+
+    private ImmutableList<Object> aggregatedRow(Group group) {
+        final int[] functions = plan.functions;
+        final ImmutableList<Object> anyRow = group.rows.valueAt(0);
+        final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> functions.length);
+        boolean overflow = false;
+        for (int i = 0; i < functions.length; i++) {
+            switch (functions[i]) {
+                case RowSource.HashAggregation.COUNT:
+                    builder.add(group.rows.size());
+                    break;
+                case RowSource.HashAggregation.SUM:
+                    final long sum = group.sums[i];
+                    overflow |= sum != (int) sum;
+                    builder.add((int) sum);
+                    break;
+                default:
+                    // Grouping column, whose value is the same for all rows in the group
+                    builder.add(anyRow.valueAt(i));
+            }
+        }
+
+        setOverflow(group, overflow);
+        return builder.build();
+    }
+
+    private void setOverflow(Group group, boolean overflow) {
+        if (group.overflow != overflow) {
+            group.overflow = overflow;
+            _overflowedGroups += overflow? 1 : -1;
+        }
+    }
+
+    private void joinedRowChanged(int viewIndex, int id, List<Object> register) {
+        final MutableIntKeyMap<ImmutableList<Object>> viewRows = _viewRows[viewIndex];
+        final ImmutableList<Object> oldViewRow = viewRows.get(id, null);
+        if (oldViewRow != null) {
+            for (ImmutableList<Object> joinedRow : joinedRows(viewIndex, oldViewRow)) {
+                _joinedRows.remove(joinedIds(joinedRow));
+                _joinedRowsModified = true;
+            }
+
+            viewRows.remove(id);
+            final HashMap<Object, MutableIntKeyMap<ImmutableList<Object>>>[] viewIndexes = _viewIndexes[viewIndex];
+            for (int column = 0; column < viewIndexes.length; column++) {
+                if (viewIndexes[column] != null) {
+                    removeFromBucket(viewIndexes[column], oldViewRow.valueAt(column), id);
+                }
+            }
+        }
+
+        if (register != null && plan.filters[viewIndex].matches(id, register)) {
+            final ImmutableList<Object> viewRow = viewRow(id, register);
+            viewRows.put(id, viewRow);
+            final HashMap<Object, MutableIntKeyMap<ImmutableList<Object>>>[] viewIndexes = _viewIndexes[viewIndex];
+            for (int column = 0; column < viewIndexes.length; column++) {
+                if (viewIndexes[column] != null) {
+                    viewIndexes[column].computeIfAbsent(viewRow.valueAt(column), value -> MutableIntKeyMap.empty()).put(id, viewRow);
+                }
+            }
+
+            for (ImmutableList<Object> joinedRow : joinedRows(viewIndex, viewRow)) {
+                _joinedRows.put(joinedIds(joinedRow), project(joinedRow));
+                _joinedRowsModified = true;
+            }
+        }
+    }
+
+    /**
+     * Return all joined rows that include the given row for the given view,
+     * joined with the rows currently kept for the rest of views.
+     */
+    @SuppressWarnings("unchecked")
+    private ArrayList<ImmutableList<Object>> joinedRows(int viewIndex, ImmutableList<Object> viewRow) {
+        final ImmutableList<Object>[] viewRows = new ImmutableList[plan.viewCount()];
+        viewRows[viewIndex] = viewRow;
+        final ArrayList<ImmutableList<Object>> result = new ArrayList<>();
+        join(_joinSteps[viewIndex], 0, viewRows, result);
+        return result;
+    }
+
+    private void join(int[] steps, int position, ImmutableList<Object>[] viewRows, ArrayList<ImmutableList<Object>> result) {
+        if (position == steps.length) {
+            ImmutableList<Object> joinedRow = viewRows[0];
+            for (int viewIndex = 1; viewIndex < viewRows.length; viewIndex++) {
+                joinedRow = joinedRow.appendAll(viewRows[viewIndex]);
+                if (!plan.filters[viewIndex].matchesJoinedPairs(joinedRow)) {
+                    return;
+                }
+            }
+
+            result.add(joinedRow);
+            return;
+        }
+
+        final int viewIndex = steps[position];
+        final Object value = viewRows[steps[position + 2]].valueAt(steps[position + 3]);
+        final MutableIntKeyMap<ImmutableList<Object>> matches = _viewIndexes[viewIndex][steps[position + 1]].get(value);
+        if (matches != null) {
+            for (ImmutableList<Object> row : matches) {
+                viewRows[viewIndex] = row;
+                join(steps, position + 4, viewRows, result);
+            }
+            viewRows[viewIndex] = null;
+        }
+    }
+
+    /**
+     * Return the identifiers of all table rows within the given joined row, which identify it.
+     */
+    private ImmutableList<Object> joinedIds(ImmutableList<Object> joinedRow) {
+        final int viewCount = plan.viewCount();
+        final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> viewCount);
+        for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+            builder.add(joinedRow.valueAt(plan.filters[viewIndex].offset));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Compare the identifiers of two joined rows, as returned by {@link #joinedIds(ImmutableList)},
+     * in the same way {@link MemoryDatabase} sorts joined rows after reordering its joins.
+     */
+    private static int compareJoinedIds(ImmutableList<Object> a, ImmutableList<Object> b) {
+        final int size = a.size();
+        for (int index = 0; index < size; index++) {
+            final int comparison = Integer.compare((Integer) a.valueAt(index), (Integer) b.valueAt(index));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+
+        return 0;
+    }
+
+    private static ImmutableList<Object> viewRow(int id, List<Object> register) {
+        final int columnCount = register.size() + 1;
+        final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> columnCount);
+        builder.add(id);
+        for (Object value : register) {
+            builder.add(value);
+        }
+
+        return builder.build();
+    }
+
+    private ImmutableList<Object> project(int id, List<Object> register) {
+        final int selectionCount = plan.selection.size();
+        final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> selectionCount);
+        for (int columnIndex : plan.selection) {
+            builder.add((columnIndex == 0)? (Object) id : register.valueAt(columnIndex - 1));
+        }
+
+        return builder.build();
+    }
+
+    private ImmutableList<Object> project(ImmutableList<Object> row) {
+        final int selectionCount = plan.selection.size();
+        final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> selectionCount);
+        for (int columnIndex : plan.selection) {
+            builder.add(row.valueAt(columnIndex));
+        }
+
+        return builder.build();
+    }
+
+    private void putRow(int key, ImmutableList<Object> row) {
+        _rows.put(key, row);
+        for (int column = 0; column < _indexes.length; column++) {
+            if (_indexes[column] != null) {
+                _indexes[column].computeIfAbsent(row.valueAt(column), value -> MutableIntKeyMap.empty()).put(key, row);
+            }
+        }
+    }
+
+    private void removeRow(int key) {
+        final ImmutableList<Object> row = _rows.get(key, null);
+        if (row != null) {
+            _rows.remove(key);
+            for (int column = 0; column < _indexes.length; column++) {
+                if (_indexes[column] != null) {
+                    removeFromBucket(_indexes[column], row.valueAt(column), key);
+                }
+            }
+        }
+    }
+
+    private static void removeFromBucket(HashMap<Object, MutableIntKeyMap<ImmutableList<Object>>> index, Object value, int key) {
+        final MutableIntKeyMap<ImmutableList<Object>> bucket = index.get(value);
+        bucket.remove(key);
+        if (bucket.isEmpty()) {
+            index.remove(value);
+        }
+    }
+
+    /**
+     * Return all rows whose value for the given column matches the given one,
+     * in the same order as they are in the view, or null if there is none.
+     * The index for the column is built the first time it is requested.
+     * This must only be called while the view is valid.
+     */
+    IntKeyMap<ImmutableList<Object>> lookup(int column, Object value) {
+        checkSums();
+        updateJoinedRows();
+        if (_indexes[column] == null) {
+            final HashMap<Object, MutableIntKeyMap<ImmutableList<Object>>> index = new HashMap<>();
+            final int size = _rows.size();
+            for (int position = 0; position < size; position++) {
+                final ImmutableList<Object> row = _rows.valueAt(position);
+                index.computeIfAbsent(row.valueAt(column), key -> MutableIntKeyMap.empty()).put(_rows.keyAt(position), row);
+            }
+
+            _indexes[column] = index;
+        }
+
+        return _indexes[column].get(value);
+    }
+}
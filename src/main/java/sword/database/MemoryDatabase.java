@@ -1,20 +1,29 @@
 package sword.database;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 import sword.collections.AbstractTransformer;
 import sword.collections.ImmutableIntKeyMap;
 import sword.collections.ImmutableIntList;
 import sword.collections.ImmutableIntRange;
-import sword.collections.ImmutableIntSet;
 import sword.collections.ImmutableList;
+import sword.collections.ImmutableSet;
 import sword.collections.IntKeyMap;
 import sword.collections.List;
 import sword.collections.MutableHashMap;
-import sword.collections.MutableIntKeyMap;
 import sword.collections.MutableIntValueHashMap;
 import sword.collections.MutableList;
-import sword.collections.MutableMap;
 
 /**
  * Implementation for an in-memory non-permanent database.
@@ -22,356 +31,2343 @@ import sword.collections.MutableMap;
  * This class can be used for data that is valid while the process is still
  * alive, as a cache, or just for testing purposes.
  */
-public final class MemoryDatabase implements Database {
+public final class MemoryDatabase implements ExplainableDatabase {
+
+    /**
+     * Layouts in which the content of the tables can be stored.
+     */
+    public interface StorageModes {
+
+        /**
+         * Each row is stored as a list of its values, keyed by its identifier.
+         * This is the default mode.
+         */
+        int ROWS = 0;
+
+        /**
+         * Each column is stored as an array of primitive ints,
+         * where texts are replaced by codes within a dictionary.
+         * <p>
+         * This reduces the memory used by large tables, specially when texts
+         * are repeated, and allows checking the restrictions of a query
+         * comparing ints instead of decoding each value.
+         * In exchange, rows have to be rebuilt each time they are read.
+         */
+        int COLUMNS = 1;
+    }
+
+    // Shared by all tables not yet created. It must never be modified
+    private static final TableStore EMPTY_TABLE = new RowTableStore();
+
+    // Fraction of rows assumed to match a text restriction when estimating the cost of joins
+    private static final double DEFAULT_SELECTIVITY = 1.0 / 3;
+
+    /**
+     * Default value for {@link #setParallelThreshold(int)}.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100000;
+
+    private final int _storageMode;
+    private final MutableHashMap<DbTable, TableStore> _tableMap = MutableHashMap.empty();
+
+    // Secondary indexes for each table, by column index. Columns without index are null
+    private final MutableHashMap<DbTable, TableIndexes> _indexes = MutableHashMap.empty();
+
+    // Queries registered as materialized views
+    private final HashMap<DbQuery, MaterializedView> _materializedViews = new HashMap<>();
+
+    // Builds the operators of the executed queries, without describing them
+    private final PlanBuilder _executor = new PlanBuilder(false, true, null);
+
+    // Results still reading from the tables. They are weakly referenced, so that
+    // results abandoned before reading all their rows can still be collected.
+    // Package-visible for testing
+    final Set<StreamingResult> _openResults = Collections.newSetFromMap(new WeakHashMap<>());
+
+    // Plans for the queries already executed. As queries are immutable, plans never become stale
+    private final WeakHashMap<DbQuery, QueryPlan> _plans = new WeakHashMap<>();
+
+    // Number of times each table has been modified, in order to detect stale cached results
+    private final MutableIntValueHashMap<DbTable> _tableVersions = MutableIntValueHashMap.empty();
+
+    // Results of the latest executed queries, from the least to the most recently used. This is null if the cache is disabled.
+    // Entries are kept in insertion order and moved to the end when used, so that they can be read without reordering them
+    private LinkedHashMap<DbQuery, CachedResult> _resultCache;
+
+    // Minimum number of rows to be scanned in the first table of a query in order to execute it in parallel
+    private int _parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    // Listener set by the user and metrics enabled, each one null if not present
+    private DatabaseListener _userListener;
+    private DatabaseMetrics _metrics;
+
+    // Receives a callback for each executed operation, forwarding it to the user listener
+    // and the metrics. This is null if none of them is present
+    private DatabaseListener _listener;
+
+    // Scans created while executing a query for the listener, or null if no query is being listened
+    private ArrayList<RowSource.TableScan> _listenedScans;
+
+    // Rows checked and modified by the latest insertion, update or deletion, reported to the listener
+    private int _scannedRows;
+    private int _affectedRows;
+
+    // Number of queries whose plan or result have been found in, or missing from, their caches
+    private long _planCacheHits;
+    private long _planCacheMisses;
+    private long _resultCacheHits;
+    private long _resultCacheMisses;
+
+    /**
+     * Create a new empty database without any secondary index.
+     * <p>
+     * Only columns marked as unique will be indexed, in order to check that their
+     * values are not repeated.
+     */
+    public MemoryDatabase() {
+        this(StorageModes.ROWS);
+    }
+
+    /**
+     * Create a new empty database without any secondary index, storing its tables in the given mode.
+     *
+     * @param storageMode One of the values within {@link StorageModes}.
+     * @see #MemoryDatabase()
+     */
+    public MemoryDatabase(int storageMode) {
+        if (storageMode != StorageModes.ROWS && storageMode != StorageModes.COLUMNS) {
+            throw new IllegalArgumentException("Invalid storage mode " + storageMode);
+        }
+
+        _storageMode = storageMode;
+    }
+
+    /**
+     * Create a new empty database, whose tables will be indexed according to the given schema.
+     * <p>
+     * A secondary index will be kept in sync for each {@link DbIndex} within the schema.
+     * Those indexes are used to resolve exact-match restrictions and joins
+     * targeting the indexed columns, without scanning the whole table.
+     *
+     * @param schema Schema containing the tables and indexes for this database.
+     */
+    public MemoryDatabase(DbSchema schema) {
+        this(schema, StorageModes.ROWS);
+    }
+
+    /**
+     * Create a new empty database, whose tables will be indexed according to
+     * the given schema and stored in the given mode.
+     *
+     * @param schema Schema containing the tables and indexes for this database.
+     * @param storageMode One of the values within {@link StorageModes}.
+     * @see #MemoryDatabase(DbSchema)
+     */
+    public MemoryDatabase(DbSchema schema, int storageMode) {
+        this(storageMode);
+        for (DbTable table : schema.tables()) {
+            obtainTableContent(table);
+        }
+
+        for (DbIndex index : schema.indexes()) {
+            final TableIndexes tableIndexes = obtainIndexes(index.table);
+            if (index.column != index.table.getIdColumnIndex()) {
+                if (index.type == DbIndex.Types.TRIGRAM) {
+                    if (tableIndexes.trigrams[index.column] == null) {
+                        tableIndexes.trigrams[index.column] = new TrigramIndex();
+                    }
+                }
+                else if (index.type == DbIndex.Types.PREFIX) {
+                    if (tableIndexes.prefixes[index.column] == null) {
+                        tableIndexes.prefixes[index.column] = new SortedTextIndex(false);
+                    }
+                }
+                else if (index.type == DbIndex.Types.SUFFIX) {
+                    if (tableIndexes.suffixes[index.column] == null) {
+                        tableIndexes.suffixes[index.column] = new SortedTextIndex(true);
+                    }
+                }
+                else if (index.type == DbIndex.Types.ORDERED) {
+                    if (tableIndexes.ordered[index.column] == null) {
+                        tableIndexes.ordered[index.column] = new OrderedIntIndex();
+                    }
+                }
+                else if (index.type == DbIndex.Types.BITMAP) {
+                    if (tableIndexes.bitmaps[index.column] == null) {
+                        tableIndexes.bitmaps[index.column] = new BitmapIndex();
+                    }
+                }
+                else if (tableIndexes.values[index.column] == null) {
+                    tableIndexes.values[index.column] = new ValueIndex();
+                }
+            }
+        }
+    }
+
+    private static DbValue rawToDbValue(Object raw) {
+        return (raw instanceof Integer)? new DbIntValue((Integer) raw) : new DbStringValue((String) raw);
+    }
+
+    private static final class Result extends AbstractTransformer<List<DbValue>> implements DbResult {
+        private final List<ImmutableList<Object>> _content;
+        private int _index;
+
+        Result(List<ImmutableList<Object>> content) {
+            _content = content;
+        }
+
+        @Override
+        public void close() {
+            _index = _content.size();
+        }
+
+        @Override
+        public int getRemainingRows() {
+            return _content.size() - _index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _index < _content.size();
+        }
+
+        @Override
+        public ImmutableList<DbValue> next() {
+            return _content.get(_index++).map(MemoryDatabase::rawToDbValue);
+        }
+    }
+
+    /**
+     * Result whose rows are pulled from the execution pipeline as they are requested.
+     */
+    private final class StreamingResult extends AbstractTransformer<List<DbValue>> implements DbResult {
+        private final ImmutableIntList _selection;
+        private final ImmutableSet<DbTable> _tables;
+        private final int _rangeMin;
+        private final int _rangeMax;
+
+        private RowSource _source;
+        private int _position;
+        private ImmutableList<Object> _nextRow;
+
+        // Only used once the pending rows have been computed
+        private MutableList<ImmutableList<Object>> _pendingRows;
+        private int _pendingIndex;
+
+        // Only used if the execution is reported to a listener
+        private DatabaseListener _listener;
+        private DbQuery _query;
+        private long _startTime;
+        private ArrayList<RowSource.TableScan> _scans;
+
+        StreamingResult(RowSource source, ImmutableIntList selection, ImmutableIntRange range, ImmutableSet<DbTable> tables) {
+            _source = source;
+            _selection = selection;
+            _rangeMin = range.min();
+            _rangeMax = range.max();
+            _tables = tables;
+        }
+
+        boolean reads(DbTable table) {
+            return _tables.contains(table);
+        }
+
+        /**
+         * Report the execution of the given query to the given listener once all rows are computed or this is closed.
+         *
+         * @param startTime Value of {@link System#nanoTime()} when the query started to be executed.
+         * @param scans Scans created for the query, whose checked rows are reported.
+         */
+        void listen(DatabaseListener listener, DbQuery query, long startTime, ArrayList<RowSource.TableScan> scans) {
+            _listener = listener;
+            _query = query;
+            _startTime = startTime;
+            _scans = scans;
+        }
+
+        /**
+         * Pull the next selected row within the range from the pipeline, or null if there is no more.
+         */
+        private ImmutableList<Object> pull() {
+            while (_position <= _rangeMax) {
+                final ImmutableList<Object> row = _source.next();
+                if (row == null) {
+                    break;
+                }
+
+                if (_position++ >= _rangeMin) {
+                    final int selectionCount = _selection.size();
+                    final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> selectionCount);
+                    for (int columnIndex : _selection) {
+                        builder.add(row.valueAt(columnIndex));
+                    }
+
+                    return builder.build();
+                }
+            }
+
+            finish();
+            return null;
+        }
+
+        private void finish() {
+            _source = null;
+            _openResults.remove(this);
+            if (_listener != null) {
+                // Rows are never pulled beyond the end of the range
+                _listener.selected(_query, System.nanoTime() - _startTime, scannedRows(_scans), Math.max(0, _position - _rangeMin), 0);
+                _listener = null;
+            }
+        }
+
+        /**
+         * Compute all the pending rows, in order to not depend on the tables any more.
+         */
+        void materialize() {
+            if (_source != null) {
+                final MutableList<ImmutableList<Object>> rows = MutableList.empty();
+                if (_nextRow != null) {
+                    rows.append(_nextRow);
+                    _nextRow = null;
+                }
+
+                for (ImmutableList<Object> row = pull(); row != null; row = pull()) {
+                    rows.append(row);
+                }
+
+                _pendingRows = rows;
+            }
+        }
+
+        @Override
+        public void close() {
+            _nextRow = null;
+            _pendingRows = null;
+            if (_source != null) {
+                finish();
+            }
+        }
+
+        @Override
+        public int getRemainingRows() {
+            materialize();
+            return (_pendingRows != null)? _pendingRows.size() - _pendingIndex : 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (_pendingRows != null) {
+                return _pendingIndex < _pendingRows.size();
+            }
+
+            if (_nextRow == null && _source != null) {
+                _nextRow = pull();
+            }
+
+            return _nextRow != null;
+        }
+
+        @Override
+        public ImmutableList<DbValue> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final ImmutableList<Object> row;
+            if (_pendingRows != null) {
+                row = _pendingRows.valueAt(_pendingIndex++);
+            }
+            else {
+                row = _nextRow;
+                _nextRow = null;
+            }
+
+            return row.map(MemoryDatabase::rawToDbValue);
+        }
+    }
+
+    /**
+     * Join the given rows with the rows of the given view by performing a hash join.
+     * <p>
+     * The hash table is built on the smaller side and probed from the other one.
+     * In any case, the resulting rows keep the order of the left side, and matches
+     * for the same left row keep the order of the right side.
+     *
+     * @param left Rows resulting of previous joins.
+     * @param leftColumn Column index within the left rows to be matched.
+     * @param right Rows of the view to be joined.
+     * @param rightColumn Column index within the right rows to be matched.
+     * @return A new list containing the concatenation of all matching rows.
+     */
+    private static MutableList<ImmutableList<Object>> hashJoin(
+            List<ImmutableList<Object>> left, int leftColumn,
+            List<ImmutableList<Object>> right, int rightColumn) {
+        final int leftSize = left.size();
+        final int rightSize = right.size();
+        final MutableList<ImmutableList<Object>> result = MutableList.empty();
+        if (rightSize <= leftSize) {
+            final HashMap<Object, MutableList<ImmutableList<Object>>> hashTable = new HashMap<>();
+            for (int index = 0; index < rightSize; index++) {
+                final ImmutableList<Object> row = right.valueAt(index);
+                hashTable.computeIfAbsent(row.valueAt(rightColumn), key -> MutableList.empty()).append(row);
+            }
+
+            for (int index = 0; index < leftSize; index++) {
+                final ImmutableList<Object> leftRow = left.valueAt(index);
+                final MutableList<ImmutableList<Object>> matches = hashTable.get(leftRow.valueAt(leftColumn));
+                if (matches != null) {
+                    for (ImmutableList<Object> rightRow : matches) {
+                        result.append(leftRow.appendAll(rightRow));
+                    }
+                }
+            }
+        }
+        else {
+            final HashMap<Object, MutableList<Integer>> hashTable = new HashMap<>();
+            for (int index = 0; index < leftSize; index++) {
+                hashTable.computeIfAbsent(left.valueAt(index).valueAt(leftColumn), key -> MutableList.empty()).append(index);
+            }
+
+            @SuppressWarnings("unchecked")
+            final MutableList<ImmutableList<Object>>[] matchesPerLeftRow = new MutableList[leftSize];
+            for (int index = 0; index < rightSize; index++) {
+                final ImmutableList<Object> rightRow = right.valueAt(index);
+                final MutableList<Integer> leftIndexes = hashTable.get(rightRow.valueAt(rightColumn));
+                if (leftIndexes != null) {
+                    for (int leftIndex : leftIndexes) {
+                        if (matchesPerLeftRow[leftIndex] == null) {
+                            matchesPerLeftRow[leftIndex] = MutableList.empty();
+                        }
+
+                        matchesPerLeftRow[leftIndex].append(rightRow);
+                    }
+                }
+            }
+
+            for (int index = 0; index < leftSize; index++) {
+                if (matchesPerLeftRow[index] != null) {
+                    final ImmutableList<Object> leftRow = left.valueAt(index);
+                    for (ImmutableList<Object> rightRow : matchesPerLeftRow[index]) {
+                        result.append(leftRow.appendAll(rightRow));
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static MutableList<ImmutableList<Object>> filterRows(MutableList<ImmutableList<Object>> rows, TableFilter filter) {
+        if (!filter.hasLocalChecks()) {
+            return rows;
+        }
+
+        final MutableList<ImmutableList<Object>> result = MutableList.empty();
+        for (ImmutableList<Object> row : rows) {
+            if (filter.matches(row)) {
+                result.append(row);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Return an operator providing all rows within the given table that match
+     * the given filter, including the identifier as first column.
+     * <p>
+     * If the filter restricts the identifier to an exact value, only that row is checked.
+     * If any column with bitmap index is restricted to an exact value or a list of values,
+     * the bitmaps for all of them are intersected, and only the resulting rows are checked.
+     * If any other indexed column, or the identifier, is restricted to an exact value,
+     * or to a list of values, only the rows pointed by them are checked. If the identifier is restricted to a range,
+     * only the rows within that range are checked, as rows are sorted by identifier.
+     * Otherwise, if any range or text restriction can be resolved through an ordered,
+     * prefix, suffix or trigram index, only the candidates provided by that index are
+     * checked. Otherwise the whole table is scanned.
+     */
+    private RowSource.TableScan scan(DbTable table, TableFilter filter) {
+        final TableStore content = _tableMap.get(table, EMPTY_TABLE);
+        final ScanAccess access = scanAccess(table, filter);
+        final int restriction = access.restriction;
+        final RowSource.TableScan scan;
+        if (access.operator == PlanNode.Operators.ID_LOOKUP) {
+            final Object value = filter.restrictedValues[restriction];
+            final int[] ids = (value instanceof IntProbeSet)? ((IntProbeSet) value).values() : new int[] {(Integer) value};
+            scan = new RowSource.TableScan(content, filter, ids);
+        }
+        else if (access.operator == PlanNode.Operators.ID_RANGE_SCAN) {
+            final int startPosition = content.lowerPosition(filter.lowerBound(restriction));
+            final int endPosition = content.lowerPosition(filter.upperBound(restriction) + 1);
+            scan = new RowSource.TableScan(content, filter, startPosition, Math.max(startPosition, endPosition));
+        }
+        else if (access.operator == PlanNode.Operators.FULL_SCAN) {
+            scan = new RowSource.TableScan(content, filter, null);
+        }
+        else {
+            scan = new RowSource.TableScan(content, filter, indexedIds(table, filter, access));
+        }
+
+        if (_listenedScans != null) {
+            _listenedScans.add(scan);
+        }
+
+        return scan;
+    }
+
+    /**
+     * Return the sorted identifiers of the candidate rows provided by the secondary index chosen to scan the given table.
+     *
+     * @param access Access to the table, which must be an index scan.
+     */
+    private int[] indexedIds(DbTable table, TableFilter filter, ScanAccess access) {
+        final int restriction = access.restriction;
+        final TableIndexes indexes = _indexes.get(table, null);
+        final int column = filter.restrictedColumns[restriction];
+        final Object value = filter.restrictedValues[restriction];
+        final int[] ids;
+        switch (access.indexType) {
+            case DbIndex.Types.BITMAP:
+                ids = bitmapMatches(indexes, filter).toArray();
+                break;
+
+            case DbIndex.Types.VALUE:
+                ids = (filter.restrictionTypes[restriction] == DbQuery.RestrictionTypes.IN)?
+                        inListIds(indexes.values[column], value) : indexes.values[column].ids(value);
+                break;
+
+            case DbIndex.Types.ORDERED:
+                ids = indexes.ordered[column].ids(filter.lowerBound(restriction), filter.upperBound(restriction));
+                break;
+
+            case DbIndex.Types.PREFIX:
+                ids = indexes.prefixes[column].ids((String) value);
+                break;
+
+            case DbIndex.Types.SUFFIX:
+                ids = indexes.suffixes[column].ids((String) value);
+                break;
+
+            default:
+                ids = indexes.trigrams[column].candidates((String) value);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Way in which the rows of a table are found when scanning it.
+     */
+    private static final class ScanAccess {
+
+        /**
+         * One of the scans within {@link PlanNode.Operators}.
+         */
+        final int operator;
+
+        /**
+         * Index of the restriction within the filter that is resolved to find the rows, or -1 for full scans.
+         */
+        final int restriction;
+
+        /**
+         * One of the values within {@link DbIndex.Types} for index scans, or -1 otherwise.
+         */
+        final int indexType;
+
+        ScanAccess(int operator, int restriction, int indexType) {
+            this.operator = operator;
+            this.restriction = restriction;
+            this.indexType = indexType;
+        }
+    }
+
+    private static final ScanAccess FULL_SCAN_ACCESS = new ScanAccess(PlanNode.Operators.FULL_SCAN, -1, -1);
+
+    /**
+     * Choose the way in which the rows of the given table matching the given filter are found,
+     * as described in {@link #scan(DbTable, TableFilter)}, without looking up any index.
+     */
+    private ScanAccess scanAccess(DbTable table, TableFilter filter) {
+        final int restrictionCount = filter.restrictedColumns.length;
+        for (int i = 0; i < restrictionCount; i++) {
+            if (filter.restrictedColumns[i] == 0 && filter.restrictionTypes[i] == DbQuery.RestrictionTypes.EXACT) {
+                return new ScanAccess(PlanNode.Operators.ID_LOOKUP, i, -1);
+            }
+        }
+
+        final TableIndexes indexes = _indexes.get(table, null);
+        if (indexes != null) {
+            for (int i = 0; i < restrictionCount; i++) {
+                final int type = filter.restrictionTypes[i];
+                if (indexes.bitmaps[filter.restrictedColumns[i]] != null &&
+                        (type == DbQuery.RestrictionTypes.EXACT || type == DbQuery.RestrictionTypes.IN)) {
+                    return new ScanAccess(PlanNode.Operators.INDEX_SCAN, i, DbIndex.Types.BITMAP);
+                }
+            }
+        }
+
+        final int indexedRestriction = findIndexedRestriction(table, filter);
+        if (indexedRestriction >= 0) {
+            return new ScanAccess(PlanNode.Operators.INDEX_SCAN, indexedRestriction, DbIndex.Types.VALUE);
+        }
+
+        for (int i = 0; i < restrictionCount; i++) {
+            final int column = filter.restrictedColumns[i];
+            if (filter.restrictionTypes[i] == DbQuery.RestrictionTypes.IN) {
+                if (column == 0) {
+                    return new ScanAccess(PlanNode.Operators.ID_LOOKUP, i, -1);
+                }
+                else if (indexes != null && indexes.values[column] != null) {
+                    return new ScanAccess(PlanNode.Operators.INDEX_SCAN, i, DbIndex.Types.VALUE);
+                }
+            }
+        }
+
+        for (int i = 0; i < restrictionCount; i++) {
+            if (filter.restrictedColumns[i] == 0 && TableFilter.isRange(filter.restrictionTypes[i])) {
+                return new ScanAccess(PlanNode.Operators.ID_RANGE_SCAN, i, -1);
+            }
+        }
+
+        if (indexes == null) {
+            return FULL_SCAN_ACCESS;
+        }
+
+        for (int i = 0; i < restrictionCount; i++) {
+            if (indexes.ordered[filter.restrictedColumns[i]] != null && TableFilter.isRange(filter.restrictionTypes[i])) {
+                return new ScanAccess(PlanNode.Operators.INDEX_SCAN, i, DbIndex.Types.ORDERED);
+            }
+        }
+
+        // Prefix and suffix indexes are preferred, as they provide the matching rows directly.
+        // Otherwise, if several trigram indexes are applicable, the longest restricted text
+        // is used, as it is expected to provide fewer candidates
+        int bestRestriction = -1;
+        int bestLength = 0;
+        for (int i = 0; i < restrictionCount; i++) {
+            final int column = filter.restrictedColumns[i];
+            final int type = filter.restrictionTypes[i];
+            if (type == DbQuery.RestrictionStringTypes.STARTS_WITH && indexes.prefixes[column] != null) {
+                return new ScanAccess(PlanNode.Operators.INDEX_SCAN, i, DbIndex.Types.PREFIX);
+            }
+            else if (type == DbQuery.RestrictionStringTypes.ENDS_WITH && indexes.suffixes[column] != null) {
+                return new ScanAccess(PlanNode.Operators.INDEX_SCAN, i, DbIndex.Types.SUFFIX);
+            }
+            else if (type != DbQuery.RestrictionTypes.EXACT && type != DbQuery.RestrictionTypes.IN && indexes.trigrams[column] != null) {
+                final String text = (String) filter.restrictedValues[i];
+                if (TrigramIndex.isApplicable(text) && text.length() > bestLength) {
+                    bestRestriction = i;
+                    bestLength = text.length();
+                }
+            }
+        }
+
+        return (bestRestriction >= 0)? new ScanAccess(PlanNode.Operators.INDEX_SCAN, bestRestriction, DbIndex.Types.TRIGRAM) :
+                FULL_SCAN_ACCESS;
+    }
+
+    /**
+     * Intersect the bitmaps for all exact and IN restrictions on columns with bitmap index
+     * within the given filter, or return null if there is no such restriction.
+     * The returned bitmap must not be modified.
+     */
+    private static RoaringBitmap bitmapMatches(TableIndexes indexes, TableFilter filter) {
+        RoaringBitmap result = null;
+        for (int i = 0; i < filter.restrictedColumns.length; i++) {
+            final BitmapIndex index = indexes.bitmaps[filter.restrictedColumns[i]];
+            final int type = filter.restrictionTypes[i];
+            if (index != null && (type == DbQuery.RestrictionTypes.EXACT || type == DbQuery.RestrictionTypes.IN)) {
+                final RoaringBitmap bitmap = (type == DbQuery.RestrictionTypes.EXACT)? index.get((Integer) filter.restrictedValues[i]) :
+                        index.getAny(((IntProbeSet) filter.restrictedValues[i]).values());
+                result = (result == null)? bitmap : result.and(bitmap);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Whether the given plan only counts the rows of a single table, without grouping,
+     * and all its restrictions can be resolved through bitmap indexes.
+     */
+    private boolean countsThroughBitmaps(QueryPlan plan) {
+        if (!plan.grouped || plan.viewCount() != 1 || plan.tables[0] == null || plan.groupingColumns.length != 0) {
+            return false;
+        }
+
+        for (int function : plan.functions) {
+            if (function != RowSource.HashAggregation.COUNT) {
+                return false;
+            }
+        }
+
+        final TableFilter filter = plan.filters[0];
+        final TableIndexes indexes = _indexes.get(plan.tables[0], null);
+        if (filter.mustMatch.length != 0 || filter.restrictedColumns.length != 0 && indexes == null) {
+            return false;
+        }
+
+        for (int i = 0; i < filter.restrictedColumns.length; i++) {
+            final int type = filter.restrictionTypes[i];
+            if (indexes.bitmaps[filter.restrictedColumns[i]] == null ||
+                    type != DbQuery.RestrictionTypes.EXACT && type != DbQuery.RestrictionTypes.IN) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the result for queries that only count the rows of a single table,
+     * as checked by {@link #countsThroughBitmaps(QueryPlan)}.
+     * The count is the cardinality of the intersected bitmaps, and no row is read.
+     */
+    private MutableList<ImmutableList<Object>> bitmapCount(QueryPlan plan) {
+        final DbTable table = plan.tables[0];
+        final TableFilter filter = plan.filters[0];
+        final TableIndexes indexes = _indexes.get(table, null);
+        final RoaringBitmap bitmap = (indexes != null)? bitmapMatches(indexes, filter) : null;
+        final int count = (bitmap != null)? bitmap.cardinality() : _tableMap.get(table, EMPTY_TABLE).size();
+
+        // As any other aggregation without grouping, no row is returned if no row matches
+        final MutableList<ImmutableList<Object>> result = MutableList.empty();
+        if (count > 0 && plan.range.min() == 0 && plan.range.max() >= 0) {
+            final int selectionCount = plan.selection.size();
+            final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> selectionCount);
+            for (int i = 0; i < selectionCount; i++) {
+                builder.add(count);
+            }
+            result.append(builder.build());
+        }
+
+        return result;
+    }
+
+    /**
+     * Return the sorted identifiers of the rows containing any of the values
+     * of an IN restriction, looking up each value in the given index.
+     *
+     * @param index Index for the restricted column.
+     * @param values Restricted values, as stored in {@link TableFilter}.
+     */
+    private static int[] inListIds(ValueIndex index, Object values) {
+        final Object[] keys;
+        if (values instanceof IntProbeSet) {
+            final int[] ints = ((IntProbeSet) values).values();
+            keys = new Object[ints.length];
+            for (int keyIndex = 0; keyIndex < ints.length; keyIndex++) {
+                keys[keyIndex] = ints[keyIndex];
+            }
+        }
+        else {
+            keys = ((HashSet<?>) values).toArray();
+        }
+
+        int idCount = 0;
+        for (Object key : keys) {
+            idCount += index.count(key);
+        }
+
+        // Rows can not be repeated, as each row has a single value for the column
+        final int[] ids = new int[idCount];
+        int idIndex = 0;
+        for (Object key : keys) {
+            final int[] keyIds = index.ids(key);
+            System.arraycopy(keyIds, 0, ids, idIndex, keyIds.length);
+            idIndex += keyIds.length;
+        }
+
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Whether the given view is joined by hashing all its rows matching its filter.
+     * Otherwise it is joined through its materialized view, its identifiers or an index.
+     */
+    private boolean usesHashJoin(QueryPlan plan, int viewIndex) {
+        final DbTable viewAsTable = plan.tables[viewIndex];
+        if (materializedView(plan.viewQueries[viewIndex]) != null) {
+            return false;
+        }
+        else if (viewAsTable == null) {
+            return true;
+        }
+
+        return !joinsByLookup(viewAsTable, plan.joinRightColumns[viewIndex], plan.filters[viewIndex]);
+    }
+
+    /**
+     * Whether the given table is joined through the given column by looking up
+     * each value, either as identifier or through an index, instead of hashing
+     * all its rows matching the given filter.
+     * <p>
+     * An index on the column is not used if the filter can be resolved more
+     * precisely through the identifier or another index.
+     */
+    private boolean joinsByLookup(DbTable table, int column, TableFilter filter) {
+        return column == 0 || getIndex(table, column) != null &&
+                filter.exactValue(0) == null && findIndexedRestriction(table, filter) < 0;
+    }
+
+    /**
+     * Return the index of the view containing the given column within the joined row.
+     */
+    static int viewOfColumn(QueryPlan plan, int column) {
+        int viewIndex = plan.viewCount() - 1;
+        while (plan.filters[viewIndex].offset > column) {
+            viewIndex--;
+        }
+
+        return viewIndex;
+    }
+
+    /**
+     * Return an estimation of the number of rows in the given table that match the given filter.
+     * <p>
+     * Exact restrictions are resolved through the indexes if possible, while any other
+     * exact or IN restriction is assumed to keep the rows of a single value, or of the
+     * values in the list, out of all distinct values in its column. Range restrictions
+     * are estimated through the histogram of their column, and text restrictions
+     * are assumed to keep a third of the rows. All restrictions are considered independent.
+     */
+    private double estimatedRows(DbTable table, TableFilter filter) {
+        final double size = _tableMap.get(table, EMPTY_TABLE).size();
+        if (size == 0) {
+            return 0;
+        }
+
+        final TableIndexes indexes = _indexes.get(table, null);
+        double rows = size;
+        for (int i = 0; i < filter.restrictedColumns.length; i++) {
+            final int column = filter.restrictedColumns[i];
+            final int type = filter.restrictionTypes[i];
+            final ValueIndex valueIndex = (indexes != null)? indexes.values[column] : null;
+            final BitmapIndex bitmapIndex = (indexes != null)? indexes.bitmaps[column] : null;
+            if (type == DbQuery.RestrictionTypes.EXACT && column == 0) {
+                rows /= size;
+            }
+            else if (type == DbQuery.RestrictionTypes.EXACT && valueIndex != null) {
+                rows *= valueIndex.count(filter.restrictedValues[i]) / size;
+            }
+            else if (type == DbQuery.RestrictionTypes.EXACT && bitmapIndex != null) {
+                rows *= bitmapIndex.get((Integer) filter.restrictedValues[i]).cardinality() / size;
+            }
+            else if (type == DbQuery.RestrictionTypes.EXACT) {
+                rows /= distinctValues(table, column);
+            }
+            else if (type == DbQuery.RestrictionTypes.IN) {
+                final Object values = filter.restrictedValues[i];
+                final int valueCount = (values instanceof IntProbeSet)? ((IntProbeSet) values).values().length : ((HashSet<?>) values).size();
+                rows *= Math.min(1, valueCount / distinctValues(table, column));
+            }
+            else if (TableFilter.isRange(type)) {
+                final TableStore content = _tableMap.get(table, EMPTY_TABLE);
+                final int[] histogram = obtainIndexes(table).statistics.histogram(content, column);
+                rows *= StatisticsCollector.estimateRows(histogram, content.size(), filter.lowerBound(i), filter.upperBound(i)) / size;
+            }
+            else {
+                rows *= DEFAULT_SELECTIVITY;
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Return an estimation of the number of distinct values in the given column.
+     * This is exact for the identifier and for columns with a value or bitmap index.
+     * For any other column, this is estimated by the statistics of the table.
+     */
+    private double distinctValues(DbTable table, int column) {
+        final TableIndexes indexes = _indexes.get(table, null);
+        if (column != 0 && indexes != null) {
+            if (indexes.values[column] != null) {
+                return Math.max(1, indexes.values[column].distinctValueCount());
+            }
+            else if (indexes.bitmaps[column] != null) {
+                return Math.max(1, indexes.bitmaps[column].distinctValueCount());
+            }
+        }
+
+        return Math.max(1, obtainIndexes(table).statistics.distinctCount(_tableMap.get(table, EMPTY_TABLE), column));
+    }
+
+    /**
+     * Return the order in which the views of the given plan should be joined,
+     * according to the current number of rows of its tables, or null if they
+     * should be joined in the order given in the query.
+     * <p>
+     * Only plans whose views are all tables are reordered.
+     */
+    private int[] joinOrder(QueryPlan plan) {
+        final int viewCount = plan.viewCount();
+        if (viewCount < 2) {
+            return null;
+        }
+
+        for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+            if (plan.tables[viewIndex] == null) {
+                return null;
+            }
+        }
+
+        final JoinPlanner planner = new JoinPlanner(viewCount);
+        final double[] rows = new double[viewCount];
+        for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+            rows[viewIndex] = estimatedRows(plan.tables[viewIndex], plan.filters[viewIndex]);
+            planner.setView(viewIndex, rows[viewIndex]);
+        }
+
+        for (int viewIndex = 1; viewIndex < viewCount; viewIndex++) {
+            final int leftView = viewOfColumn(plan, plan.joinLeftColumns[viewIndex]);
+            final int leftColumn = plan.joinLeftColumns[viewIndex] - plan.filters[leftView].offset;
+            final int rightColumn = plan.joinRightColumns[viewIndex];
+            final DbTable leftTable = plan.tables[leftView];
+            final DbTable rightTable = plan.tables[viewIndex];
+
+            // A filtered view can not have more distinct values than rows
+            final double leftDistinct = Math.min(distinctValues(leftTable, leftColumn), Math.max(1, rows[leftView]));
+            final double rightDistinct = Math.min(distinctValues(rightTable, rightColumn), Math.max(1, rows[viewIndex]));
+            planner.setJoin(viewIndex, leftView, leftDistinct, rightDistinct,
+                    joinsByLookup(leftTable, leftColumn, plan.filters[leftView]),
+                    joinsByLookup(rightTable, rightColumn, plan.filters[viewIndex]));
+        }
+
+        return planner.order();
+    }
+
+    /**
+     * Return the columns through which the given view is joined to the ones already joined,
+     * when views are joined in a different order than in the query.
+     *
+     * @param plan Plan for the query to be executed.
+     * @param joined Whether each view has already been joined.
+     * @param reorderedOffsets Position of the first column of each view already joined, within the joined row.
+     * @param viewIndex Index of the view to be joined.
+     * @return The index of the already joined view whose column is matched, the matched column within that view,
+     *         the same column within the joined row, and the matched column within the view to be joined.
+     */
+    private static int[] reorderedJoinColumns(QueryPlan plan, boolean[] joined, int[] reorderedOffsets, int viewIndex) {
+        final TableFilter[] filters = plan.filters;
+        if (viewIndex > 0) {
+            final int leftView = viewOfColumn(plan, plan.joinLeftColumns[viewIndex]);
+            if (joined[leftView]) {
+                final int leftViewColumn = plan.joinLeftColumns[viewIndex] - filters[leftView].offset;
+                return new int[] {leftView, leftViewColumn, reorderedOffsets[leftView] + leftViewColumn, plan.joinRightColumns[viewIndex]};
+            }
+        }
+
+        int otherView = viewIndex + 1;
+        while (!joined[otherView] || viewOfColumn(plan, plan.joinLeftColumns[otherView]) != viewIndex) {
+            otherView++;
+        }
+
+        final int otherViewColumn = plan.joinRightColumns[otherView];
+        return new int[] {otherView, otherViewColumn, reorderedOffsets[otherView] + otherViewColumn,
+                plan.joinLeftColumns[otherView] - filters[viewIndex].offset};
+    }
+
+    /**
+     * Rearrange the columns of rows joined in a different order than in the query,
+     * check the column value matches involving several views, and sort them by
+     * the identifiers of their views, in the original order, which is the order
+     * in which they would have been joined.
+     *
+     * @param plan Plan for the query to be executed, where all views must be tables.
+     * @param rows Rows joined in a different order.
+     * @param reorderedOffsets Position of the first column of each view within the given rows.
+     * @return A new list with the rearranged rows.
+     */
+    private static MutableList<ImmutableList<Object>> restoredRows(QueryPlan plan,
+            MutableList<ImmutableList<Object>> rows, int[] reorderedOffsets) {
+        final int viewCount = plan.viewCount();
+        final TableFilter[] filters = plan.filters;
+        final MutableList<ImmutableList<Object>> result = MutableList.empty();
+        for (ImmutableList<Object> row : rows) {
+            final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>();
+            for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+                final int viewColumnCount = plan.tables[viewIndex].columns().size();
+                for (int column = 0; column < viewColumnCount; column++) {
+                    builder.add(row.valueAt(reorderedOffsets[viewIndex] + column));
+                }
+            }
+
+            final ImmutableList<Object> originalRow = builder.build();
+            boolean matches = true;
+            for (int viewIndex = 1; viewIndex < viewCount && matches; viewIndex++) {
+                matches = filters[viewIndex].matchesJoinedPairs(originalRow);
+            }
+
+            if (matches) {
+                result.append(originalRow);
+            }
+        }
+
+        result.sort((a, b) -> {
+            for (TableFilter filter : filters) {
+                final int aId = (Integer) a.valueAt(filter.offset);
+                final int bId = (Integer) b.valueAt(filter.offset);
+                if (aId != bId) {
+                    return aId < bId;
+                }
+            }
+
+            return false;
+        });
+
+        return result;
+    }
+
+    /**
+     * Build the hash tables for all views that require a hash join, by view index.
+     * Any other view is null.
+     */
+    private HashMap<Object, MutableList<ImmutableList<Object>>>[] hashTables(QueryPlan plan) {
+        final int viewCount = plan.viewCount();
+        @SuppressWarnings("unchecked")
+        final HashMap<Object, MutableList<ImmutableList<Object>>>[] hashTables = new HashMap[viewCount];
+        for (int viewIndex = 1; viewIndex < viewCount; viewIndex++) {
+            if (usesHashJoin(plan, viewIndex)) {
+                final MutableList<ImmutableList<Object>> rows = RowSource.drain(_executor.view(plan, viewIndex).source);
+                hashTables[viewIndex] = RowSource.HashJoin.hashTable(rows, plan.joinRightColumns[viewIndex]);
+            }
+        }
+
+        return hashTables;
+    }
+
+    /**
+     * Return the scan for the first table of the given plan if it has to be executed in parallel,
+     * or null if the plan must be executed sequentially. That happens if its first view is a table,
+     * and the number of rows to be checked on it reaches the parallel threshold.
+     * <p>
+     * Plans joining materialized views are always executed sequentially,
+     * as the indexes of the views are built when first used.
+     */
+    private RowSource.TableScan parallelScan(QueryPlan plan) {
+        final DbTable firstTable = plan.tables[0];
+        if (firstTable == null || _tableMap.get(firstTable, EMPTY_TABLE).size() < _parallelThreshold) {
+            return null;
+        }
+
+        final int viewCount = plan.viewCount();
+        for (int viewIndex = 1; viewIndex < viewCount; viewIndex++) {
+            if (materializedView(plan.viewQueries[viewIndex]) != null) {
+                return null;
+            }
+        }
+
+        final RowSource.TableScan scan = scan(firstTable, plan.filters[0]);
+        return (scan.remaining() >= _parallelThreshold)? scan : null;
+    }
+
+    /**
+     * Return the index of a restriction within the given filter that restricts
+     * a column with a secondary index to an exact value, or -1 if there is none.
+     * If several are found, the one whose value is found in fewer rows is returned.
+     */
+    private int findIndexedRestriction(DbTable table, TableFilter filter) {
+        final TableIndexes tableIndexes = _indexes.get(table, null);
+        if (tableIndexes == null) {
+            return -1;
+        }
+
+        final ValueIndex[] indexes = tableIndexes.values;
+        int bestRestriction = -1;
+        int bestCount = Integer.MAX_VALUE;
+        final int restrictionCount = filter.restrictedColumns.length;
+        for (int i = 0; i < restrictionCount; i++) {
+            final int column = filter.restrictedColumns[i];
+            if (indexes[column] != null && filter.restrictionTypes[i] == DbQuery.RestrictionTypes.EXACT) {
+                final int count = indexes[column].count(filter.restrictedValues[i]);
+                if (count < bestCount) {
+                    bestRestriction = i;
+                    bestCount = count;
+                }
+            }
+        }
+
+        return bestRestriction;
+    }
+
+    /**
+     * Return the first rows that would result of sorting the given ones
+     * according to the ordering of the given plan, without sorting the whole list.
+     * <p>
+     * This keeps a bounded heap with the best candidates found so far,
+     * which costs O(n log k) in time and O(k) in memory, being k the number of rows requested.
+     * Equivalent rows keep their original relative order, as a stable sort would do.
+     *
+     * @param rows Rows to be sorted.
+     * @param plan Plan containing the ordering to be applied.
+     * @param count Number of rows to be returned. This must be positive and lower than the number of rows.
+     * @return A new sorted list with the first rows.
+     */
+    private static MutableList<ImmutableList<Object>> topRows(
+            List<ImmutableList<Object>> rows, QueryPlan plan, int count) {
+        // Max-heap of row positions, where the root is the worst candidate found so far
+        final int[] heap = new int[count];
+        final int rowCount = rows.size();
+        for (int position = 0; position < count; position++) {
+            int child = position;
+            while (child > 0) {
+                final int parent = (child - 1) >>> 1;
+                if (!isWorse(rows, plan, position, heap[parent])) {
+                    break;
+                }
+
+                heap[child] = heap[parent];
+                child = parent;
+            }
+            heap[child] = position;
+        }
+
+        for (int position = count; position < rowCount; position++) {
+            if (plan.precedes(rows.valueAt(position), rows.valueAt(heap[0]))) {
+                siftDown(rows, plan, heap, count, position);
+            }
+        }
+
+        final ImmutableList<Object>[] sorted = newRowArray(count);
+        for (int size = count; size > 0; size--) {
+            sorted[size - 1] = rows.valueAt(heap[0]);
+            siftDown(rows, plan, heap, size - 1, heap[size - 1]);
+        }
+
+        final MutableList<ImmutableList<Object>> result = MutableList.empty((currentSize, desiredSize) -> count);
+        for (ImmutableList<Object> row : sorted) {
+            result.append(row);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ImmutableList<Object>[] newRowArray(int length) {
+        return new ImmutableList[length];
+    }
+
+    private static boolean isWorse(List<ImmutableList<Object>> rows, QueryPlan plan, int positionA, int positionB) {
+        final ImmutableList<Object> a = rows.valueAt(positionA);
+        final ImmutableList<Object> b = rows.valueAt(positionB);
+        return plan.precedes(b, a) || !plan.precedes(a, b) && positionA > positionB;
+    }
+
+    /**
+     * Replace the root of the heap with the given position and restore the heap property.
+     */
+    private static void siftDown(List<ImmutableList<Object>> rows, QueryPlan plan,
+            int[] heap, int size, int position) {
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size && isWorse(rows, plan, heap[child + 1], heap[child])) {
+                child++;
+            }
+
+            if (!isWorse(rows, plan, heap[child], position)) {
+                break;
+            }
+
+            heap[parent] = heap[child];
+            parent = child;
+        }
+
+        if (size > 0) {
+            heap[parent] = position;
+        }
+    }
+
+    private MutableList<ImmutableList<Object>> innerSelect(QueryPlan plan) {
+        return RowSource.drain(_executor.select(plan).source);
+    }
+
+    /**
+     * Select the columns of the given plan for the rows within its range.
+     */
+    private static MutableList<ImmutableList<Object>> projectedRows(MutableList<ImmutableList<Object>> rows, QueryPlan plan) {
+        // Only rows within the range are projected
+        final ImmutableIntRange range = plan.range;
+        final int selectionCount = plan.selection.size();
+        final int resultSize = rows.size();
+        final int lastIndex = (range.max() < resultSize - 1)? range.max() : resultSize - 1;
+        final int newSize = (lastIndex >= range.min())? lastIndex - range.min() + 1 : 0;
+        final MutableList<ImmutableList<Object>> result = MutableList.empty((currentSize, desiredSize) -> newSize);
+        final ImmutableIntList selection = plan.selection;
+        for (int index = range.min(); index <= lastIndex; index++) {
+            final ImmutableList<Object> register = rows.valueAt(index);
+            final ImmutableList.Builder<Object> regBuilder = new ImmutableList.Builder<>((currentSize, desiredSize) -> selectionCount);
+            for (int columnIndex : selection) {
+                regBuilder.add(register.get(columnIndex));
+            }
+            result.append(regBuilder.build());
+        }
+
+        return result;
+    }
+
+    /**
+     * Return the rows within the given range.
+     *
+     * @return The given list if all rows are within the range, or a new list otherwise.
+     */
+    private static MutableList<ImmutableList<Object>> rangeOfRows(MutableList<ImmutableList<Object>> rows, ImmutableIntRange range) {
+        final int size = rows.size();
+        final boolean shorterRange = range.max() < size - 1;
+        if (range.min() > 0 || shorterRange) {
+            final int newSize = shorterRange? range.size() : size - range.min();
+            final MutableList<ImmutableList<Object>> limitedResult = MutableList.empty((currentSize, desiredSize) -> newSize);
+            for (int index = range.min(); index <= range.max() && index < size; index++) {
+                limitedResult.append(rows.valueAt(index));
+            }
+
+            return limitedResult;
+        }
+        else {
+            return rows;
+        }
+    }
+
+    /**
+     * Operator within the plan of a query, and the source providing its rows.
+     */
+    private static final class PlanStep {
+
+        /**
+         * Null if the plan is not described.
+         */
+        final PlanNode node;
+
+        /**
+         * Null if the plan is not executed.
+         */
+        final RowSource source;
+
+        PlanStep(PlanNode node, RowSource source) {
+            this.node = node;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Chooses and builds the operators executing a plan, which is the only place where those
+     * decisions are taken. Queries are executed through {@link #_executor}, which only builds
+     * the operators, while {@link #explain(DbQuery)} only describes each of them through a
+     * {@link PlanNode}, and {@link #explainAnalyze(DbQuery)} does both, measuring each operator
+     * through a {@link PlanProfiler}.
+     * <p>
+     * Estimations are only computed when operators are described. Operators computing
+     * all their rows at once are executed while the pipeline is built, unless they are
+     * measured, in which case they are executed when their first row is requested.
+     */
+    private final class PlanBuilder {
+        private final boolean _describing;
+        private final boolean _executing;
+
+        // Null if operators are not measured
+        private final PlanProfiler _profiler;
+
+        PlanBuilder(boolean describing, boolean executing, PlanProfiler profiler) {
+            _describing = describing;
+            _executing = executing;
+            _profiler = profiler;
+        }
+
+        private PlanNode node(int operator, DbTable table, int column, int indexType, double estimatedRows, PlanNode... children) {
+            final ImmutableList.Builder<PlanNode> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> children.length);
+            for (PlanNode child : children) {
+                builder.add(child);
+            }
+
+            return new PlanNode(operator, table, column, indexType, estimatedRows, builder.build());
+        }
+
+        /**
+         * Return the source created by the given operator, which provides its rows on demand,
+         * or null if the plan is not executed.
+         */
+        private RowSource pulled(PlanNode node, Supplier<RowSource> operator) {
+            if (!_executing) {
+                return null;
+            }
+
+            final RowSource source = operator.get();
+            return (_profiler != null)? _profiler.profile(source, node) : source;
+        }
+
+        /**
+         * Return a source providing the rows computed all at once by the given operator,
+         * or null if the plan is not executed.
+         */
+        private RowSource computed(PlanNode node, Supplier<MutableList<ImmutableList<Object>>> operator) {
+            if (!_executing) {
+                return null;
+            }
+
+            return (_profiler != null)? _profiler.measure(node, operator) : new RowSource.ListSource(operator.get());
+        }
+
+        /**
+         * Return the step providing the result of the given query, as returned by {@link MemoryDatabase#select(DbQuery)}.
+         * If the result cache is enabled, rows are taken from it while the tables read are not modified,
+         * or computed and kept in it otherwise. The cache is only modified, and its hits and misses
+         * only counted, when executing the query as {@link MemoryDatabase#select(DbQuery)} does,
+         * but not when describing or profiling it.
+         *
+         * @param query Query to be executed, or null if its result must not be cached, as for prepared queries.
+         * @param plan Plan for the query.
+         */
+        PlanStep result(DbQuery query, QueryPlan plan) {
+            if (query == null || _resultCache == null) {
+                return plan.isStreamable()? streamed(plan) : select(plan);
+            }
+
+            final boolean selecting = _executing && _profiler == null;
+            final int[] versions = tableVersions(plan);
+            final CachedResult cached = _resultCache.get(query);
+            if (cached != null && Arrays.equals(cached.tableVersions, versions)) {
+                final PlanNode node = _describing? node(PlanNode.Operators.CACHED_RESULT, null, -1, -1, cached.rows.size()) : null;
+                if (selecting) {
+                    _resultCacheHits++;
+
+                    // Moved to the end, as the most recently used
+                    _resultCache.remove(query);
+                    _resultCache.put(query, cached);
+                }
+
+                return new PlanStep(node, pulled(node, () -> new RowSource.ListSource(cached.rows)));
+            }
+
+            final PlanStep step = select(plan);
+            if (!selecting) {
+                return step;
+            }
+
+            _resultCacheMisses++;
+            final MutableList<ImmutableList<Object>> rows = RowSource.drain(step.source);
+            _resultCache.put(query, new CachedResult(rows, versions));
+            return new PlanStep(step.node, new RowSource.ListSource(rows));
+        }
+
+        /**
+         * Return the step providing the joined rows of the given plan on demand,
+         * which are projected and limited to the range of the plan by a {@link StreamingResult}.
+         */
+        private PlanStep streamed(QueryPlan plan) {
+            final PlanStep joined = joins(plan, true);
+            final PlanNode node = _describing? node(PlanNode.Operators.PROJECTION, null, -1, -1,
+                    rangeRows(joined.node.estimatedRows(), plan.range), joined.node) : null;
+            return new PlanStep(node, joined.source);
+        }
+
+        /**
+         * Return the step providing all rows of the given plan, computed at once.
+         */
+        PlanStep select(QueryPlan plan) {
+            if (countsThroughBitmaps(plan)) {
+                final PlanNode node = _describing? node(PlanNode.Operators.BITMAP_COUNT, plan.tables[0], -1, DbIndex.Types.BITMAP, 1) : null;
+                return new PlanStep(node, computed(node, () -> bitmapCount(plan)));
+            }
+
+            // In parallel, rows are aggregated by each task unless they have to be sorted first
+            final RowSource.TableScan parallelScan = parallelScan(plan);
+            final boolean aggregatedInParallel = parallelScan != null && plan.grouped && !plan.isOrdered();
+            final PlanStep joined = (parallelScan != null)? parallel(plan, parallelScan, aggregatedInParallel) : joins(plan, false);
+            if (!plan.grouped) {
+                final PlanStep sorted = plan.isOrdered()? sort(plan, joined, true) : joined;
+                final PlanNode node = _describing? node(PlanNode.Operators.PROJECTION, null, -1, -1,
+                        rangeRows(sorted.node.estimatedRows(), plan.range), sorted.node) : null;
+                return new PlanStep(node, computed(node, () -> projectedRows(RowSource.drain(sorted.source), plan)));
+            }
+
+            // Rows are aggregated as they are joined, unless they have to be sorted first
+            final PlanStep aggregation;
+            if (aggregatedInParallel) {
+                aggregation = joined;
+            }
+            else {
+                final PlanStep input = plan.isOrdered()? sort(plan, joined, false) : joined;
+                final PlanNode node = _describing? node(PlanNode.Operators.AGGREGATION, null, -1, -1,
+                        groupCount(plan, input.node.estimatedRows()), input.node) : null;
+                aggregation = new PlanStep(node, pulled(node, () -> new RowSource.HashAggregation(input.source, plan)));
+            }
+
+            final ImmutableIntRange range = plan.range;
+            if (range.min() == 0 && range.max() == Integer.MAX_VALUE) {
+                return aggregation;
+            }
+
+            final PlanNode node = _describing? node(PlanNode.Operators.PROJECTION, null, -1, -1,
+                    rangeRows(aggregation.node.estimatedRows(), range), aggregation.node) : null;
+            return new PlanStep(node, computed(node, () -> rangeOfRows(RowSource.drain(aggregation.source), range)));
+        }
+
+        /**
+         * Return the step executing the pipeline of the given plan concurrently on ranges of the given scan,
+         * as returned by {@link MemoryDatabase#parallelScan(QueryPlan)}. Its rows are joined as
+         * {@link #joinViews(QueryPlan, PlanStep, boolean, HashMap[])} does, with the hash tables built up front.
+         * <p>
+         * The operators of the pipeline are only described, as they are executed in several threads.
+         *
+         * @param aggregated Whether each task aggregates its own rows, merging partial groups in order.
+         */
+        private PlanStep parallel(QueryPlan plan, RowSource.TableScan scan, boolean aggregated) {
+            PlanNode node = null;
+            if (_describing) {
+                final PlanBuilder describer = new PlanBuilder(true, false, null);
+                final PlanNode pipeline = describer.joinViews(plan, describer.view(plan, 0), true, null).node;
+                node = node(PlanNode.Operators.PARALLEL, null, -1, -1, pipeline.estimatedRows(), pipeline);
+                if (aggregated) {
+                    node = node(PlanNode.Operators.AGGREGATION, null, -1, -1, groupCount(plan, node.estimatedRows()), node);
+                }
+            }
+
+            if (!_executing) {
+                return new PlanStep(node, null);
+            }
+
+            final HashMap<Object, MutableList<ImmutableList<Object>>>[] hashTables = hashTables(plan);
+            final ParallelExecution execution = new ParallelExecution(ForkJoinPool.commonPool(), scan,
+                    chunk -> _executor.joinViews(plan, new PlanStep(null, chunk), true, hashTables).source);
+            final Supplier<MutableList<ImmutableList<Object>>> operator = aggregated?
+                    () -> RowSource.drain(execution.aggregation(plan)) : execution::rows;
+            return new PlanStep(node, (_profiler != null)? _profiler.measureConcurrent(node, operator) :
+                    new RowSource.ListSource(operator.get()));
+        }
+
+        /**
+         * Return the step sorting the rows of the given one. If allowed, only the rows up to
+         * the end of the range are sorted when there are more rows than that, which is decided
+         * on the actual rows when executed, and on the estimated ones otherwise.
+         */
+        private PlanStep sort(QueryPlan plan, PlanStep input, boolean topRowsAllowed) {
+            final ImmutableIntRange range = plan.range;
+            final PlanNode node;
+            if (_describing) {
+                final double inputRows = input.node.estimatedRows();
+                node = (topRowsAllowed && range.max() < inputRows - 1)?
+                        node(PlanNode.Operators.TOP_ROWS, null, -1, -1, range.max() + 1, input.node) :
+                        node(PlanNode.Operators.SORT, null, -1, -1, inputRows, input.node);
+            }
+            else {
+                node = null;
+            }
+
+            return new PlanStep(node, computed(node, () -> {
+                final MutableList<ImmutableList<Object>> rows = RowSource.drain(input.source);
+                final boolean topRows = topRowsAllowed && range.max() < rows.size() - 1;
+                if (node != null) {
+                    node.setOperator(topRows? PlanNode.Operators.TOP_ROWS : PlanNode.Operators.SORT);
+                }
+
+                if (topRows) {
+                    return topRows(rows, plan, range.max() + 1);
+                }
+
+                rows.sort(plan::precedes);
+                return rows;
+            }));
+        }
+
+        /**
+         * Return the step providing all joined rows for the given plan,
+         * before applying any ordering, grouping, column selection or range.
+         *
+         * @param plan Plan for the query to be executed.
+         * @param streaming Whether rows should be joined on demand. If false, the
+         *                  result of each hash join is computed before the next join,
+         *                  which allows building its hash table on the smaller side.
+         *                  In any case, if joining the views in a different order is estimated
+         *                  to be cheaper, as returned by {@link MemoryDatabase#joinOrder(QueryPlan)},
+         *                  all rows are joined in that order before providing any of them.
+         */
+        PlanStep joins(QueryPlan plan, boolean streaming) {
+            final int[] order = joinOrder(plan);
+            return (order != null)? reorderedJoins(plan, order) : joinViews(plan, view(plan, 0), streaming, null);
+        }
+
+        /**
+         * Return the step providing all rows of the given view matching its filter.
+         */
+        private PlanStep view(QueryPlan plan, int viewIndex) {
+            final TableFilter filter = plan.filters[viewIndex];
+            final MaterializedView materializedView = materializedView(plan.viewQueries[viewIndex]);
+            if (materializedView != null) {
+                final PlanNode node = _describing? node(PlanNode.Operators.VIEW_SCAN, null, -1, -1, materializedView.rows().size()) : null;
+                return new PlanStep(node, pulled(node, () -> new RowSource.ViewScan(materializedView.rows(), filter)));
+            }
+            else if (plan.viewPlans[viewIndex] != null) {
+                final PlanStep nested = select(plan.viewPlans[viewIndex]);
+                final PlanNode node = _describing? node(PlanNode.Operators.VIEW_SCAN, null, -1, -1, nested.node.estimatedRows(), nested.node) : null;
+                return new PlanStep(node, computed(node, () -> filterRows(RowSource.drain(nested.source), filter)));
+            }
+
+            final DbTable table = plan.tables[viewIndex];
+            final PlanNode node;
+            if (_describing) {
+                final ScanAccess access = scanAccess(table, filter);
+                final int column = (access.restriction >= 0)? filter.restrictedColumns[access.restriction] : -1;
+                node = node(access.operator, table, column, access.indexType, estimatedRows(table, filter));
+            }
+            else {
+                node = null;
+            }
+
+            return new PlanStep(node, pulled(node, () -> scan(table, filter)));
+        }
 
-    private final MutableHashMap<DbTable, MutableIntKeyMap<ImmutableList<Object>>> _tableMap = MutableHashMap.empty();
-    private final MutableHashMap<DbColumn, MutableIntValueHashMap<Object>> _indexes = MutableHashMap.empty();
+        /**
+         * Join all views after the first one to the rows provided by the given step.
+         *
+         * @param plan Plan for the query to be executed.
+         * @param first Step providing the rows of the first view.
+         * @param streaming Whether rows should be joined on demand, as in {@link #joins(QueryPlan, boolean)}.
+         * @param hashTables Hash tables already built for the views that require a hash join,
+         *                   as returned by {@link MemoryDatabase#hashTables(QueryPlan)}, or null to build them when joining.
+         */
+        private PlanStep joinViews(QueryPlan plan, PlanStep first, boolean streaming,
+                HashMap<Object, MutableList<ImmutableList<Object>>>[] hashTables) {
+            final int viewCount = plan.viewCount();
+            final double[] viewRows = _describing? new double[viewCount] : null;
+            if (_describing) {
+                viewRows[0] = first.node.estimatedRows();
+            }
 
-    private static final class Result extends AbstractTransformer<List<DbValue>> implements DbResult {
-        private final ImmutableList<ImmutableList<Object>> _content;
-        private int _index;
+            PlanStep step = first;
+            for (int viewIndex = 1; viewIndex < viewCount; viewIndex++) {
+                step = join(plan, step, viewIndex, streaming, hashTables, viewRows);
 
-        Result(ImmutableList<ImmutableList<Object>> content) {
-            _content = content;
-        }
+                final TableFilter filter = plan.filters[viewIndex];
+                if (!filter.joinedPairs.isEmpty()) {
+                    final PlanStep joined = step;
+                    final PlanNode node = _describing? node(PlanNode.Operators.JOIN_FILTER, null, -1, -1,
+                            joined.node.estimatedRows() * DEFAULT_SELECTIVITY, joined.node) : null;
+                    step = new PlanStep(node, pulled(node, () -> new RowSource.JoinedPairsFilter(joined.source, filter)));
+                }
+            }
 
-        @Override
-        public void close() {
-            _index = _content.size();
+            return step;
         }
 
-        @Override
-        public int getRemainingRows() {
-            return _content.size() - _index;
-        }
+        /**
+         * Return the step joining the given view to the rows provided by the given step,
+         * through its materialized view, its identifiers, an index or a hash table, in that order of preference.
+         *
+         * @param viewRows Estimated rows of each view, where the ones of the given view are set, or null if not described.
+         */
+        private PlanStep join(QueryPlan plan, PlanStep left, int viewIndex, boolean streaming,
+                HashMap<Object, MutableList<ImmutableList<Object>>>[] hashTables, double[] viewRows) {
+            final DbTable table = plan.tables[viewIndex];
+            final TableFilter filter = plan.filters[viewIndex];
+            final int leftColumn = plan.joinLeftColumns[viewIndex];
+            final int rightColumn = plan.joinRightColumns[viewIndex];
+            final int leftView = viewOfColumn(plan, leftColumn);
+            final int leftViewColumn = leftColumn - plan.filters[leftView].offset;
+
+            final MaterializedView materializedView = materializedView(plan.viewQueries[viewIndex]);
+            if (materializedView != null) {
+                final PlanNode node = _describing? joinNode(PlanNode.Operators.VIEW_INDEX_JOIN, -1, plan, leftView, leftViewColumn,
+                        viewIndex, rightColumn, materializedView.rows().size(), viewRows, left.node) : null;
+                return new PlanStep(node, pulled(node, () -> new RowSource.ViewIndexJoin(left.source, leftColumn, materializedView, rightColumn, filter)));
+            }
+            else if (table != null && rightColumn == 0) {
+                final PlanNode node = _describing? joinNode(PlanNode.Operators.ID_JOIN, -1, plan, leftView, leftViewColumn,
+                        viewIndex, rightColumn, estimatedRows(table, filter), viewRows, left.node) : null;
+                return new PlanStep(node, pulled(node, () -> new RowSource.IdJoin(left.source, leftColumn, _tableMap.get(table, EMPTY_TABLE), filter)));
+            }
+            else if (!usesHashJoin(plan, viewIndex)) {
+                final PlanNode node = _describing? joinNode(PlanNode.Operators.INDEX_JOIN, DbIndex.Types.VALUE, plan, leftView, leftViewColumn,
+                        viewIndex, rightColumn, estimatedRows(table, filter), viewRows, left.node) : null;
+                return new PlanStep(node, pulled(node, () ->
+                        new RowSource.IndexJoin(left.source, leftColumn, _tableMap.get(table), getIndex(table, rightColumn), filter)));
+            }
+            else if (hashTables != null) {
+                // Only used by parallel tasks, which are never described nor measured
+                return new PlanStep(null, new RowSource.HashJoin(left.source, leftColumn, hashTables[viewIndex]));
+            }
 
-        @Override
-        public boolean hasNext() {
-            return _index < _content.size();
-        }
+            final PlanStep right = view(plan, viewIndex);
+            final PlanNode node = _describing? joinNode(PlanNode.Operators.HASH_JOIN, -1, plan, leftView, leftViewColumn,
+                    viewIndex, rightColumn, right.node.estimatedRows(), viewRows, left.node, right.node) : null;
+            if (streaming) {
+                return new PlanStep(node, pulled(node, () ->
+                        new RowSource.HashJoin(left.source, leftColumn, RowSource.drain(right.source), rightColumn)));
+            }
 
-        private static DbValue rawToDbValue(Object raw) {
-            return (raw instanceof Integer)? new DbIntValue((Integer) raw) : new DbStringValue((String) raw);
+            return new PlanStep(node, computed(node, () -> {
+                final MutableList<ImmutableList<Object>> rightRows = RowSource.drain(right.source);
+                return hashJoin(RowSource.drain(left.source), leftColumn, rightRows, rightColumn);
+            }));
         }
 
-        @Override
-        public ImmutableList<DbValue> next() {
-            return _content.get(_index++).map(Result::rawToDbValue);
-        }
-    }
-
-    private void applyJoins(MutableList<ImmutableList<Object>> result, DbQuery query) {
-        final int tableCount = query.getTableCount();
-        for (int viewIndex = 1; viewIndex < tableCount; viewIndex++) {
-            final DbView view = query.getView(viewIndex);
-            final DbTable viewAsTable = view.asTable();
-            final DbQuery viewAsQuery = view.asQuery();
-            final DbQuery.JoinColumnPair joinPair = query.getJoinPair(viewIndex - 1);
-            if (viewAsQuery != null) {
-                final MutableList<ImmutableList<Object>> innerQueryResult = innerSelect(viewAsQuery);
-                for (int row = 0; row < result.size(); row++) {
-                    final ImmutableList<Object> oldRow = result.get(row);
-                    final Object rawValue = oldRow.get(joinPair.left());
-                    final int targetJoinColumnIndex = joinPair.right() - oldRow.size();
-
-                    boolean somethingReplaced = false;
-                    for (ImmutableList<Object> foundRow : innerQueryResult) {
-                        if (equal(foundRow.valueAt(targetJoinColumnIndex), rawValue)) {
-                            final ImmutableList<Object> newRow = oldRow.appendAll(foundRow);
-                            if (!somethingReplaced) {
-                                result.put(row, newRow);
-                                somethingReplaced = true;
-                            }
-                            else {
-                                result.insert(++row, newRow);
-                            }
-                        }
-                    }
+        /**
+         * Join all views of the given plan in the given order, providing
+         * the same rows that would be provided joining them in the original order.
+         * <p>
+         * Rows are joined with the columns of each view placed in the order of joining,
+         * and rearranged at the end, when the column value matches involving several
+         * views are checked. As rows of tables are always provided sorted by
+         * identifier, joined rows are finally sorted by the identifiers of their views,
+         * in the original order, which is the order in which they would have been joined.
+         *
+         * @param plan Plan for the query to be executed, where all views must be tables.
+         * @param order Indexes of the views, in the order they have to be joined.
+         */
+        private PlanStep reorderedJoins(QueryPlan plan, int[] order) {
+            final int viewCount = plan.viewCount();
+            final int[] reorderedOffsets = new int[viewCount];
+            final boolean[] joined = new boolean[viewCount];
+            final double[] viewRows = _describing? new double[viewCount] : null;
+
+            final int firstView = order[0];
+            PlanStep step = view(plan, firstView);
+            if (_describing) {
+                viewRows[firstView] = step.node.estimatedRows();
+            }
 
-                    if (!somethingReplaced) {
-                        result.removeAt(row--);
-                    }
+            joined[firstView] = true;
+            int columnCount = plan.tables[firstView].columns().size();
+            for (int position = 1; position < viewCount; position++) {
+                final int viewIndex = order[position];
+                final DbTable table = plan.tables[viewIndex];
+                final TableFilter filter = plan.filters[viewIndex];
+                final int[] joinColumns = reorderedJoinColumns(plan, joined, reorderedOffsets, viewIndex);
+                final int leftColumn = joinColumns[2];
+                final int rightColumn = joinColumns[3];
+                final TableStore content = _tableMap.get(table, EMPTY_TABLE);
+
+                final PlanStep left = step;
+                if (rightColumn == 0) {
+                    final PlanNode node = _describing? joinNode(PlanNode.Operators.ID_JOIN, -1, plan, joinColumns[0], joinColumns[1],
+                            viewIndex, rightColumn, estimatedRows(table, filter), viewRows, left.node) : null;
+                    step = new PlanStep(node, pulled(node, () -> new RowSource.IdJoin(left.source, leftColumn, content, filter)));
+                }
+                else if (joinsByLookup(table, rightColumn, filter)) {
+                    final PlanNode node = _describing? joinNode(PlanNode.Operators.INDEX_JOIN, DbIndex.Types.VALUE, plan, joinColumns[0], joinColumns[1],
+                            viewIndex, rightColumn, estimatedRows(table, filter), viewRows, left.node) : null;
+                    step = new PlanStep(node, pulled(node, () ->
+                            new RowSource.IndexJoin(left.source, leftColumn, content, getIndex(table, rightColumn), filter)));
+                }
+                else {
+                    final PlanStep right = view(plan, viewIndex);
+                    final PlanNode node = _describing? joinNode(PlanNode.Operators.HASH_JOIN, -1, plan, joinColumns[0], joinColumns[1],
+                            viewIndex, rightColumn, right.node.estimatedRows(), viewRows, left.node, right.node) : null;
+                    step = new PlanStep(node, computed(node, () -> {
+                        final MutableList<ImmutableList<Object>> rightRows = RowSource.drain(right.source);
+                        return hashJoin(RowSource.drain(left.source), leftColumn, rightRows, rightColumn);
+                    }));
                 }
+
+                reorderedOffsets[viewIndex] = columnCount;
+                columnCount += table.columns().size();
+                joined[viewIndex] = true;
             }
-            else {
-                final IntKeyMap<ImmutableList<Object>> viewContent = _tableMap.get(viewAsTable, MutableIntKeyMap.empty());
-
-                for (int row = 0; row < result.size(); row++) {
-                    final ImmutableList<Object> oldRow = result.get(row);
-                    final Object rawValue = oldRow.get(joinPair.left());
-                    final int targetJoinColumnIndex = joinPair.right() - oldRow.size();
-
-                    if (targetJoinColumnIndex == 0) {
-                        final int id = (Integer) rawValue;
-                        final ImmutableList<Object> foundRow = viewContent.get(id, null);
-                        if (foundRow != null) {
-                            ImmutableList<Object> newRow = oldRow.append(id).appendAll(foundRow);
-                            result.put(row, newRow);
-                        }
-                        else {
-                            result.removeAt(row--);
-                        }
-                    }
-                    else {
-                        boolean somethingReplaced = false;
-                        for (MutableIntKeyMap.Entry<ImmutableList<Object>> entry : viewContent.entries()) {
-                            if (equal(entry.value().get(targetJoinColumnIndex - 1), rawValue)) {
-                                final ImmutableList<Object> newRow = oldRow.append(entry.key())
-                                        .appendAll(entry.value());
-                                if (!somethingReplaced) {
-                                    result.put(row, newRow);
-                                    somethingReplaced = true;
-                                }
-                                else {
-                                    result.insert(++row, newRow);
-                                }
-                            }
-                        }
 
-                        if (!somethingReplaced) {
-                            result.removeAt(row--);
-                        }
-                    }
+            final PlanStep joinedStep = step;
+            final PlanNode node;
+            if (_describing) {
+                boolean joinedPairs = false;
+                for (int viewIndex = 1; viewIndex < viewCount; viewIndex++) {
+                    joinedPairs |= !plan.filters[viewIndex].joinedPairs.isEmpty();
                 }
+
+                node = node(PlanNode.Operators.REORDER, null, -1, -1,
+                        joinedStep.node.estimatedRows() * (joinedPairs? DEFAULT_SELECTIVITY : 1), joinedStep.node);
+            }
+            else {
+                node = null;
             }
+
+            return new PlanStep(node, computed(node, () -> restoredRows(plan, RowSource.drain(joinedStep.source), reorderedOffsets)));
         }
-    }
 
-    private void applyColumnMatchRestrictions(
-            MutableList<ImmutableList<Object>> result, Iterable<DbQuery.JoinColumnPair> pairs) {
-        for (DbQuery.JoinColumnPair pair : pairs) {
-            final Iterator<ImmutableList<Object>> it = result.iterator();
-            while (it.hasNext()) {
-                final ImmutableList<Object> row = it.next();
-                final boolean matchValue = equal(row.get(pair.left()), row.get(pair.right()));
-                if (pair.mustMatch() && !matchValue || !pair.mustMatch() && matchValue) {
-                    it.remove();
-                }
+        /**
+         * Describe the join of the given view to the rows of the views already joined.
+         *
+         * @param leftView Index of the view whose column is matched, which must be already joined.
+         * @param leftViewColumn Matched column within that view.
+         * @param rightColumn Matched column within the joined view.
+         * @param rightRows Estimated rows of the joined view.
+         * @param viewRows Estimated rows of each view, where the ones of the joined view are set.
+         * @param children Node providing the left rows and, if computed apart, the one providing the right rows.
+         */
+        private PlanNode joinNode(int operator, int indexType, QueryPlan plan, int leftView, int leftViewColumn,
+                int viewIndex, int rightColumn, double rightRows, double[] viewRows, PlanNode... children) {
+            viewRows[viewIndex] = rightRows;
+            final double rows = joinedRowEstimate(children[0].estimatedRows(), rightRows,
+                    viewDistinctValues(plan, leftView, leftViewColumn, viewRows[leftView]),
+                    viewDistinctValues(plan, viewIndex, rightColumn, rightRows));
+            return node(operator, plan.tables[viewIndex], rightColumn, indexType, rows, children);
+        }
+
+        /**
+         * Return an estimation of the number of distinct values in the given column of the given view,
+         * which is never greater than the estimated rows of the view.
+         */
+        private double viewDistinctValues(QueryPlan plan, int viewIndex, int column, double viewRows) {
+            final DbTable table = plan.tables[viewIndex];
+            final double maxValues = Math.max(1, viewRows);
+            return (table != null)? Math.min(distinctValues(table, column), maxValues) : maxValues;
+        }
+
+        /**
+         * Return an estimation of the number of groups for the given plan, as
+         * the product of distinct values in its grouping columns, up to the given rows.
+         */
+        private double groupCount(QueryPlan plan, double rows) {
+            double groups = 1;
+            for (int column : plan.groupingColumns) {
+                final int viewIndex = viewOfColumn(plan, column);
+                groups *= viewDistinctValues(plan, viewIndex, column - plan.filters[viewIndex].offset, rows);
             }
+
+            return Math.min(groups, Math.max(1, rows));
         }
     }
 
-    private void applyRestrictions(
-            MutableList<ImmutableList<Object>> result,
-            ImmutableIntKeyMap<DbQuery.Restriction> restrictions) {
-        for (ImmutableIntKeyMap.Entry<DbQuery.Restriction> entry : restrictions.entries()) {
-            final DbValue value = entry.value().value;
-            if (!value.isText() || entry.value().type == DbQuery.RestrictionTypes.EXACT) {
-                final Object rawValue = value.isText()? value.toText() : value.toInt();
+    /**
+     * Return the estimated number of rows resulting of joining two sides
+     * with the given rows and distinct values in their joined columns,
+     * as estimated by {@link JoinPlanner}.
+     */
+    private static double joinedRowEstimate(double leftRows, double rightRows, double leftDistinct, double rightDistinct) {
+        return leftRows * rightRows / Math.max(1, Math.max(leftDistinct, rightDistinct));
+    }
 
-                final Iterator<ImmutableList<Object>> it = result.iterator();
-                while (it.hasNext()) {
-                    final ImmutableList<Object> register = it.next();
-                    if (!rawValue.equals(register.get(entry.key()))) {
-                        it.remove();
-                    }
-                }
-            }
-            else {
-                final int type = entry.value().type;
-                final Predicate2<String, String> cmpFunc =
-                        (type == DbQuery.RestrictionStringTypes.ENDS_WITH)? String::endsWith :
-                        (type == DbQuery.RestrictionStringTypes.STARTS_WITH)? String::startsWith :
-                        String::contains;
-
-                final Iterator<ImmutableList<Object>> it = result.iterator();
-                while (it.hasNext()) {
-                    final ImmutableList<Object> register = it.next();
-                    if (!cmpFunc.apply(register.get(entry.key()).toString(), value.toText())) {
-                        it.remove();
-                    }
-                }
-            }
+    /**
+     * Return the number of rows within the given range, out of the given rows.
+     */
+    private static double rangeRows(double rows, ImmutableIntRange range) {
+        return Math.max(0, Math.min(rows, (double) range.max() + 1) - range.min());
+    }
+
+    /**
+     * Return the plan for the given query, compiling it only the first time it is executed.
+     */
+    private QueryPlan plan(DbQuery query) {
+        QueryPlan plan = _plans.get(query);
+        if (plan == null) {
+            plan = QueryPlan.compile(query);
+            _plans.put(query, plan);
+            _planCacheMisses++;
+        }
+        else {
+            _planCacheHits++;
         }
+
+        return plan;
     }
 
-    private ImmutableList<Object> getGroup(ImmutableList<Object> reg, ImmutableIntSet grouping) {
-        final ImmutableList.Builder<Object> groupBuilder = new ImmutableList.Builder<>();
-        for (int columnIndex : grouping) {
-            groupBuilder.add(reg.get(columnIndex));
+    /**
+     * Execute the given query.
+     * <p>
+     * Queries without any ordering or aggregate function are evaluated lazily:
+     * rows are scanned, joined and selected as they are requested to the returned
+     * result, and no further work is done once it is closed. Tables are still
+     * read as they were when this method was called, as the pending rows of any
+     * open result are computed before modifying the tables it reads.
+     * For that reason, results should be closed if they are not fully read.
+     *
+     * @throws IllegalArgumentException If the query contains any parameter. Such queries must be executed through {@link #prepare(DbQuery)}.
+     */
+    @Override
+    public DbResult select(DbQuery query) {
+        final QueryPlan plan = plan(query);
+        if (plan.parameterCount != 0) {
+            throw new IllegalArgumentException("Parameters must be bound through a prepared query");
+        }
+
+        final DatabaseListener listener = _listener;
+        if (listener == null) {
+            return select(query, plan);
         }
-        return groupBuilder.build();
+
+        return listenedSelect(listener, query, () -> select(query, plan));
     }
 
-    private MutableList<ImmutableList<Object>> innerSelect(DbQuery query) {
-        for (DbQuery.Ordered ordered : query.ordering()) {
-            if (query.getJoinColumn(ordered.columnIndex).isText()) {
-                throw new UnsupportedOperationException("Unimplemented");
-            }
+    /**
+     * Execute a query through the given function, and report its execution to the given listener
+     * once it is executed or, if its result is provided lazily, once all its rows are computed.
+     */
+    private DbResult listenedSelect(DatabaseListener listener, DbQuery query, Supplier<DbResult> execution) {
+        final long startTime = System.nanoTime();
+        final ArrayList<RowSource.TableScan> scans = new ArrayList<>();
+        _listenedScans = scans;
+        final DbResult result;
+        try {
+            result = execution.get();
+        }
+        finally {
+            _listenedScans = null;
         }
 
-        final DbView view = query.getView(0);
-        final DbQuery innerQuery = view.asQuery();
-        final DbTable viewAsTable = view.asTable();
-        final ImmutableIntKeyMap<DbQuery.Restriction> restrictions = query.restrictions();
-        MutableList<ImmutableList<Object>> unselectedResult;
-        if (innerQuery != null) {
-            unselectedResult = innerSelect(innerQuery);
+        if (result instanceof StreamingResult) {
+            ((StreamingResult) result).listen(listener, query, startTime, scans);
         }
         else {
-            final MutableIntKeyMap<ImmutableList<Object>> content;
-            if (_tableMap.containsKey(viewAsTable)) {
-                content = _tableMap.get(viewAsTable);
-            }
-            else {
-                content = MutableIntKeyMap.empty();
-                _tableMap.put(viewAsTable, content);
-            }
+            listener.selected(query, System.nanoTime() - startTime, scannedRows(scans), result.getRemainingRows(), 0);
+        }
 
-            // Apply id restriction if found
-            final MutableList.Builder<ImmutableList<Object>> unselectedResultBuilder = new MutableList.Builder<>();
-            if (restrictions.keySet().contains(0)) {
-                final int id = restrictions.get(0).value.toInt();
-                ImmutableList<Object> rawRegister = content.get(id, null);
-                if (rawRegister != null) {
-                    unselectedResultBuilder.add(rawRegister.prepend(id));
-                }
+        return result;
+    }
+
+    private static int scannedRows(ArrayList<RowSource.TableScan> scans) {
+        int rows = 0;
+        for (RowSource.TableScan scan : scans) {
+            rows += scan.checkedRows();
+        }
+
+        return rows;
+    }
+
+    private QueryPlan explainablePlan(DbQuery query) {
+        final QueryPlan plan = plan(query);
+        if (plan.parameterCount != 0) {
+            throw new IllegalArgumentException("Queries with parameters can not be explained");
+        }
+
+        return plan;
+    }
+
+    /**
+     * Describe the plan that would be followed to execute the given query.
+     * <p>
+     * Operators are chosen in the same way as when executing the query, while
+     * the rows they would provide are estimated from the indexes and the statistics
+     * of the tables, as returned by {@link #getStatistics(DbTable)}. The only choice
+     * taken on estimated rows instead of actual ones is whether all rows are sorted.
+     * Cached results are described, but the result cache is not modified.
+     *
+     * @throws IllegalArgumentException If the query contains any parameter.
+     */
+    @Override
+    public PlanNode explain(DbQuery query) {
+        return new PlanBuilder(true, false, null).result(query, explainablePlan(query)).node;
+    }
+
+    /**
+     * Execute the given query as {@link #select(DbQuery)} does, describing its plan
+     * as {@link #explain(DbQuery)} does, and measuring each of its operators.
+     * <p>
+     * The elapsed time and allocated bytes of each operator include the ones of its children.
+     * Allocated bytes are only measured if the platform supports it, through
+     * {@link java.lang.management.ThreadMXBean}, and measuring them is enabled there.
+     * They are never measured for operators executed in parallel.
+     * Operators within a parallel execution are only described, and operators whose
+     * rows are computed on demand are measured as all rows are read.
+     * Cached results are used, but the result cache is not modified, nor are
+     * its hits and misses counted.
+     *
+     * @throws IllegalArgumentException If the query contains any parameter.
+     */
+    @Override
+    public PlanNode explainAnalyze(DbQuery query) {
+        final QueryPlan plan = explainablePlan(query);
+        final PlanProfiler profiler = new PlanProfiler();
+        final PlanStep step = new PlanBuilder(true, true, profiler).result(query, plan);
+        try (DbResult result = result(query, plan, step)) {
+            if (streams(query, plan)) {
+                profiler.read(result, step.node);
             }
-            else {
-                for (MutableIntKeyMap.Entry<ImmutableList<Object>> entry : content.entries()) {
-                    final ImmutableList<Object> register = entry.value().prepend(entry.key());
-                    unselectedResultBuilder.add(register);
+        }
+
+        return step.node;
+    }
+
+    private static final class CachedResult {
+        final List<ImmutableList<Object>> rows;
+        final int[] tableVersions;
+
+        CachedResult(List<ImmutableList<Object>> rows, int[] tableVersions) {
+            this.rows = rows;
+            this.tableVersions = tableVersions;
+        }
+    }
+
+    /**
+     * Set the minimum number of rows to be checked in the first table of a query
+     * in order to execute it in parallel.
+     * <p>
+     * Queries over that threshold split the scan of their first table into
+     * ranges, which are filtered, joined and partially aggregated concurrently
+     * on the common {@link ForkJoinPool}. Results are merged in the same order
+     * as a sequential execution would provide them. Queries whose rows are
+     * provided lazily, as they have no ordering or grouping, are never executed
+     * in parallel, unless their result is cached.
+     * <p>
+     * By default, this is {@link #DEFAULT_PARALLEL_THRESHOLD}.
+     * Providing {@link Integer#MAX_VALUE} disables parallel execution.
+     *
+     * @param rowCount Minimum number of rows. It must be positive.
+     */
+    public void setParallelThreshold(int rowCount) {
+        if (rowCount < 1) {
+            throw new IllegalArgumentException("Invalid threshold " + rowCount);
+        }
+
+        _parallelThreshold = rowCount;
+    }
+
+    /**
+     * Set the listener that receives a callback for every select, insert,
+     * update and delete executed on this database, or remove it.
+     * <p>
+     * Operations are only timed and their rows counted while a listener is set.
+     * Queries executed through {@link #explainAnalyze(DbQuery)} are not reported.
+     *
+     * @param listener Listener to be called, or null to remove the current one.
+     */
+    public void setListener(DatabaseListener listener) {
+        _userListener = listener;
+        updateListener();
+    }
+
+    private static final class ListenerPair implements DatabaseListener {
+        private final DatabaseListener _first;
+        private final DatabaseListener _second;
+
+        ListenerPair(DatabaseListener first, DatabaseListener second) {
+            _first = first;
+            _second = second;
+        }
+
+        @Override
+        public void selected(DbQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+            _first.selected(query, elapsedNanos, scannedRows, returnedRows, affectedRows);
+            _second.selected(query, elapsedNanos, scannedRows, returnedRows, affectedRows);
+        }
+
+        @Override
+        public void inserted(DbInsertQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+            _first.inserted(query, elapsedNanos, scannedRows, returnedRows, affectedRows);
+            _second.inserted(query, elapsedNanos, scannedRows, returnedRows, affectedRows);
+        }
+
+        @Override
+        public void updated(DbUpdateQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+            _first.updated(query, elapsedNanos, scannedRows, returnedRows, affectedRows);
+            _second.updated(query, elapsedNanos, scannedRows, returnedRows, affectedRows);
+        }
+
+        @Override
+        public void deleted(DbDeleteQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+            _first.deleted(query, elapsedNanos, scannedRows, returnedRows, affectedRows);
+            _second.deleted(query, elapsedNanos, scannedRows, returnedRows, affectedRows);
+        }
+    }
+
+    private void updateListener() {
+        if (_userListener == null || _metrics == null) {
+            _listener = (_userListener != null)? _userListener : _metrics;
+        }
+        else {
+            _listener = new ListenerPair(_metrics, _userListener);
+        }
+    }
+
+    /**
+     * Create a registry of metrics for the operations executed on this database from now on.
+     * <p>
+     * If metrics are already enabled, the existing registry is returned instead,
+     * which keeps its values and remains published through JMX if it was registered.
+     * <p>
+     * Metrics are recorded apart from the listener set through {@link #setListener(DatabaseListener)},
+     * which keeps receiving its callbacks.
+     * <p>
+     * Metrics can be read directly from the returned instance, or published
+     * through JMX by calling {@link DatabaseMetrics#register(javax.management.ObjectName)}.
+     *
+     * @return The registry of metrics for this database.
+     */
+    public DatabaseMetrics enableMetrics() {
+        if (_metrics != null) {
+            return _metrics;
+        }
+
+        final DatabaseMetrics metrics = new DatabaseMetrics(this);
+        final int tableCount = _tableMap.size();
+        for (int tableIndex = 0; tableIndex < tableCount; tableIndex++) {
+            publishSizes(_tableMap.keyAt(tableIndex), metrics);
+        }
+
+        // Tables in the schema may have indexes but no content yet
+        final int indexedTableCount = _indexes.size();
+        for (int tableIndex = 0; tableIndex < indexedTableCount; tableIndex++) {
+            publishSizes(_indexes.keyAt(tableIndex), metrics);
+        }
+
+        _metrics = metrics;
+        updateListener();
+        return metrics;
+    }
+
+    /**
+     * Register in the given metrics the current number of rows of
+     * the given table and the number of entries in each of its indexes.
+     */
+    void publishSizes(DbTable table, DatabaseMetrics metrics) {
+        metrics.setTableSize(table.name(), _tableMap.get(table, EMPTY_TABLE).size());
+        final TableIndexes indexes = _indexes.get(table, null);
+        if (indexes != null) {
+            final ImmutableList<DbColumn> columns = table.columns();
+            final int columnCount = columns.size();
+            for (int columnIndex = 1; columnIndex < columnCount; columnIndex++) {
+                for (int type = DbIndex.Types.VALUE; type <= DbIndex.Types.BITMAP; type++) {
+                    final int entryCount = indexes.entryCount(columnIndex, type);
+                    if (entryCount >= 0) {
+                        metrics.setIndexSize(table.name() + '.' + columns.valueAt(columnIndex).name() + '.' + DbIndex.typeName(type), entryCount);
+                    }
                 }
             }
-            unselectedResult = unselectedResultBuilder.build();
         }
+    }
+
+    long planCacheHits() {
+        return _planCacheHits;
+    }
 
-        applyJoins(unselectedResult, query);
-        applyColumnMatchRestrictions(unselectedResult, query.columnValueMatchPairs());
-        applyRestrictions(unselectedResult, restrictions);
+    long planCacheMisses() {
+        return _planCacheMisses;
+    }
 
-        final ImmutableList<DbQuery.Ordered> ordering = query.ordering();
-        unselectedResult.sort((a, b) -> {
-            for (DbQuery.Ordered ordered : ordering) {
-                // Assumed that they are numeric fields. Other types are not supported
-                final int aValue = (Integer) a.get(ordered.columnIndex);
-                final int bValue = (Integer) b.get(ordered.columnIndex);
+    long resultCacheHits() {
+        return _resultCacheHits;
+    }
 
-                if (!ordered.descendantOrder && aValue < bValue || ordered.descendantOrder && bValue < aValue) {
-                    return true;
-                }
+    long resultCacheMisses() {
+        return _resultCacheMisses;
+    }
+
+    /**
+     * Return the current statistics for the given table and all its columns.
+     * <p>
+     * Statistics are updated as rows are inserted, updated or deleted, so they are
+     * obtained without reading the whole table, except the first time histograms are
+     * requested, or when many rows have been modified since they were last computed.
+     * The same statistics are used to choose the order in which tables are joined.
+     *
+     * @param table Table whose statistics are requested.
+     * @return A snapshot of the statistics, that is not updated if the table is modified later.
+     */
+    public TableStatistics getStatistics(DbTable table) {
+        final TableStore content = _tableMap.get(table, EMPTY_TABLE);
+        final StatisticsCollector statistics = obtainIndexes(table).statistics;
+        final ImmutableList<DbColumn> columns = table.columns();
+        final int columnCount = columns.size();
+        final ImmutableList.Builder<ColumnStatistics> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> columnCount);
+        for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+            final Object min = statistics.min(content, columnIndex);
+            final Object max = statistics.max(content, columnIndex);
+            builder.add(new ColumnStatistics(content.size(), statistics.distinctCount(content, columnIndex),
+                    (min != null)? rawToDbValue(min) : null, (max != null)? rawToDbValue(max) : null,
+                    columns.valueAt(columnIndex).isText()? null : statistics.histogram(content, columnIndex)));
+        }
+
+        return new TableStatistics(content.size(), builder.build());
+    }
+
+    /**
+     * Enable or disable the cache for query results.
+     * <p>
+     * When enabled, the rows resulting of each executed query are kept, and
+     * they are returned again if the same query instance is executed before
+     * modifying any of the tables it reads, including the tables read by its
+     * nested queries. Only the results for the most recently executed queries
+     * are kept, up to the given capacity.
+     * <p>
+     * Cached results are always computed as a whole, instead of being evaluated lazily.
+     * Queries executed through a {@link PreparedQuery} are never cached.
+     * By default, the cache is disabled.
+     *
+     * @param capacity Maximum number of queries whose result is kept, or 0 to disable the cache.
+     */
+    public void setResultCacheCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
 
-                if (!ordered.descendantOrder && aValue > bValue || ordered.descendantOrder && bValue > aValue) {
-                    return false;
+        if (capacity == 0) {
+            _resultCache = null;
+        }
+        else {
+            final LinkedHashMap<DbQuery, CachedResult> oldCache = _resultCache;
+            _resultCache = new LinkedHashMap<DbQuery, CachedResult>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<DbQuery, CachedResult> eldest) {
+                    return size() > capacity;
                 }
+            };
+
+            if (oldCache != null) {
+                _resultCache.putAll(oldCache);
             }
+        }
+    }
 
-            return false;
-        });
+    private int[] tableVersions(QueryPlan plan) {
+        final int[] versions = new int[plan.readTables.size()];
+        int index = 0;
+        for (DbTable table : plan.readTables) {
+            versions[index++] = _tableVersions.get(table, 0);
+        }
 
-        // Apply column selection
-        final int selectionCount = query.selection().size();
-        boolean groupedSelection = query.getGroupingCount() != 0;
-        if (!groupedSelection) {
-            for (int i = 0; i < selectionCount; i++) {
-                if (query.isMaxAggregateFunctionSelection(i) || query.isConcatAggregateFunctionSelection(i)) {
-                    groupedSelection = true;
-                    break;
+        return versions;
+    }
+
+    /**
+     * Execute the given plan, as {@link #select(DbQuery)} does.
+     *
+     * @param query Query to be executed, or null if its result must not be cached, as for prepared queries.
+     */
+    private DbResult select(DbQuery query, QueryPlan plan) {
+        return result(query, plan, _executor.result(query, plan));
+    }
+
+    /**
+     * Whether the rows of the given query are computed as they are requested to its result.
+     * Otherwise all rows are computed when the query is executed.
+     *
+     * @param query Query to be executed, or null if its result must not be cached.
+     */
+    private boolean streams(DbQuery query, QueryPlan plan) {
+        return (query == null || _resultCache == null) && plan.isStreamable();
+    }
+
+    /**
+     * Return the result providing the rows of the given step, built for the given query.
+     */
+    private DbResult result(DbQuery query, QueryPlan plan, PlanStep step) {
+        if (streams(query, plan)) {
+            final StreamingResult result = new StreamingResult(step.source, plan.selection, plan.range, plan.readTables);
+            _openResults.add(result);
+            return result;
+        }
+
+        return new Result(RowSource.drain(step.source));
+    }
+
+    private final class MemoryPreparedQuery implements PreparedQuery {
+        private final DbQuery _query;
+        private final QueryPlan _plan;
+
+        MemoryPreparedQuery(DbQuery query, QueryPlan plan) {
+            _query = query;
+            _plan = plan;
+        }
+
+        @Override
+        public DbQuery query() {
+            return _query;
+        }
+
+        @Override
+        public DbResult select(DbValue... parameters) {
+            final int parameterCount = _plan.parameterCount;
+            if (parameters.length != parameterCount) {
+                throw new IllegalArgumentException("Expected " + parameterCount + " parameters");
+            }
+
+            final Object[] rawParameters = new Object[parameterCount];
+            for (int index = 0; index < parameterCount; index++) {
+                final DbValue value = parameters[index];
+                if (value == null || value instanceof DbQuery.Parameter || value.isText() != _query.isTextParameter(index)) {
+                    throw new IllegalArgumentException("Invalid value for parameter " + index);
                 }
+
+                rawParameters[index] = rawValue(value);
             }
+
+            final QueryPlan plan = _plan.bind(rawParameters);
+            final DatabaseListener listener = _listener;
+            return (listener == null)? MemoryDatabase.this.select(null, plan) :
+                    listenedSelect(listener, _query, () -> MemoryDatabase.this.select(null, plan));
         }
+    }
 
-        final MutableList<ImmutableList<Object>> unlimitedResult;
-        if (groupedSelection) {
-            final MutableHashMap<ImmutableList<Object>, Integer> groups = MutableHashMap.empty();
-            for (int resultRow = 0; resultRow < unselectedResult.size(); resultRow++) {
-                final ImmutableList<Object> reg = unselectedResult.get(resultRow);
-                final ImmutableList<Object> group = getGroup(reg, query.grouping());
-                if (!groups.containsKey(group)) {
-                    groups.put(group, resultRow);
-                    final ImmutableList.Builder<Object> rowBuilder = new ImmutableList.Builder<>();
-                    for (int selectedColumn : query.selection()) {
-                        rowBuilder.add(reg.get(selectedColumn));
-                    }
-                    unselectedResult.put(resultRow, rowBuilder.build());
-                }
-                else {
-                    final int oldRowIndex = groups.get(group);
-                    final ImmutableList<Object> oldRow = unselectedResult.get(oldRowIndex);
-                    final ImmutableList.Builder<Object> rowBuilder = new ImmutableList.Builder<>();
-                    for (int selectionIndex = 0; selectionIndex < selectionCount; selectionIndex++) {
-                        Object rawValue = reg.get(query.selection().valueAt(selectionIndex));
-                        if (query.isMaxAggregateFunctionSelection(selectionIndex)) {
-                            int oldMax = (Integer) oldRow.get(selectionIndex);
-                            int value = (Integer) rawValue;
-                            rowBuilder.add(value > oldMax? value : oldMax);
-                        }
-                        else if (query.isConcatAggregateFunctionSelection(selectionIndex)) {
-                            String oldText = (String) oldRow.get(selectionIndex);
-                            String value = (String) rawValue;
-                            rowBuilder.add(oldText + value);
-                        }
-                        else {
-                            rowBuilder.add(rawValue);
-                        }
-                    }
+    /**
+     * Validate and plan the given query, in order to execute it several times.
+     * <p>
+     * The returned query can be executed with different values for the
+     * parameters of the query, without any further planning.
+     * Queries without parameters can be prepared as well.
+     *
+     * @param query Query to be prepared.
+     * @return A query ready to be executed on this database.
+     */
+    public PreparedQuery prepare(DbQuery query) {
+        return new MemoryPreparedQuery(query, plan(query));
+    }
 
-                    unselectedResult.put(oldRowIndex, rowBuilder.build());
-                    unselectedResult.removeAt(resultRow);
-                    --resultRow;
+    /**
+     * Register the given query as a materialized view.
+     * <p>
+     * The rows of a materialized view are computed once and kept, so that any
+     * query using it as a view reads those rows instead of executing it again.
+     * When joined, rows are found through a hash index on the joined column,
+     * built the first time it is needed.
+     * <p>
+     * Views without ordering or range that read only tables, each one once, are
+     * updated incrementally as rows are inserted, updated or deleted in those tables,
+     * as long as they are not grouped, or they read a single table and only select
+     * grouping columns, counts and sums. Any other view is computed again the
+     * first time it is used after modifying any of the tables it reads.
+     *
+     * @param query Query to be materialized. It can not contain parameters.
+     * @return Whether the query has been registered, or false if it was already materialized.
+     */
+    public boolean addMaterializedView(DbQuery query) {
+        if (query.getParameterCount() != 0) {
+            throw new IllegalArgumentException("Queries with parameters can not be materialized");
+        }
+
+        if (_materializedViews.containsKey(query)) {
+            return false;
+        }
+
+        final MaterializedView view = new MaterializedView(plan(query));
+        refresh(view);
+        _materializedViews.put(query, view);
+        return true;
+    }
+
+    /**
+     * Stop keeping the rows of the given query, previously registered through {@link #addMaterializedView(DbQuery)}.
+     *
+     * @return Whether the query was materialized.
+     */
+    public boolean removeMaterializedView(DbQuery query) {
+        return _materializedViews.remove(query) != null;
+    }
+
+    private void refresh(MaterializedView view) {
+        if (view.isIncremental()) {
+            view.clear();
+            for (DbTable table : view.plan.tables) {
+                final TableStore content = _tableMap.get(table, EMPTY_TABLE);
+                final int size = content.size();
+                for (int position = 0; position < size; position++) {
+                    view.tableChanged(table, content.idAt(position), content.registerAt(position));
                 }
             }
-            unlimitedResult = unselectedResult;
         }
         else {
-            final MutableList<ImmutableList<Object>> builder = MutableList.empty();
-            final ImmutableIntList selection = query.selection();
-            for (ImmutableList<Object> register : unselectedResult) {
-                final ImmutableList.Builder<Object> regBuilder = new ImmutableList.Builder<>();
-                for (int columnIndex : selection) {
-                    regBuilder.add(register.get(columnIndex));
-                }
-                builder.append(regBuilder.build());
-            }
-            unlimitedResult = builder;
+            view.setRows(innerSelect(view.plan));
         }
+    }
 
-        final ImmutableIntRange range = query.range();
-        final int unlimitedSize = unlimitedResult.size();
-        final boolean shorterRange = range.max() < unlimitedSize - 1;
-        if (range.min() > 0 || shorterRange) {
-            final int newSize = shorterRange? range.size() : unlimitedSize - range.min();
-            final MutableList<ImmutableList<Object>> limitedResult = MutableList.empty((currentSize, desiredSize) -> newSize);
-            for (int index = range.min(); index <= range.max() && index < unlimitedSize; index++) {
-                limitedResult.append(unlimitedResult.valueAt(index));
-            }
-
-            return limitedResult;
+    /**
+     * Return the materialized view for the given query, with its rows up to date,
+     * or null if the query is not materialized.
+     */
+    private MaterializedView materializedView(DbQuery query) {
+        final MaterializedView view = (query != null && !_materializedViews.isEmpty())? _materializedViews.get(query) : null;
+        if (view != null && !view.isValid()) {
+            refresh(view);
         }
-        else {
-            return unlimitedResult;
+
+        return view;
+    }
+
+    /**
+     * Update all materialized views after modifying a row.
+     *
+     * @param table Table that has been modified.
+     * @param id Identifier of the modified row.
+     * @param register New values for the row, excluding its identifier, or null if the row has been removed.
+     */
+    private void afterRowChange(DbTable table, int id, List<Object> register) {
+        for (MaterializedView view : _materializedViews.values()) {
+            view.tableChanged(table, id, register);
         }
     }
 
-    @Override
-    public DbResult select(DbQuery query) {
-        return new Result(innerSelect(query).toImmutable());
+    /**
+     * Compute the pending rows of all open results reading the given table,
+     * and invalidate any cached result reading it.
+     * This must be called before any modification on the table, but only
+     * once the modification is known to happen, as it is expensive.
+     */
+    private void beforeTableChange(DbTable table) {
+        _tableVersions.put(table, _tableVersions.get(table, 0) + 1);
+        // Materializing a result removes it from the open results
+        for (StreamingResult result : _openResults.toArray(new StreamingResult[0])) {
+            if (result.reads(table)) {
+                result.materialize();
+            }
+        }
     }
 
-    private MutableIntKeyMap<ImmutableList<Object>> obtainTableContent(DbTable table) {
-        MutableIntKeyMap<ImmutableList<Object>> content = _tableMap.get(table, null);
+    private TableStore obtainTableContent(DbTable table) {
+        TableStore content = _tableMap.get(table, null);
 
         if (content == null) {
-            content = MutableIntKeyMap.empty();
+            content = (_storageMode == StorageModes.COLUMNS)? new ColumnarTableStore(table) : new RowTableStore();
             _tableMap.put(table, content);
         }
 
         return content;
     }
 
+    private TableIndexes obtainIndexes(DbTable table) {
+        TableIndexes indexes = _indexes.get(table, null);
+
+        if (indexes == null) {
+            final ImmutableList<DbColumn> columns = table.columns();
+            final int columnCount = columns.size();
+            indexes = new TableIndexes(columnCount);
+            for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+                final DbColumn column = columns.valueAt(columnIndex);
+                if (column.isUnique() && !column.isPrimaryKey()) {
+                    indexes.values[columnIndex] = new ValueIndex();
+                }
+            }
+            _indexes.put(table, indexes);
+        }
+
+        return indexes;
+    }
+
+    private ValueIndex getIndex(DbTable table, int columnIndex) {
+        final TableIndexes indexes = _indexes.get(table, null);
+        return (indexes != null)? indexes.values[columnIndex] : null;
+    }
+
+    static Object rawValue(DbValue value) {
+        return value.isText()? value.toText() : value.toInt();
+    }
+
     @Override
     public Integer insert(DbInsertQuery query) {
-        final DbTable table = query.getTable();
-        final MutableIntKeyMap<ImmutableList<Object>> content = obtainTableContent(table);
+        final DatabaseListener listener = _listener;
+        if (listener == null) {
+            return innerInsert(query);
+        }
+
+        final long startTime = System.nanoTime();
+        final Integer id = innerInsert(query);
+        listener.inserted(query, System.nanoTime() - startTime, 0, 0, (id != null)? 1 : 0);
+        return id;
+    }
 
+    private Integer innerInsert(DbInsertQuery query) {
+        final DbTable table = query.getTable();
+        final TableStore content = obtainTableContent(table);
+        final TableIndexes indexes = obtainIndexes(table);
         final int queryColumnCount = query.getColumnCount();
         final ImmutableList<DbColumn> columns = table.columns();
 
         final int columnsSize = columns.size();
         final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentLength, newSize) -> columnsSize);
-        final MutableHashMap<DbColumn, Object> uniqueMap = MutableHashMap.empty();
         Integer id = null;
-        for (DbColumn column : columns) {
+        for (int columnIndex = 0; columnIndex < columnsSize; columnIndex++) {
+            final DbColumn column = columns.valueAt(columnIndex);
             boolean found = false;
             for (int i = 0; i < queryColumnCount; i++) {
                 if (column == query.getColumn(i)) {
@@ -381,7 +2377,7 @@ public final class MemoryDatabase implements Database {
                             throw new AssertionError();
                         }
                         id = value.toInt();
-                        if (content.keySet().contains(id)) {
+                        if (content.position(id) >= 0) {
                             // Let's avoid duplicates
                             return null;
                         }
@@ -389,12 +2385,9 @@ public final class MemoryDatabase implements Database {
                     }
                     else {
                         final Object rawValue = value.isText()? value.toText() : value.toInt();
-                        if (column.isUnique()) {
-                            if (_indexes.containsKey(column) && _indexes.get(column).keySet().contains(rawValue)) {
-                                // Let's avoid duplicates
-                                return null;
-                            }
-                            uniqueMap.put(column, rawValue);
+                        if (column.isUnique() && indexes.values[columnIndex].contains(rawValue)) {
+                            // Let's avoid duplicates
+                            return null;
                         }
 
                         builder.add(rawValue);
@@ -409,7 +2402,7 @@ public final class MemoryDatabase implements Database {
                     throw new AssertionError();
                 }
 
-                id = content.isEmpty()? 1 : content.keySet().max() + 1;
+                id = content.isEmpty()? 1 : content.maxId() + 1;
                 found = true;
             }
 
@@ -417,29 +2410,37 @@ public final class MemoryDatabase implements Database {
                 throw new IllegalArgumentException("Unable to find value for column " + column.name());
             }
         }
-        content.put(id, builder.build());
-
-        for (MutableMap.Entry<DbColumn, Object> entry : uniqueMap.entries()) {
-            final MutableIntValueHashMap<Object> map;
-            if (_indexes.containsKey(entry.key())) {
-                map = _indexes.get(entry.key());
-            }
-            else {
-                map = MutableIntValueHashMap.empty();
-                _indexes.put(entry.key(), map);
-            }
 
-            map.put(entry.value(), id);
-        }
+        final ImmutableList<Object> register = builder.build();
+        beforeTableChange(table);
+        content.put(id, register);
+        indexes.add(id, register);
+        afterRowChange(table, id, register);
 
         return id;
     }
 
     @Override
     public boolean update(DbUpdateQuery query) {
-        final DbTable table = query.table();
-        final MutableIntKeyMap<ImmutableList<Object>> content = obtainTableContent(table);
+        final DatabaseListener listener = _listener;
+        if (listener == null) {
+            return innerUpdate(query);
+        }
+
+        final long startTime = System.nanoTime();
+        final boolean result = innerUpdate(query);
+        listener.updated(query, System.nanoTime() - startTime, _scannedRows, 0, _affectedRows);
+        return result;
+    }
 
+    /**
+     * Update all rows matching the constraints of the given query,
+     * leaving in {@link #_scannedRows} and {@link #_affectedRows} the rows checked and updated.
+     */
+    private boolean innerUpdate(DbUpdateQuery query) {
+        final DbTable table = query.table();
+        final TableStore content = obtainTableContent(table);
+        final TableIndexes indexes = obtainIndexes(table);
         final ImmutableIntKeyMap.Builder<Object> rawConstraintsBuilder = new ImmutableIntKeyMap.Builder<>();
         for (IntKeyMap.Entry<DbValue> entry : query.constraints().entries()) {
             final DbValue value = entry.value();
@@ -457,12 +2458,14 @@ public final class MemoryDatabase implements Database {
         final int valuesCount = rawValues.size();
 
         final int tableLength = content.size();
+        _scannedRows = tableLength;
+        _affectedRows = 0;
         for (int row = 0; row < tableLength; row++) {
-            final ImmutableList<Object> currentValues = content.valueAt(row);
+            final ImmutableList<Object> currentValues = content.registerAt(row);
             boolean allMatches = true;
             for (int index = 0; index < constraintsCount && allMatches; index++) {
                 final int column = rawConstraints.keyAt(index);
-                final Object columnValue = (column == 0)? content.keyAt(row) : currentValues.get(column - 1);
+                final Object columnValue = (column == 0)? content.idAt(row) : currentValues.get(column - 1);
                 allMatches = rawConstraints.valueAt(index).equals(columnValue);
             }
 
@@ -479,19 +2482,37 @@ public final class MemoryDatabase implements Database {
                     }
                 }
 
+                final int oldKey = content.idAt(row);
                 if (modifyPrimeryKey) {
                     final Object newKey = rawValues.get(0);
-                    if (!(newKey instanceof Integer) || content.keySet().contains((Integer) newKey)) {
+                    _scannedRows = row + 1;
+                    if (!(newKey instanceof Integer) || content.position((Integer) newKey) >= 0) {
                         // Conflict. So nothing can be done
                         return false;
                     }
 
+                    final ImmutableList<Object> newValues = values.toImmutable();
+                    beforeTableChange(table);
                     content.removeAt(row);
-                    content.put((Integer) newKey, values.toImmutable());
+                    content.put((Integer) newKey, newValues);
+                    indexes.remove(oldKey, currentValues);
+                    indexes.add((Integer) newKey, newValues);
+                    afterRowChange(table, oldKey, null);
+                    afterRowChange(table, (Integer) newKey, newValues);
+                    _affectedRows++;
                     return true;
                 }
                 else {
-                    content.put(content.keyAt(row), values.toImmutable());
+                    final ImmutableList<Object> newValues = values.toImmutable();
+                    if (_affectedRows == 0) {
+                        beforeTableChange(table);
+                    }
+
+                    content.put(oldKey, newValues);
+                    indexes.remove(oldKey, currentValues);
+                    indexes.add(oldKey, newValues);
+                    afterRowChange(table, oldKey, newValues);
+                    _affectedRows++;
                 }
             }
         }
@@ -501,18 +2522,39 @@ public final class MemoryDatabase implements Database {
 
     @Override
     public boolean delete(DbDeleteQuery query) {
+        final DatabaseListener listener = _listener;
+        if (listener == null) {
+            return innerDelete(query);
+        }
+
+        final long startTime = System.nanoTime();
+        final boolean result = innerDelete(query);
+        listener.deleted(query, System.nanoTime() - startTime, _scannedRows, 0, _affectedRows);
+        return result;
+    }
+
+    /**
+     * Delete all rows matching the constraints of the given query,
+     * leaving in {@link #_scannedRows} and {@link #_affectedRows} the rows checked and deleted.
+     */
+    private boolean innerDelete(DbDeleteQuery query) {
+        _scannedRows = 0;
+        _affectedRows = 0;
         final ImmutableIntKeyMap<DbValue> constraints = query.constraints();
         final int constraintCount = constraints.size();
         if (constraintCount == 0) {
             return false;
         }
 
-        final MutableIntKeyMap<ImmutableList<Object>> table = _tableMap.get(query.table(), null);
+        final TableStore table = _tableMap.get(query.table(), null);
         if (table != null) {
+            final TableIndexes indexes = obtainIndexes(query.table());
             if (constraints.keyAt(0) == 0) {
                 final int id = constraints.valueAt(0).toInt();
-                final ImmutableList<Object> register = table.get(id, null);
-                if (register != null) {
+                final int position = table.position(id);
+                if (position >= 0) {
+                    _scannedRows = 1;
+                    final ImmutableList<Object> register = table.registerAt(position);
                     boolean matches = true;
                     for (int i = 1; i < constraintCount; i++) {
                         final DbValue value = constraints.valueAt(i);
@@ -524,19 +2566,22 @@ public final class MemoryDatabase implements Database {
                     }
 
                     if (matches) {
-                        if (!table.remove(id)) {
-                            throw new AssertionError();
-                        }
+                        beforeTableChange(query.table());
+                        table.removeAt(position);
+                        indexes.remove(id, register);
+                        afterRowChange(query.table(), id, null);
+                        _affectedRows = 1;
 
                         return true;
                     }
                 }
             }
             else {
+                _scannedRows = table.size();
                 boolean removed = false;
                 int index = 0;
                 while (index < table.size()) {
-                    final ImmutableList<Object> register = table.valueAt(index);
+                    final ImmutableList<Object> register = table.registerAt(index);
                     boolean matches = true;
                     for (IntKeyMap.Entry<DbValue> entry : constraints.entries()) {
                         final DbValue value = entry.value();
@@ -548,7 +2593,15 @@ public final class MemoryDatabase implements Database {
                     }
 
                     if (matches) {
+                        if (!removed) {
+                            beforeTableChange(query.table());
+                        }
+
+                        final int id = table.idAt(index);
+                        indexes.remove(id, register);
                         table.removeAt(index);
+                        afterRowChange(query.table(), id, null);
+                        _affectedRows++;
                         removed = true;
                     }
                     else {
@@ -570,13 +2623,13 @@ public final class MemoryDatabase implements Database {
         }
 
         final MemoryDatabase that = (MemoryDatabase) other;
-        return _tableMap.toImmutable().filterNot(MutableIntKeyMap::isEmpty)
-                .equals(that._tableMap.toImmutable().filterNot(MutableIntKeyMap::isEmpty));
+        return _tableMap.toImmutable().filterNot(TableStore::isEmpty)
+                .equals(that._tableMap.toImmutable().filterNot(TableStore::isEmpty));
     }
 
     @Override
     public int hashCode() {
-        return _tableMap.hashCode();
+        return _tableMap.toImmutable().filterNot(TableStore::isEmpty).hashCode();
     }
 
     private static boolean equal(Object a, Object b) {
@@ -0,0 +1,52 @@
+package sword.database;
+
+import java.util.Arrays;
+
+/**
+ * Secondary index for a single int column within a table in {@link MemoryDatabase},
+ * where all values are kept sorted in order to find the rows whose value is within a range.
+ * <p>
+ * Entries are kept in a {@link BPlusTree}, sorted by value and then by identifier,
+ * so that registering or unregistering a value costs O(log n), and all values
+ * within a range are found by walking the leaves from the lower limit.
+ */
+final class OrderedIntIndex {
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final BPlusTree<Integer> _entries = new BPlusTree<>();
+
+    /**
+     * Register that the row with the given identifier contains the given value.
+     */
+    void add(int value, int id) {
+        _entries.add(value, id);
+    }
+
+    /**
+     * Unregister the given value for the row with the given identifier.
+     */
+    void remove(int value, int id) {
+        _entries.remove(value, id);
+    }
+
+    /**
+     * Return the number of pairs of value and row identifier registered in this index.
+     */
+    int entryCount() {
+        return _entries.size();
+    }
+
+    /**
+     * Return the sorted identifiers of all rows whose value is within the given limits, both included.
+     */
+    int[] ids(long min, long max) {
+        if (min > max || min > Integer.MAX_VALUE || max < Integer.MIN_VALUE) {
+            return NO_IDS;
+        }
+
+        final int[] result = _entries.ids((int) Math.max(min, Integer.MIN_VALUE), value -> value <= max);
+        Arrays.sort(result);
+        return result;
+    }
+}
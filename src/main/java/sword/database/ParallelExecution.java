@@ -0,0 +1,128 @@
+package sword.database;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import sword.collections.ImmutableList;
+import sword.collections.MutableList;
+
+/**
+ * Fork/join execution of the pipeline of a query within {@link MemoryDatabase},
+ * where the scan of its first table is split into ranges.
+ * <p>
+ * Ranges are split in halves until they are small enough, and each one is
+ * processed by a separate task, that builds its own pipeline on top of its
+ * part of the scan. Results of contiguous ranges are merged keeping the order
+ * of the ranges, so rows and groups are provided in the same order as
+ * a sequential execution would.
+ * <p>
+ * This assumes that tables are not modified while tasks are running, and that any
+ * state shared among pipelines, like the hash tables of joins, is only read.
+ */
+final class ParallelExecution {
+
+    /**
+     * Ranges with no more rows to be checked than this are never split.
+     */
+    static final int MIN_CHUNK_SIZE = 4096;
+
+    // Tasks per thread in the pool, to balance the load if some ranges are slower than others
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    interface Pipeline {
+
+        /**
+         * Return the source providing the joined rows, before any ordering, grouping or selection,
+         * for the rows provided by the given scan.
+         */
+        RowSource build(RowSource.TableScan scan);
+    }
+
+    private final ForkJoinPool _pool;
+    private final RowSource.TableScan _scan;
+    private final Pipeline _pipeline;
+    private final int _chunkSize;
+
+    ParallelExecution(ForkJoinPool pool, RowSource.TableScan scan, Pipeline pipeline) {
+        _pool = pool;
+        _scan = scan;
+        _pipeline = pipeline;
+        _chunkSize = Math.max(MIN_CHUNK_SIZE, scan.remaining() / (pool.getParallelism() * CHUNKS_PER_THREAD));
+    }
+
+    /**
+     * Return all joined rows, in the same order as the sequential pipeline would provide them.
+     */
+    MutableList<ImmutableList<Object>> rows() {
+        final MutableList<ImmutableList<Object>> rows = _pool.invoke(new RowsTask(0, _scan.remaining()));
+        _scan.skipRemaining();
+        return rows;
+    }
+
+    /**
+     * Return the aggregation of all joined rows, where each task
+     * aggregates its own range and partial groups are merged in order.
+     */
+    RowSource.HashAggregation aggregation(QueryPlan plan) {
+        final RowSource.HashAggregation aggregation = _pool.invoke(new AggregationTask(plan, 0, _scan.remaining()));
+        _scan.skipRemaining();
+        return aggregation;
+    }
+
+    private final class RowsTask extends RecursiveTask<MutableList<ImmutableList<Object>>> {
+        private final int _start;
+        private final int _end;
+
+        RowsTask(int start, int end) {
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        protected MutableList<ImmutableList<Object>> compute() {
+            if (_end - _start <= _chunkSize) {
+                return RowSource.drain(_pipeline.build(_scan.subScan(_start, _end)));
+            }
+
+            final int middle = (_start + _end) >>> 1;
+            final RowsTask left = new RowsTask(_start, middle);
+            left.fork();
+            final MutableList<ImmutableList<Object>> rightRows = new RowsTask(middle, _end).compute();
+            final MutableList<ImmutableList<Object>> rows = left.join();
+            for (ImmutableList<Object> row : rightRows) {
+                rows.append(row);
+            }
+
+            return rows;
+        }
+    }
+
+    private final class AggregationTask extends RecursiveTask<RowSource.HashAggregation> {
+        private final QueryPlan _plan;
+        private final int _start;
+        private final int _end;
+
+        AggregationTask(QueryPlan plan, int start, int end) {
+            _plan = plan;
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        protected RowSource.HashAggregation compute() {
+            if (_end - _start <= _chunkSize) {
+                final RowSource.HashAggregation aggregation = new RowSource.HashAggregation(_pipeline.build(_scan.subScan(_start, _end)), _plan);
+                aggregation.aggregate();
+                return aggregation;
+            }
+
+            final int middle = (_start + _end) >>> 1;
+            final AggregationTask left = new AggregationTask(_plan, _start, middle);
+            left.fork();
+            final RowSource.HashAggregation rightAggregation = new AggregationTask(_plan, middle, _end).compute();
+            final RowSource.HashAggregation aggregation = left.join();
+            aggregation.merge(rightAggregation);
+            return aggregation;
+        }
+    }
+}
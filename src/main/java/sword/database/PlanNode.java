@@ -0,0 +1,272 @@
+package sword.database;
+
+import sword.collections.ImmutableList;
+
+/**
+ * Operator within the plan followed to execute a {@link DbQuery},
+ * as returned by {@link ExplainableDatabase#explain(DbQuery)}.
+ * <p>
+ * Each operator takes the rows provided by its children, and provides
+ * its own rows to its parent. Joins have the operator providing the left
+ * rows as first child and, if the right side is computed apart, the one
+ * providing the right rows as second child.
+ * <p>
+ * Actual values are only available for plans returned by
+ * {@link ExplainableDatabase#explainAnalyze(DbQuery)}, where the query is executed.
+ * In that case, the elapsed time and allocated bytes of each operator
+ * include the ones of its children.
+ */
+public final class PlanNode {
+
+    /**
+     * Kinds of operator within a plan.
+     */
+    public interface Operators {
+
+        /**
+         * Check all rows of a table.
+         */
+        int FULL_SCAN = 0;
+
+        /**
+         * Check only the rows of a table whose identifiers are restricted to an exact value or a list of values.
+         */
+        int ID_LOOKUP = 1;
+
+        /**
+         * Check only the rows of a table whose identifiers are within a range.
+         */
+        int ID_RANGE_SCAN = 2;
+
+        /**
+         * Check only the rows of a table provided by a secondary index.
+         * The column and the type of the index are provided by {@link #column()} and {@link #indexType()}.
+         */
+        int INDEX_SCAN = 3;
+
+        /**
+         * Check the rows of a nested query, computed by its child, or of a materialized view if it has no child.
+         */
+        int VIEW_SCAN = 4;
+
+        /**
+         * Join each left row with the row of a table whose identifier is in the joined column.
+         */
+        int ID_JOIN = 5;
+
+        /**
+         * Join each left row with the rows of a table found through the index of the joined column.
+         */
+        int INDEX_JOIN = 6;
+
+        /**
+         * Join the left rows with the right rows, by hashing one of the sides.
+         */
+        int HASH_JOIN = 7;
+
+        /**
+         * Join each left row with the rows of a materialized view found through its index for the joined column.
+         */
+        int VIEW_INDEX_JOIN = 8;
+
+        /**
+         * Check column value matches involving columns of several views, after joining them.
+         */
+        int JOIN_FILTER = 9;
+
+        /**
+         * Rearrange the rows of views joined in a different order than in the query,
+         * recovering the order of columns and rows of the query.
+         */
+        int REORDER = 10;
+
+        /**
+         * Execute the pipeline of its child concurrently on ranges of the first table.
+         */
+        int PARALLEL = 11;
+
+        /**
+         * Sort all rows.
+         */
+        int SORT = 12;
+
+        /**
+         * Select the first rows within the range of the query, without sorting all rows.
+         */
+        int TOP_ROWS = 13;
+
+        /**
+         * Group rows and compute the aggregate functions.
+         */
+        int AGGREGATION = 14;
+
+        /**
+         * Count the rows of a table intersecting bitmap indexes, without reading any row.
+         */
+        int BITMAP_COUNT = 15;
+
+        /**
+         * Select the columns and rows within the range of the query.
+         */
+        int PROJECTION = 16;
+
+        /**
+         * Read the rows kept in the result cache for the same query, as no table it reads has been modified.
+         */
+        int CACHED_RESULT = 17;
+    }
+
+    private static final String[] OPERATOR_NAMES = {
+        "FullScan", "IdLookup", "IdRangeScan", "IndexScan", "ViewScan", "IdJoin", "IndexJoin", "HashJoin",
+        "ViewIndexJoin", "JoinFilter", "Reorder", "Parallel", "Sort", "TopRows", "Aggregation", "BitmapCount", "Projection",
+        "CachedResult"
+    };
+
+    private int _operator;
+    private final DbTable _table;
+    private final int _column;
+    private final int _indexType;
+    private final long _estimatedRows;
+    private final ImmutableList<PlanNode> _children;
+
+    private long _actualRows = -1;
+    private long _elapsedNanos = -1;
+    private long _allocatedBytes = -1;
+
+    PlanNode(int operator, DbTable table, int column, int indexType, double estimatedRows, ImmutableList<PlanNode> children) {
+        _operator = operator;
+        _table = table;
+        _column = column;
+        _indexType = indexType;
+        _estimatedRows = Math.round(estimatedRows);
+        _children = children;
+    }
+
+    /**
+     * Register that the execution of this operator provided the given rows,
+     * taking the given time and allocating the given bytes.
+     * Values are added to the ones previously registered.
+     *
+     * @param allocatedBytes Allocated bytes, or a negative value if they can not be measured.
+     */
+    void addActual(long rows, long elapsedNanos, long allocatedBytes) {
+        _actualRows = Math.max(_actualRows, 0) + rows;
+        _elapsedNanos = Math.max(_elapsedNanos, 0) + elapsedNanos;
+        if (allocatedBytes >= 0) {
+            _allocatedBytes = Math.max(_allocatedBytes, 0) + allocatedBytes;
+        }
+    }
+
+    /**
+     * Replace the operator chosen on the estimated rows by the one chosen
+     * on the actual rows when executing it.
+     */
+    void setOperator(int operator) {
+        _operator = operator;
+    }
+
+    /**
+     * Return one of the values within {@link Operators}.
+     */
+    public int operator() {
+        return _operator;
+    }
+
+    /**
+     * Return the table read by this operator, or null if it does not read any table directly.
+     */
+    public DbTable table() {
+        return _table;
+    }
+
+    /**
+     * Return the index of the column within {@link #table()} that is used to find
+     * the rows, either through an index or for joining, or -1 if not applicable.
+     */
+    public int column() {
+        return _column;
+    }
+
+    /**
+     * Return one of the values within {@link DbIndex.Types} for index scans and
+     * index joins, or -1 for any other operator.
+     */
+    public int indexType() {
+        return _indexType;
+    }
+
+    /**
+     * Return the estimated number of rows provided by this operator.
+     */
+    public long estimatedRows() {
+        return _estimatedRows;
+    }
+
+    /**
+     * Return the number of rows provided by this operator when executed, or -1 if not executed.
+     */
+    public long actualRows() {
+        return _actualRows;
+    }
+
+    /**
+     * Return the nanoseconds spent executing this operator and its children, or -1 if not executed.
+     */
+    public long elapsedNanos() {
+        return _elapsedNanos;
+    }
+
+    /**
+     * Return the bytes allocated while executing this operator and its children,
+     * or -1 if not executed, if the platform does not allow measuring them, or if measuring them is disabled.
+     */
+    public long allocatedBytes() {
+        return _allocatedBytes;
+    }
+
+    public ImmutableList<PlanNode> children() {
+        return _children;
+    }
+
+    private void appendTo(StringBuilder builder, int depth) {
+        for (int i = 0; i < depth; i++) {
+            builder.append("  ");
+        }
+
+        builder.append(OPERATOR_NAMES[_operator]);
+        if (_table != null) {
+            builder.append(' ').append(_table.name());
+        }
+
+        if (_column >= 0) {
+            builder.append(" column=").append(_column);
+        }
+
+        if (_indexType >= 0) {
+            builder.append(" index=").append(DbIndex.typeName(_indexType));
+        }
+
+        builder.append(" estimatedRows=").append(_estimatedRows);
+        if (_actualRows >= 0) {
+            builder.append(" actualRows=").append(_actualRows).append(" elapsedNanos=").append(_elapsedNanos);
+            if (_allocatedBytes >= 0) {
+                builder.append(" allocatedBytes=").append(_allocatedBytes);
+            }
+        }
+
+        builder.append('\n');
+        for (PlanNode child : _children) {
+            child.appendTo(builder, depth + 1);
+        }
+    }
+
+    /**
+     * Describe this operator and all its children, one per line, indented by depth.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        appendTo(builder, 0);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package sword.database;
+
+import java.util.function.Supplier;
+
+import sword.collections.ImmutableList;
+import sword.collections.List;
+
+/**
+ * Measures the execution of the operators within a plan, for {@link ExplainableDatabase#explainAnalyze(DbQuery)}.
+ * <p>
+ * Operators providing rows on demand are wrapped, measuring each request of
+ * a row, which includes the time spent by the operators it pulls from. Operators
+ * computing all their rows at once are measured as a whole, and they are not
+ * executed until their first row is requested, so that their measures also include
+ * the operators they pull from. All operators must be executed in the same thread,
+ * except the ones measured through {@link #measureConcurrent(PlanNode, Supplier)}.
+ */
+final class PlanProfiler {
+
+    // Null if not supported by the platform, or if measuring allocated memory is disabled.
+    // This is checked for each profiler, as the setting can be changed at any time
+    private final AllocationMeter _meter = createMeter();
+
+    private static AllocationMeter createMeter() {
+        try {
+            return AllocationMeter.create();
+        }
+        catch (LinkageError | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private long allocatedBytes() {
+        return (_meter != null)? _meter.allocatedBytes() : -1;
+    }
+
+    private final class ProfiledSource extends RowSource {
+        private final RowSource _source;
+        private final PlanNode _node;
+
+        ProfiledSource(RowSource source, PlanNode node) {
+            _source = source;
+            _node = node;
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            final long startBytes = allocatedBytes();
+            final long startTime = System.nanoTime();
+            final ImmutableList<Object> row = _source.next();
+            final long elapsed = System.nanoTime() - startTime;
+            _node.addActual((row != null)? 1 : 0, elapsed, (startBytes >= 0)? allocatedBytes() - startBytes : -1);
+            return row;
+        }
+    }
+
+    private final class MeasuredSource extends RowSource {
+        private final PlanNode _node;
+        private final Supplier<? extends List<ImmutableList<Object>>> _operator;
+        private final boolean _concurrent;
+        private List<ImmutableList<Object>> _rows;
+        private int _index;
+
+        MeasuredSource(PlanNode node, Supplier<? extends List<ImmutableList<Object>>> operator, boolean concurrent) {
+            _node = node;
+            _operator = operator;
+            _concurrent = concurrent;
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            if (_rows == null) {
+                final long startBytes = _concurrent? -1 : allocatedBytes();
+                final long startTime = System.nanoTime();
+                _rows = _operator.get();
+                final long elapsed = System.nanoTime() - startTime;
+                _node.addActual(_rows.size(), elapsed, (startBytes >= 0)? allocatedBytes() - startBytes : -1);
+            }
+
+            return (_index < _rows.size())? _rows.valueAt(_index++) : null;
+        }
+    }
+
+    /**
+     * Return a source providing the same rows as the given one, registering its measures in the given node.
+     */
+    RowSource profile(RowSource source, PlanNode node) {
+        return new ProfiledSource(source, node);
+    }
+
+    /**
+     * Return a source providing the rows computed by the given operator, which is executed
+     * when the first row is requested, registering its measures in the given node.
+     */
+    RowSource measure(PlanNode node, Supplier<? extends List<ImmutableList<Object>>> operator) {
+        return new MeasuredSource(node, operator, false);
+    }
+
+    /**
+     * Return a source as {@link #measure(PlanNode, Supplier)} does, for an operator
+     * executed concurrently in other threads, whose allocated bytes are not measured.
+     */
+    RowSource measureConcurrent(PlanNode node, Supplier<? extends List<ImmutableList<Object>>> operator) {
+        return new MeasuredSource(node, operator, true);
+    }
+
+    /**
+     * Read all rows of the given result, registering its measures in the given node.
+     * This is intended for results computing their rows as they are requested.
+     */
+    void read(DbResult result, PlanNode node) {
+        final long startBytes = allocatedBytes();
+        final long startTime = System.nanoTime();
+        int rows = 0;
+        while (result.hasNext()) {
+            result.next();
+            rows++;
+        }
+
+        final long elapsed = System.nanoTime() - startTime;
+        node.addActual(rows, elapsed, (startBytes >= 0)? allocatedBytes() - startBytes : -1);
+    }
+}
@@ -0,0 +1,26 @@
+package sword.database;
+
+/**
+ * Query ready to be executed several times, providing different values for its parameters on each execution.
+ * <p>
+ * Any validation and planning of the query is done only once, when preparing it.
+ *
+ * @see DbQuery.Parameter
+ */
+public interface PreparedQuery {
+
+    /**
+     * Return the query that has been prepared.
+     */
+    DbQuery query();
+
+    /**
+     * Execute the query replacing each {@link DbQuery.Parameter} by the given values.
+     *
+     * @param parameters Values for all parameters, sorted by their index.
+     *                   Their types must match the types of the parameters.
+     * @return The result of the query.
+     * @throws IllegalArgumentException If the number of values or their types do not match the parameters.
+     */
+    DbResult select(DbValue... parameters);
+}
@@ -0,0 +1,228 @@
+package sword.database;
+
+import sword.collections.ImmutableIntList;
+import sword.collections.ImmutableIntRange;
+import sword.collections.ImmutableIntSet;
+import sword.collections.ImmutableList;
+import sword.collections.ImmutableSet;
+import sword.collections.MutableHashSet;
+
+/**
+ * All facts about a {@link DbQuery} that {@link MemoryDatabase} needs to execute it,
+ * resolved once so that they do not have to be derived on each execution.
+ * <p>
+ * As queries are immutable, a plan is valid for as long as its query is alive.
+ * A plan never depends on the content of the tables, so index lookups are still
+ * decided when executed. It does not keep any reference to its query either,
+ * but only to its nested queries, which allows plans to be cached with the query as a weak key.
+ */
+final class QueryPlan {
+
+    /**
+     * Tables for each view, or null for the views that are queries.
+     */
+    final DbTable[] tables;
+
+    /**
+     * Queries for each view, or null for the views that are tables.
+     */
+    final DbQuery[] viewQueries;
+
+    /**
+     * Plans for each view that is a query, or null for the views that are tables.
+     */
+    final QueryPlan[] viewPlans;
+
+    /**
+     * Filters for each view, as returned by {@link TableFilter#split(DbQuery)}.
+     */
+    final TableFilter[] filters;
+
+    /**
+     * Column within the joined row to be matched when joining each view. Index 0 is not used.
+     */
+    final int[] joinLeftColumns;
+
+    /**
+     * Column within each view to be matched when joining it. Index 0 is not used.
+     */
+    final int[] joinRightColumns;
+
+    final ImmutableIntList selection;
+    final ImmutableIntRange range;
+    final int[] orderedColumns;
+    final boolean[] descendantOrder;
+
+    /**
+     * Whether the selection must be grouped, either because the query has a grouping or an aggregate function.
+     */
+    final boolean grouped;
+    final int[] groupingColumns;
+
+    /**
+     * Aggregate function for each selected column, as defined in {@link RowSource.HashAggregation}.
+     */
+    final int[] functions;
+
+    /**
+     * All tables read by the query, including the ones read by nested queries.
+     */
+    final ImmutableSet<DbTable> readTables;
+
+    /**
+     * Number of parameters that must be bound before executing this plan.
+     */
+    final int parameterCount;
+
+    private QueryPlan(DbQuery query) {
+        final ImmutableList<DbQuery.Ordered> ordering = query.ordering();
+        final int orderingCount = ordering.size();
+        orderedColumns = new int[orderingCount];
+        descendantOrder = new boolean[orderingCount];
+        for (int i = 0; i < orderingCount; i++) {
+            final DbQuery.Ordered ordered = ordering.valueAt(i);
+            if (query.getJoinColumn(ordered.columnIndex).isText()) {
+                throw new UnsupportedOperationException("Unimplemented");
+            }
+
+            orderedColumns[i] = ordered.columnIndex;
+            descendantOrder[i] = ordered.descendantOrder;
+        }
+
+        final int viewCount = query.getTableCount();
+        tables = new DbTable[viewCount];
+        viewQueries = new DbQuery[viewCount];
+        viewPlans = new QueryPlan[viewCount];
+        filters = TableFilter.split(query);
+        joinLeftColumns = new int[viewCount];
+        joinRightColumns = new int[viewCount];
+        final MutableHashSet<DbTable> readTables = MutableHashSet.empty();
+        for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+            final DbView view = query.getView(viewIndex);
+            final DbQuery viewAsQuery = view.asQuery();
+            if (viewAsQuery != null) {
+                final QueryPlan viewPlan = new QueryPlan(viewAsQuery);
+                viewQueries[viewIndex] = viewAsQuery;
+                viewPlans[viewIndex] = viewPlan;
+                for (DbTable table : viewPlan.readTables) {
+                    readTables.add(table);
+                }
+            }
+            else {
+                tables[viewIndex] = view.asTable();
+                readTables.add(view.asTable());
+            }
+
+            if (viewIndex > 0) {
+                final DbQuery.JoinColumnPair joinPair = query.getJoinPair(viewIndex - 1);
+                joinLeftColumns[viewIndex] = joinPair.left();
+                joinRightColumns[viewIndex] = joinPair.right() - filters[viewIndex].offset;
+            }
+        }
+        this.readTables = readTables.toImmutable();
+
+        selection = query.selection();
+        range = query.range();
+
+        final int selectionCount = selection.size();
+        functions = new int[selectionCount];
+        boolean grouped = query.getGroupingCount() != 0;
+        for (int i = 0; i < selectionCount; i++) {
+            functions[i] = aggregateFunction(query, i);
+            if (functions[i] != RowSource.HashAggregation.NO_FUNCTION) {
+                grouped = true;
+            }
+        }
+        this.grouped = grouped;
+
+        final ImmutableIntSet grouping = query.grouping();
+        groupingColumns = new int[grouping.size()];
+        int groupingIndex = 0;
+        for (int columnIndex : grouping) {
+            groupingColumns[groupingIndex++] = columnIndex;
+        }
+
+        parameterCount = query.getParameterCount();
+    }
+
+    private QueryPlan(QueryPlan plan, Object[] parameters) {
+        final int viewCount = plan.viewCount();
+        tables = plan.tables;
+        viewQueries = plan.viewQueries;
+        viewPlans = new QueryPlan[viewCount];
+        filters = new TableFilter[viewCount];
+        for (int viewIndex = 0; viewIndex < viewCount; viewIndex++) {
+            final QueryPlan viewPlan = plan.viewPlans[viewIndex];
+            viewPlans[viewIndex] = (viewPlan != null)? viewPlan.bind(parameters) : null;
+            filters[viewIndex] = plan.filters[viewIndex].bind(parameters);
+        }
+
+        joinLeftColumns = plan.joinLeftColumns;
+        joinRightColumns = plan.joinRightColumns;
+        selection = plan.selection;
+        range = plan.range;
+        orderedColumns = plan.orderedColumns;
+        descendantOrder = plan.descendantOrder;
+        grouped = plan.grouped;
+        groupingColumns = plan.groupingColumns;
+        functions = plan.functions;
+        readTables = plan.readTables;
+        parameterCount = 0;
+    }
+
+    static QueryPlan compile(DbQuery query) {
+        return new QueryPlan(query);
+    }
+
+    /**
+     * Return a plan where all parameters are replaced by the given values.
+     * Anything else is shared with this plan.
+     *
+     * @param parameters Raw values for all parameters, by their index.
+     */
+    QueryPlan bind(Object[] parameters) {
+        return (parameterCount != 0)? new QueryPlan(this, parameters) : this;
+    }
+
+    private static int aggregateFunction(DbQuery query, int selectionIndex) {
+        return query.isMaxAggregateFunctionSelection(selectionIndex)? RowSource.HashAggregation.MAX :
+                query.isConcatAggregateFunctionSelection(selectionIndex)? RowSource.HashAggregation.CONCAT :
+                query.isCountAggregateFunctionSelection(selectionIndex)? RowSource.HashAggregation.COUNT :
+                query.isSumAggregateFunctionSelection(selectionIndex)? RowSource.HashAggregation.SUM :
+                query.isMinAggregateFunctionSelection(selectionIndex)? RowSource.HashAggregation.MIN :
+                query.isAvgAggregateFunctionSelection(selectionIndex)? RowSource.HashAggregation.AVG :
+                RowSource.HashAggregation.NO_FUNCTION;
+    }
+
+    int viewCount() {
+        return tables.length;
+    }
+
+    boolean isOrdered() {
+        return orderedColumns.length > 0;
+    }
+
+    /**
+     * Whether the rows can be provided as they are joined, as there is no ordering or grouping.
+     */
+    boolean isStreamable() {
+        return orderedColumns.length == 0 && !grouped;
+    }
+
+    /**
+     * Check if the row a should be placed before the row b according to the ordering of the query.
+     * This will return false if both rows are considered equivalent.
+     */
+    boolean precedes(ImmutableList<Object> a, ImmutableList<Object> b) {
+        for (int i = 0; i < orderedColumns.length; i++) {
+            // Assumed that they are numeric fields. Other types are rejected when compiling
+            final int aValue = (Integer) a.valueAt(orderedColumns[i]);
+            final int bValue = (Integer) b.valueAt(orderedColumns[i]);
+            if (aValue != bValue) {
+                return descendantOrder[i]? bValue < aValue : aValue < bValue;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,449 @@
+package sword.database;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of ints, following the layout of Roaring bitmaps.
+ * <p>
+ * Values are split by their 16 most significant bits into containers, that
+ * are kept sorted by those bits taken as a signed number, so that containers
+ * for negative values come first and values are always kept in ascending
+ * order. Each container holds the 16 least significant bits of its values,
+ * either as a sorted array, while it has no more than
+ * {@value #ARRAY_CONTAINER_MAX_SIZE} values, or as a bitmap of 2<sup>16</sup>
+ * bits otherwise.
+ * This keeps sparse sets small while dense sets can be intersected and merged
+ * word by word.
+ */
+final class RoaringBitmap {
+
+    static final int ARRAY_CONTAINER_MAX_SIZE = 4096;
+    private static final int BITMAP_WORD_COUNT = 1024;
+    private static final int INITIAL_CAPACITY = 4;
+
+    private int[] _keys = new int[INITIAL_CAPACITY];
+    private Container[] _containers = new Container[INITIAL_CAPACITY];
+    private int _size;
+
+    private abstract static class Container {
+        abstract int cardinality();
+        abstract boolean contains(int low);
+
+        /**
+         * Add the given value, returning the container that must replace this one.
+         */
+        abstract Container add(int low);
+
+        /**
+         * Remove the given value, returning the container that must replace this one, or null if empty.
+         */
+        abstract Container remove(int low);
+
+        abstract Container and(Container other);
+        abstract Container or(Container other);
+        abstract Container copy();
+
+        /**
+         * Write all values in ascending order, starting at the given position.
+         *
+         * @return Position after the last written value.
+         */
+        abstract int writeTo(int[] result, int position, int high);
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int size;
+
+        ArrayContainer(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        private int find(int low) {
+            return Arrays.binarySearch(values, 0, size, (char) low);
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return find(low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            final int position = find(low);
+            if (position >= 0) {
+                return this;
+            }
+
+            if (size == ARRAY_CONTAINER_MAX_SIZE) {
+                return toBitmap().add(low);
+            }
+
+            final int insertion = -position - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_CONTAINER_MAX_SIZE));
+            }
+
+            System.arraycopy(values, insertion, values, insertion + 1, size - insertion);
+            values[insertion] = (char) low;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            final int position = find(low);
+            if (position >= 0) {
+                System.arraycopy(values, position + 1, values, position, size - position - 1);
+                size--;
+            }
+
+            return (size > 0)? this : null;
+        }
+
+        BitmapContainer toBitmap() {
+            final long[] words = new long[BITMAP_WORD_COUNT];
+            for (int index = 0; index < size; index++) {
+                final int low = values[index];
+                words[low >>> 6] |= 1L << low;
+            }
+
+            return new BitmapContainer(words, size);
+        }
+
+        @Override
+        Container and(Container other) {
+            final char[] result = new char[Math.min(size, other.cardinality())];
+            int resultSize = 0;
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer that = (ArrayContainer) other;
+                int thisIndex = 0;
+                int thatIndex = 0;
+                while (thisIndex < size && thatIndex < that.size) {
+                    final char thisValue = values[thisIndex];
+                    final char thatValue = that.values[thatIndex];
+                    if (thisValue < thatValue) {
+                        thisIndex++;
+                    }
+                    else if (thisValue > thatValue) {
+                        thatIndex++;
+                    }
+                    else {
+                        result[resultSize++] = thisValue;
+                        thisIndex++;
+                        thatIndex++;
+                    }
+                }
+            }
+            else {
+                for (int index = 0; index < size; index++) {
+                    if (other.contains(values[index])) {
+                        result[resultSize++] = values[index];
+                    }
+                }
+            }
+
+            return (resultSize > 0)? new ArrayContainer(result, resultSize) : null;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+
+            final ArrayContainer that = (ArrayContainer) other;
+            final char[] result = new char[size + that.size];
+            int resultSize = 0;
+            int thisIndex = 0;
+            int thatIndex = 0;
+            while (thisIndex < size || thatIndex < that.size) {
+                if (thatIndex == that.size || thisIndex < size && values[thisIndex] < that.values[thatIndex]) {
+                    result[resultSize++] = values[thisIndex++];
+                }
+                else if (thisIndex == size || values[thisIndex] > that.values[thatIndex]) {
+                    result[resultSize++] = that.values[thatIndex++];
+                }
+                else {
+                    result[resultSize++] = values[thisIndex++];
+                    thatIndex++;
+                }
+            }
+
+            final ArrayContainer container = new ArrayContainer(result, resultSize);
+            return (resultSize > ARRAY_CONTAINER_MAX_SIZE)? container.toBitmap() : container;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, size), size);
+        }
+
+        @Override
+        int writeTo(int[] result, int position, int high) {
+            for (int index = 0; index < size; index++) {
+                result[position++] = high | values[index];
+            }
+
+            return position;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+        int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(int low) {
+            final long word = words[low >>> 6];
+            final long newWord = word | (1L << low);
+            if (word != newWord) {
+                words[low >>> 6] = newWord;
+                cardinality++;
+            }
+
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            final long word = words[low >>> 6];
+            final long newWord = word & ~(1L << low);
+            if (word != newWord) {
+                words[low >>> 6] = newWord;
+                cardinality--;
+            }
+
+            return (cardinality > ARRAY_CONTAINER_MAX_SIZE)? this : toArray();
+        }
+
+        private ArrayContainer toArray() {
+            final char[] values = new char[cardinality];
+            int size = 0;
+            for (int wordIndex = 0; wordIndex < BITMAP_WORD_COUNT; wordIndex++) {
+                long word = words[wordIndex];
+                while (word != 0) {
+                    values[size++] = (char) ((wordIndex << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+
+            return (size > 0)? new ArrayContainer(values, size) : null;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+
+            final long[] otherWords = ((BitmapContainer) other).words;
+            final long[] result = new long[BITMAP_WORD_COUNT];
+            int cardinality = 0;
+            for (int wordIndex = 0; wordIndex < BITMAP_WORD_COUNT; wordIndex++) {
+                result[wordIndex] = words[wordIndex] & otherWords[wordIndex];
+                cardinality += Long.bitCount(result[wordIndex]);
+            }
+
+            final BitmapContainer container = new BitmapContainer(result, cardinality);
+            return (cardinality > ARRAY_CONTAINER_MAX_SIZE)? container : container.toArray();
+        }
+
+        @Override
+        Container or(Container other) {
+            final long[] result = words.clone();
+            int cardinality = this.cardinality;
+            if (other instanceof ArrayContainer) {
+                final ArrayContainer that = (ArrayContainer) other;
+                for (int index = 0; index < that.size; index++) {
+                    final int low = that.values[index];
+                    final long word = result[low >>> 6];
+                    final long newWord = word | (1L << low);
+                    if (word != newWord) {
+                        result[low >>> 6] = newWord;
+                        cardinality++;
+                    }
+                }
+            }
+            else {
+                final long[] otherWords = ((BitmapContainer) other).words;
+                cardinality = 0;
+                for (int wordIndex = 0; wordIndex < BITMAP_WORD_COUNT; wordIndex++) {
+                    result[wordIndex] |= otherWords[wordIndex];
+                    cardinality += Long.bitCount(result[wordIndex]);
+                }
+            }
+
+            return new BitmapContainer(result, cardinality);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int writeTo(int[] result, int position, int high) {
+            for (int wordIndex = 0; wordIndex < BITMAP_WORD_COUNT; wordIndex++) {
+                long word = words[wordIndex];
+                while (word != 0) {
+                    result[position++] = high | ((wordIndex << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+
+            return position;
+        }
+    }
+
+    private int findKey(int key) {
+        return Arrays.binarySearch(_keys, 0, _size, key);
+    }
+
+    private void append(int key, Container container) {
+        if (_size == _keys.length) {
+            _keys = Arrays.copyOf(_keys, _size * 2);
+            _containers = Arrays.copyOf(_containers, _size * 2);
+        }
+
+        _keys[_size] = key;
+        _containers[_size++] = container;
+    }
+
+    void add(int value) {
+        final int key = value >> 16;
+        final int position = findKey(key);
+        if (position >= 0) {
+            _containers[position] = _containers[position].add(value & 0xFFFF);
+        }
+        else {
+            final int insertion = -position - 1;
+            append(0, null);
+            System.arraycopy(_keys, insertion, _keys, insertion + 1, _size - insertion - 1);
+            System.arraycopy(_containers, insertion, _containers, insertion + 1, _size - insertion - 1);
+            _keys[insertion] = key;
+            _containers[insertion] = new ArrayContainer(new char[] {(char) value}, 1);
+        }
+    }
+
+    void remove(int value) {
+        final int position = findKey(value >> 16);
+        if (position >= 0) {
+            final Container container = _containers[position].remove(value & 0xFFFF);
+            if (container != null) {
+                _containers[position] = container;
+            }
+            else {
+                System.arraycopy(_keys, position + 1, _keys, position, _size - position - 1);
+                System.arraycopy(_containers, position + 1, _containers, position, _size - position - 1);
+                _containers[--_size] = null;
+            }
+        }
+    }
+
+    boolean contains(int value) {
+        final int position = findKey(value >> 16);
+        return position >= 0 && _containers[position].contains(value & 0xFFFF);
+    }
+
+    boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * Return the number of values in this set. This only sums the cardinality kept by each container.
+     */
+    int cardinality() {
+        int cardinality = 0;
+        for (int index = 0; index < _size; index++) {
+            cardinality += _containers[index].cardinality();
+        }
+
+        return cardinality;
+    }
+
+    /**
+     * Return a new set with the values present in both sets.
+     */
+    RoaringBitmap and(RoaringBitmap other) {
+        final RoaringBitmap result = new RoaringBitmap();
+        int thisIndex = 0;
+        int otherIndex = 0;
+        while (thisIndex < _size && otherIndex < other._size) {
+            final int thisKey = _keys[thisIndex];
+            final int otherKey = other._keys[otherIndex];
+            if (thisKey < otherKey) {
+                thisIndex++;
+            }
+            else if (thisKey > otherKey) {
+                otherIndex++;
+            }
+            else {
+                final Container container = _containers[thisIndex++].and(other._containers[otherIndex++]);
+                if (container != null) {
+                    result.append(thisKey, container);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Return a new set with the values present in any of both sets.
+     */
+    RoaringBitmap or(RoaringBitmap other) {
+        final RoaringBitmap result = new RoaringBitmap();
+        int thisIndex = 0;
+        int otherIndex = 0;
+        while (thisIndex < _size || otherIndex < other._size) {
+            final int thisKey = (thisIndex < _size)? _keys[thisIndex] : Integer.MAX_VALUE;
+            final int otherKey = (otherIndex < other._size)? other._keys[otherIndex] : Integer.MAX_VALUE;
+            if (thisKey < otherKey) {
+                result.append(thisKey, _containers[thisIndex++].copy());
+            }
+            else if (thisKey > otherKey) {
+                result.append(otherKey, other._containers[otherIndex++].copy());
+            }
+            else {
+                result.append(thisKey, _containers[thisIndex++].or(other._containers[otherIndex++]));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Return all values in this set in ascending order.
+     */
+    int[] toArray() {
+        final int[] result = new int[cardinality()];
+        int position = 0;
+        for (int index = 0; index < _size; index++) {
+            position = _containers[index].writeTo(result, position, _keys[index] << 16);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,662 @@
+package sword.database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import sword.collections.ImmutableIntList;
+import sword.collections.ImmutableList;
+import sword.collections.IntKeyMap;
+import sword.collections.List;
+import sword.collections.MutableList;
+
+/**
+ * Pull-based operator within the execution pipeline of {@link MemoryDatabase}.
+ * <p>
+ * Each operator only pulls rows from its input when a row is requested to it.
+ * This allows the first rows of a query to be available before the rest are
+ * computed, and avoids any further work when the consumer stops requesting rows.
+ * <p>
+ * Rows are provided as lists of raw values, where ints are represented as
+ * {@link Integer} and texts as {@link String}.
+ */
+abstract class RowSource {
+
+    /**
+     * Return the next row, or null if there are no more rows.
+     */
+    abstract ImmutableList<Object> next();
+
+    /**
+     * Pull all remaining rows from the given source.
+     */
+    static MutableList<ImmutableList<Object>> drain(RowSource source) {
+        if (source instanceof ListSource && ((ListSource) source)._index == 0) {
+            final List<ImmutableList<Object>> rows = ((ListSource) source)._rows;
+            if (rows instanceof MutableList) {
+                return (MutableList<ImmutableList<Object>>) rows;
+            }
+        }
+
+        final MutableList<ImmutableList<Object>> result = MutableList.empty();
+        for (ImmutableList<Object> row = source.next(); row != null; row = source.next()) {
+            result.append(row);
+        }
+
+        return result;
+    }
+
+    /**
+     * Provide the rows of an already computed list.
+     */
+    static final class ListSource extends RowSource {
+        private final List<ImmutableList<Object>> _rows;
+        private int _index;
+
+        ListSource(List<ImmutableList<Object>> rows) {
+            _rows = rows;
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            return (_index < _rows.size())? _rows.valueAt(_index++) : null;
+        }
+    }
+
+    /**
+     * Provide the rows of a table that match the given filter,
+     * including the identifier as first column.
+     * <p>
+     * Rows are checked in batches of up to {@link #BATCH_SIZE} rows. The positions
+     * of the rows in the batch are placed in a selection vector, that is narrowed
+     * by the matcher of the store, and only the rows remaining in it are built.
+     */
+    static final class TableScan extends RowSource {
+        static final int BATCH_SIZE = 1024;
+
+        private final TableStore _store;
+        private final TableFilter _filter;
+        private final TableStore.Matcher _matcher;
+        private final int[] _ids;
+        private final int _start;
+        private final int _end;
+        private int _index;
+
+        private int[] _selection;
+        private int _selectionSize;
+        private int _selectionIndex;
+
+        /**
+         * Create a new scan.
+         *
+         * @param store Content of the table.
+         * @param filter Filter to be checked for each row.
+         * @param ids Sorted identifiers of the only rows to be checked, or null to check the whole table.
+         */
+        TableScan(TableStore store, TableFilter filter, int[] ids) {
+            this(store, filter, ids, 0, (ids != null)? ids.length : Integer.MAX_VALUE);
+        }
+
+        /**
+         * Create a new scan that only checks the rows within the given positions.
+         *
+         * @param store Content of the table.
+         * @param filter Filter to be checked for each row.
+         * @param startPosition Position of the first row to be checked.
+         * @param endPosition Position after the last row to be checked.
+         */
+        TableScan(TableStore store, TableFilter filter, int startPosition, int endPosition) {
+            this(store, filter, null, startPosition, endPosition);
+        }
+
+        private TableScan(TableStore store, TableFilter filter, int[] ids, int start, int end) {
+            _store = store;
+            _filter = filter;
+            _matcher = store.matcher(filter);
+            _ids = ids;
+            _start = start;
+            _index = start;
+            _end = end;
+        }
+
+        /**
+         * Return the number of rows still to be checked.
+         */
+        int remaining() {
+            return ((_ids != null)? _end : Math.min(_store.size(), _end)) - _index;
+        }
+
+        /**
+         * Return the number of rows already checked by this scan.
+         */
+        int checkedRows() {
+            return _index - _start;
+        }
+
+        /**
+         * Register all rows still to be checked as checked, once they have been
+         * checked through the scans returned by {@link #subScan(int, int)}.
+         */
+        void skipRemaining() {
+            _index += Math.max(0, remaining());
+        }
+
+        /**
+         * Return a new scan checking only a part of the rows still to be checked by this one.
+         * Scans for disjoint parts can be consumed concurrently, as long as the table is not modified.
+         *
+         * @param start Index of the first row to be checked, relative to the rows still to be checked.
+         * @param end Index after the last row to be checked, relative to the rows still to be checked.
+         */
+        TableScan subScan(int start, int end) {
+            return new TableScan(_store, _filter, _ids, _index + start, _index + end);
+        }
+
+        /**
+         * Fill the selection vector with the matching rows of the next batch.
+         *
+         * @return Whether there was any row to be checked.
+         */
+        private boolean nextBatch() {
+            final int remaining = remaining();
+            if (remaining <= 0) {
+                return false;
+            }
+
+            if (_selection == null) {
+                _selection = new int[Math.min(remaining, BATCH_SIZE)];
+            }
+
+            final int batchEnd = _index + Math.min(remaining, _selection.length);
+            int count = 0;
+            if (_ids != null) {
+                for (int index = _index; index < batchEnd; index++) {
+                    final int position = _store.position(_ids[index]);
+                    if (position >= 0) {
+                        _selection[count++] = position;
+                    }
+                }
+            }
+            else {
+                for (int position = _index; position < batchEnd; position++) {
+                    _selection[count++] = position;
+                }
+            }
+
+            _index = batchEnd;
+            _selectionSize = _matcher.filter(_selection, count);
+            _selectionIndex = 0;
+            return true;
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            while (_selectionIndex == _selectionSize) {
+                if (!nextBatch()) {
+                    return null;
+                }
+            }
+
+            return _store.rowAt(_selection[_selectionIndex++]);
+        }
+    }
+
+    /**
+     * Provide the rows of a materialized view that match the given filter.
+     */
+    static final class ViewScan extends RowSource {
+        private final IntKeyMap<ImmutableList<Object>> _rows;
+        private final TableFilter _filter;
+        private int _index;
+
+        ViewScan(IntKeyMap<ImmutableList<Object>> rows, TableFilter filter) {
+            _rows = rows;
+            _filter = filter;
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            final int size = _rows.size();
+            while (_index < size) {
+                final ImmutableList<Object> row = _rows.valueAt(_index++);
+                if (_filter.matches(row)) {
+                    return row;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Join the rows of the given source with the rows of a table whose identifier matches the left column.
+     */
+    static final class IdJoin extends RowSource {
+        private final RowSource _left;
+        private final int _leftColumn;
+        private final TableStore _store;
+        private final TableStore.Matcher _matcher;
+
+        IdJoin(RowSource left, int leftColumn, TableStore store, TableFilter filter) {
+            _left = left;
+            _leftColumn = leftColumn;
+            _store = store;
+            _matcher = store.matcher(filter);
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            for (ImmutableList<Object> leftRow = _left.next(); leftRow != null; leftRow = _left.next()) {
+                final int position = _store.position((Integer) leftRow.valueAt(_leftColumn));
+                if (position >= 0 && _matcher.matches(position)) {
+                    return leftRow.appendAll(_store.rowAt(position));
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Join the rows of the given source with the rows of a table by probing
+     * the secondary index of its joined column.
+     */
+    static final class IndexJoin extends RowSource {
+        private static final int[] NO_IDS = new int[0];
+
+        private final RowSource _left;
+        private final int _leftColumn;
+        private final TableStore _store;
+        private final ValueIndex _index;
+        private final TableStore.Matcher _matcher;
+
+        private ImmutableList<Object> _leftRow;
+        private int[] _ids = NO_IDS;
+        private int _idIndex;
+
+        IndexJoin(RowSource left, int leftColumn, TableStore store, ValueIndex index, TableFilter filter) {
+            _left = left;
+            _leftColumn = leftColumn;
+            _store = store;
+            _index = index;
+            _matcher = store.matcher(filter);
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            while (true) {
+                while (_idIndex < _ids.length) {
+                    final int position = _store.position(_ids[_idIndex++]);
+                    if (_matcher.matches(position)) {
+                        return _leftRow.appendAll(_store.rowAt(position));
+                    }
+                }
+
+                _leftRow = _left.next();
+                if (_leftRow == null) {
+                    return null;
+                }
+
+                _ids = _index.ids(_leftRow.valueAt(_leftColumn));
+                _idIndex = 0;
+            }
+        }
+    }
+
+    /**
+     * Join the rows of the given source with the rows of a materialized view,
+     * by probing the hash index of the view for its joined column.
+     */
+    static final class ViewIndexJoin extends RowSource {
+        private final RowSource _left;
+        private final int _leftColumn;
+        private final MaterializedView _view;
+        private final int _viewColumn;
+        private final TableFilter _filter;
+
+        private ImmutableList<Object> _leftRow;
+        private IntKeyMap<ImmutableList<Object>> _matches;
+        private int _matchIndex;
+
+        ViewIndexJoin(RowSource left, int leftColumn, MaterializedView view, int viewColumn, TableFilter filter) {
+            _left = left;
+            _leftColumn = leftColumn;
+            _view = view;
+            _viewColumn = viewColumn;
+            _filter = filter;
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            while (true) {
+                if (_matches != null) {
+                    final int size = _matches.size();
+                    while (_matchIndex < size) {
+                        final ImmutableList<Object> row = _matches.valueAt(_matchIndex++);
+                        if (_filter.matches(row)) {
+                            return _leftRow.appendAll(row);
+                        }
+                    }
+                }
+
+                _leftRow = _left.next();
+                if (_leftRow == null) {
+                    return null;
+                }
+
+                _matches = _view.lookup(_viewColumn, _leftRow.valueAt(_leftColumn));
+                _matchIndex = 0;
+            }
+        }
+    }
+
+    /**
+     * Join the rows of the given source with the given right rows,
+     * by building a hash table on the right side and probing it with each left row.
+     */
+    static final class HashJoin extends RowSource {
+        private final RowSource _left;
+        private final int _leftColumn;
+        private final HashMap<Object, MutableList<ImmutableList<Object>>> _hashTable;
+
+        private ImmutableList<Object> _leftRow;
+        private MutableList<ImmutableList<Object>> _matches;
+        private int _matchIndex;
+
+        HashJoin(RowSource left, int leftColumn, List<ImmutableList<Object>> right, int rightColumn) {
+            this(left, leftColumn, hashTable(right, rightColumn));
+        }
+
+        /**
+         * Create a join probing a hash table that has already been built,
+         * that can be shared among joins as it is never modified.
+         */
+        HashJoin(RowSource left, int leftColumn, HashMap<Object, MutableList<ImmutableList<Object>>> hashTable) {
+            _left = left;
+            _leftColumn = leftColumn;
+            _hashTable = hashTable;
+        }
+
+        /**
+         * Build the hash table for the given rows, grouping them by the value in the given column.
+         */
+        static HashMap<Object, MutableList<ImmutableList<Object>>> hashTable(List<ImmutableList<Object>> rows, int column) {
+            final HashMap<Object, MutableList<ImmutableList<Object>>> hashTable = new HashMap<>();
+            for (ImmutableList<Object> row : rows) {
+                hashTable.computeIfAbsent(row.valueAt(column), key -> MutableList.empty()).append(row);
+            }
+
+            return hashTable;
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            while (_matches == null || _matchIndex >= _matches.size()) {
+                _leftRow = _left.next();
+                if (_leftRow == null) {
+                    return null;
+                }
+
+                _matches = _hashTable.get(_leftRow.valueAt(_leftColumn));
+                _matchIndex = 0;
+            }
+
+            return _leftRow.appendAll(_matches.valueAt(_matchIndex++));
+        }
+    }
+
+    /**
+     * Discard the joined rows that do not match the column value matches that
+     * could not be checked before joining a view.
+     */
+    static final class JoinedPairsFilter extends RowSource {
+        private final RowSource _source;
+        private final TableFilter _filter;
+
+        JoinedPairsFilter(RowSource source, TableFilter filter) {
+            _source = source;
+            _filter = filter;
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            for (ImmutableList<Object> row = _source.next(); row != null; row = _source.next()) {
+                if (_filter.matchesJoinedPairs(row)) {
+                    return row;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Group the rows of the given source and compute the aggregate functions
+     * within the selection of the query, in a single pass over the source.
+     * <p>
+     * Groups are provided in the order in which they first appear in the source,
+     * containing the selected columns. Each aggregate function keeps a typed
+     * accumulator per group, that is updated as rows are pulled, while any other
+     * selected column takes the value of the last row found for its group.
+     */
+    static final class HashAggregation extends RowSource {
+        static final int NO_FUNCTION = 0;
+        static final int MAX = 1;
+        static final int CONCAT = 2;
+        static final int COUNT = 3;
+        static final int SUM = 4;
+        static final int MIN = 5;
+        static final int AVG = 6;
+
+        private final int[] _groupingColumns;
+        private final int[] _selectedColumns;
+        private final int[] _functions;
+
+        private RowSource _source;
+        private HashMap<Object, Group> _groupMap;
+        private ArrayList<Group> _groups;
+        private int _index;
+
+        private final class Group {
+            final Object key;
+            final int[] ints = new int[_functions.length];
+            final long[] longs = new long[_functions.length];
+            final StringBuilder[] texts = new StringBuilder[_functions.length];
+            final Object[] values = new Object[_functions.length];
+            int rowCount;
+
+            Group(Object key, ImmutableList<Object> row) {
+                this.key = key;
+                for (int i = 0; i < _functions.length; i++) {
+                    final Object value = row.valueAt(_selectedColumns[i]);
+                    switch (_functions[i]) {
+                        case MAX:
+                        case MIN:
+                            ints[i] = (Integer) value;
+                            break;
+                        case CONCAT:
+                            texts[i] = new StringBuilder().append((String) value);
+                            break;
+                        case COUNT:
+                            break;
+                        case SUM:
+                        case AVG:
+                            longs[i] = (Integer) value;
+                            break;
+                        default:
+                            values[i] = value;
+                    }
+                }
+
+                rowCount = 1;
+            }
+
+            void accumulate(ImmutableList<Object> row) {
+                for (int i = 0; i < _functions.length; i++) {
+                    final Object value = row.valueAt(_selectedColumns[i]);
+                    switch (_functions[i]) {
+                        case MAX:
+                            ints[i] = Math.max(ints[i], (Integer) value);
+                            break;
+                        case MIN:
+                            ints[i] = Math.min(ints[i], (Integer) value);
+                            break;
+                        case CONCAT:
+                            texts[i].append((String) value);
+                            break;
+                        case COUNT:
+                            break;
+                        case SUM:
+                        case AVG:
+                            longs[i] += (Integer) value;
+                            break;
+                        default:
+                            values[i] = value;
+                    }
+                }
+
+                rowCount++;
+            }
+
+            /**
+             * Include the rows accumulated by the given group, that must come after all rows in this one.
+             */
+            void merge(Group later) {
+                for (int i = 0; i < _functions.length; i++) {
+                    switch (_functions[i]) {
+                        case MAX:
+                            ints[i] = Math.max(ints[i], later.ints[i]);
+                            break;
+                        case MIN:
+                            ints[i] = Math.min(ints[i], later.ints[i]);
+                            break;
+                        case CONCAT:
+                            texts[i].append(later.texts[i]);
+                            break;
+                        case COUNT:
+                            break;
+                        case SUM:
+                        case AVG:
+                            longs[i] += later.longs[i];
+                            break;
+                        default:
+                            values[i] = later.values[i];
+                    }
+                }
+
+                rowCount += later.rowCount;
+            }
+
+            ImmutableList<Object> toRow() {
+                final int selectionCount = _functions.length;
+                final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> selectionCount);
+                for (int i = 0; i < selectionCount; i++) {
+                    switch (_functions[i]) {
+                        case MAX:
+                        case MIN:
+                            builder.add(ints[i]);
+                            break;
+                        case CONCAT:
+                            builder.add(texts[i].toString());
+                            break;
+                        case COUNT:
+                            builder.add(rowCount);
+                            break;
+                        case SUM:
+                            builder.add(Math.toIntExact(longs[i]));
+                            break;
+                        case AVG:
+                            builder.add((int) (longs[i] / rowCount));
+                            break;
+                        default:
+                            builder.add(values[i]);
+                    }
+                }
+
+                return builder.build();
+            }
+        }
+
+        HashAggregation(RowSource source, QueryPlan plan) {
+            _source = source;
+            _groupingColumns = plan.groupingColumns;
+            _functions = plan.functions;
+
+            final ImmutableIntList selection = plan.selection;
+            _selectedColumns = new int[selection.size()];
+            for (int i = 0; i < _selectedColumns.length; i++) {
+                _selectedColumns[i] = selection.valueAt(i);
+            }
+        }
+
+        /**
+         * Return the key identifying the group of the given row.
+         * The raw value is used directly if the query is grouped by a single column.
+         *
+         * @param groupingColumns Columns within the row that the query is grouped by.
+         * @param row Row before selecting any column.
+         */
+        static Object groupKey(int[] groupingColumns, ImmutableList<Object> row) {
+            if (groupingColumns.length == 1) {
+                return row.valueAt(groupingColumns[0]);
+            }
+
+            final ImmutableList.Builder<Object> builder = new ImmutableList.Builder<>((currentSize, desiredSize) -> groupingColumns.length);
+            for (int columnIndex : groupingColumns) {
+                builder.add(row.valueAt(columnIndex));
+            }
+
+            return builder.build();
+        }
+
+        /**
+         * Pull all rows from the source and accumulate them in their groups.
+         * This is called when the first group is requested, if not called before.
+         */
+        void aggregate() {
+            _groupMap = new HashMap<>();
+            _groups = new ArrayList<>();
+            for (ImmutableList<Object> row = _source.next(); row != null; row = _source.next()) {
+                final Object key = groupKey(_groupingColumns, row);
+                final Group group = _groupMap.get(key);
+                if (group == null) {
+                    final Group newGroup = new Group(key, row);
+                    _groupMap.put(key, newGroup);
+                    _groups.add(newGroup);
+                }
+                else {
+                    group.accumulate(row);
+                }
+            }
+
+            _source = null;
+        }
+
+        /**
+         * Include the groups of the given aggregation, whose source provided
+         * rows that come after all rows provided by the source of this one.
+         * Both aggregations must have been aggregated, and no group must have been requested yet.
+         * The result is the same as if all rows had been provided by a single source.
+         */
+        void merge(HashAggregation later) {
+            for (Group laterGroup : later._groups) {
+                final Group group = _groupMap.get(laterGroup.key);
+                if (group == null) {
+                    _groupMap.put(laterGroup.key, laterGroup);
+                    _groups.add(laterGroup);
+                }
+                else {
+                    group.merge(laterGroup);
+                }
+            }
+        }
+
+        @Override
+        ImmutableList<Object> next() {
+            if (_groups == null) {
+                aggregate();
+            }
+
+            return (_index < _groups.size())? _groups.get(_index++).toRow() : null;
+        }
+    }
+}
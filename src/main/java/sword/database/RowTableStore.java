@@ -0,0 +1,58 @@
+package sword.database;
+
+import sword.collections.ImmutableList;
+import sword.collections.List;
+import sword.collections.MutableIntKeyMap;
+
+/**
+ * Table storage where each row is kept as an immutable list of its values, keyed by its identifier.
+ */
+final class RowTableStore extends TableStore {
+
+    private final MutableIntKeyMap<ImmutableList<Object>> _content = MutableIntKeyMap.empty();
+
+    @Override
+    int size() {
+        return _content.size();
+    }
+
+    @Override
+    int idAt(int position) {
+        return _content.keyAt(position);
+    }
+
+    @Override
+    int position(int id) {
+        return _content.indexOfKey(id);
+    }
+
+    @Override
+    Object valueAt(int position, int column) {
+        return (column == 0)? _content.keyAt(position) : _content.valueAt(position).valueAt(column - 1);
+    }
+
+    @Override
+    ImmutableList<Object> registerAt(int position) {
+        return _content.valueAt(position);
+    }
+
+    @Override
+    void put(int id, List<Object> register) {
+        _content.put(id, register.toImmutable());
+    }
+
+    @Override
+    void removeAt(int position) {
+        _content.removeAt(position);
+    }
+
+    @Override
+    Matcher matcher(TableFilter filter) {
+        return new Matcher() {
+            @Override
+            boolean matches(int position) {
+                return filter.matches(_content.keyAt(position), _content.valueAt(position));
+            }
+        };
+    }
+}
@@ -0,0 +1,76 @@
+package sword.database;
+
+import java.util.Arrays;
+
+/**
+ * Secondary index for a single text column within a table in {@link MemoryDatabase},
+ * where all texts are kept sorted in order to find the rows starting with a given prefix.
+ * <p>
+ * Entries are kept in a {@link BPlusTree}, sorted by text and then by identifier,
+ * so that registering or unregistering a text costs O(log n), and all texts
+ * starting with the same prefix are found by walking the leaves from the prefix.
+ * <p>
+ * If reversed, texts are registered with their characters in reverse order,
+ * so that the same range lookup finds the rows ending with a given suffix.
+ */
+final class SortedTextIndex {
+
+    private final boolean _reversed;
+    private final BPlusTree<String> _entries = new BPlusTree<>();
+
+    SortedTextIndex(boolean reversed) {
+        _reversed = reversed;
+    }
+
+    // Characters are reversed one by one, without considering surrogate pairs,
+    // so that a reversed suffix is always a prefix of the reversed text
+    private static String reverse(String text) {
+        final int length = text.length();
+        final char[] chars = new char[length];
+        for (int index = 0; index < length; index++) {
+            chars[index] = text.charAt(length - index - 1);
+        }
+
+        return new String(chars);
+    }
+
+    private String key(String text) {
+        return _reversed? reverse(text) : text;
+    }
+
+    /**
+     * Register that the row with the given identifier contains the given text.
+     */
+    void add(String text, int id) {
+        if (text != null) {
+            _entries.add(key(text), id);
+        }
+    }
+
+    /**
+     * Unregister the given text for the row with the given identifier.
+     */
+    void remove(String text, int id) {
+        if (text != null) {
+            _entries.remove(key(text), id);
+        }
+    }
+
+    /**
+     * Return the number of pairs of text and row identifier registered in this index.
+     */
+    int entryCount() {
+        return _entries.size();
+    }
+
+    /**
+     * Return the sorted identifiers of all rows whose text starts with the given prefix,
+     * or ends with it if this index is reversed.
+     */
+    int[] ids(String affix) {
+        final String key = key(affix);
+        final int[] result = _entries.ids(key, text -> text.startsWith(key));
+        Arrays.sort(result);
+        return result;
+    }
+}
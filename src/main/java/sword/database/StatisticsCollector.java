@@ -0,0 +1,271 @@
+package sword.database;
+
+import java.util.Arrays;
+
+import sword.collections.List;
+
+/**
+ * Statistics for all columns within a single table in {@link MemoryDatabase},
+ * kept up to date as rows are added and removed, like its indexes.
+ * <p>
+ * Each column has a {@link HyperLogLog} sketch estimating its distinct values,
+ * and its minimum and maximum values. Sketches only grow, so all of them are
+ * built again from the content of the table when the values removed since they
+ * were built exceed a tenth of the rows. Minimum and maximum
+ * values are only computed again if any of them is removed.
+ * <p>
+ * Equi-depth histograms for int columns are built when first requested, by sorting
+ * all values in the column, and they are reused until the rows modified since then
+ * exceed the same fraction of the rows.
+ * <p>
+ * The identifier column is not tracked here, as its statistics are
+ * taken directly from the content of the table, where identifiers are sorted and unique.
+ */
+final class StatisticsCollector {
+
+    /**
+     * Fraction of rows that can be modified before sketches or histograms are built again.
+     */
+    static final double MAX_STALE_FRACTION = 0.1;
+
+    /**
+     * Maximum number of buckets within a histogram.
+     */
+    static final int MAX_BUCKET_COUNT = 32;
+
+    private final HyperLogLog[] _sketches;
+    private final Object[] _mins;
+    private final Object[] _maxs;
+    private final boolean[] _validExtremes;
+    private final int[][] _histograms;
+    private final int[] _histogramChanges;
+    private int _removalsSinceSketches;
+
+    StatisticsCollector(int columnCount) {
+        _sketches = new HyperLogLog[columnCount];
+        for (int columnIndex = 1; columnIndex < columnCount; columnIndex++) {
+            _sketches[columnIndex] = new HyperLogLog();
+        }
+
+        _mins = new Object[columnCount];
+        _maxs = new Object[columnCount];
+        _validExtremes = new boolean[columnCount];
+        Arrays.fill(_validExtremes, true);
+        _histograms = new int[columnCount][];
+        _histogramChanges = new int[columnCount];
+    }
+
+    private static int compare(Object a, Object b) {
+        return (a instanceof Integer)? Integer.compare((Integer) a, (Integer) b) : ((String) a).compareTo((String) b);
+    }
+
+    private void addExtremes(int columnIndex, Object value) {
+        if (_mins[columnIndex] == null || compare(value, _mins[columnIndex]) < 0) {
+            _mins[columnIndex] = value;
+        }
+
+        if (_maxs[columnIndex] == null || compare(value, _maxs[columnIndex]) > 0) {
+            _maxs[columnIndex] = value;
+        }
+    }
+
+    /**
+     * Add to the statistics all the values of a new row.
+     *
+     * @param register Values for the row, excluding the identifier.
+     */
+    void add(List<Object> register) {
+        for (int columnIndex = 1; columnIndex < _sketches.length; columnIndex++) {
+            final Object value = register.valueAt(columnIndex - 1);
+            _sketches[columnIndex].add(value);
+            if (_validExtremes[columnIndex]) {
+                addExtremes(columnIndex, value);
+            }
+
+            _histogramChanges[columnIndex]++;
+        }
+    }
+
+    /**
+     * Remove from the statistics all the values of a removed row.
+     *
+     * @param register Values for the row, excluding the identifier.
+     */
+    void remove(List<Object> register) {
+        for (int columnIndex = 1; columnIndex < _sketches.length; columnIndex++) {
+            final Object value = register.valueAt(columnIndex - 1);
+            if (value.equals(_mins[columnIndex]) || value.equals(_maxs[columnIndex])) {
+                _validExtremes[columnIndex] = false;
+            }
+
+            _histogramChanges[columnIndex]++;
+        }
+
+        _removalsSinceSketches++;
+    }
+
+    private static boolean isStale(int changes, int rowCount) {
+        return changes > rowCount * MAX_STALE_FRACTION;
+    }
+
+    private void refreshSketches(TableStore content) {
+        final int size = content.size();
+        if (isStale(_removalsSinceSketches, size)) {
+            for (int columnIndex = 1; columnIndex < _sketches.length; columnIndex++) {
+                _sketches[columnIndex].clear();
+            }
+
+            for (int position = 0; position < size; position++) {
+                final List<Object> register = content.registerAt(position);
+                for (int columnIndex = 1; columnIndex < _sketches.length; columnIndex++) {
+                    _sketches[columnIndex].add(register.valueAt(columnIndex - 1));
+                }
+            }
+
+            _removalsSinceSketches = 0;
+        }
+    }
+
+    private void refreshExtremes(TableStore content, int columnIndex) {
+        if (!_validExtremes[columnIndex]) {
+            _mins[columnIndex] = null;
+            _maxs[columnIndex] = null;
+            final int size = content.size();
+            for (int position = 0; position < size; position++) {
+                addExtremes(columnIndex, content.valueAt(position, columnIndex));
+            }
+
+            _validExtremes[columnIndex] = true;
+        }
+    }
+
+    /**
+     * Return the estimated number of distinct values in the given column.
+     * This is never greater than the number of rows.
+     *
+     * @param content Current content of the table.
+     * @param columnIndex Column index within the table, where 0 is the identifier.
+     */
+    int distinctCount(TableStore content, int columnIndex) {
+        final int size = content.size();
+        if (columnIndex == 0) {
+            return size;
+        }
+
+        refreshSketches(content);
+        return (int) Math.min(size, _sketches[columnIndex].estimate());
+    }
+
+    /**
+     * Return the minimum raw value in the given column, or null if the table is empty.
+     *
+     * @param content Current content of the table.
+     * @param columnIndex Column index within the table, where 0 is the identifier.
+     */
+    Object min(TableStore content, int columnIndex) {
+        if (columnIndex == 0) {
+            return (content.size() > 0)? content.idAt(0) : null;
+        }
+
+        refreshExtremes(content, columnIndex);
+        return _mins[columnIndex];
+    }
+
+    /**
+     * Return the maximum raw value in the given column, or null if the table is empty.
+     *
+     * @param content Current content of the table.
+     * @param columnIndex Column index within the table, where 0 is the identifier.
+     */
+    Object max(TableStore content, int columnIndex) {
+        if (columnIndex == 0) {
+            final int size = content.size();
+            return (size > 0)? content.idAt(size - 1) : null;
+        }
+
+        refreshExtremes(content, columnIndex);
+        return _maxs[columnIndex];
+    }
+
+    /**
+     * Return the bounds of an equi-depth histogram for the given int column.
+     * <p>
+     * Values are split into buckets holding the same number of rows, where
+     * the bucket at index i contains values from the bound at index i to the
+     * bound at index i + 1, both included. A bucket may be limited by the same value
+     * on both sides if that value is frequent. The returned array is empty for empty tables.
+     * It must not be modified.
+     *
+     * @param content Current content of the table.
+     * @param columnIndex Column index within the table, where 0 is the identifier.
+     */
+    int[] histogram(TableStore content, int columnIndex) {
+        final int size = content.size();
+        final int bucketCount = Math.min(MAX_BUCKET_COUNT, size);
+        final int[] bounds = new int[(size > 0)? bucketCount + 1 : 0];
+        if (columnIndex == 0) {
+            // Identifiers are already sorted within the content
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                bounds[bucket] = content.idAt((int) ((long) bucket * size / bucketCount));
+            }
+
+            if (size > 0) {
+                bounds[bucketCount] = content.idAt(size - 1);
+            }
+
+            return bounds;
+        }
+
+        if (_histograms[columnIndex] != null && !isStale(_histogramChanges[columnIndex], size)) {
+            return _histograms[columnIndex];
+        }
+
+        final int[] values = new int[size];
+        for (int position = 0; position < size; position++) {
+            values[position] = (Integer) content.valueAt(position, columnIndex);
+        }
+        Arrays.sort(values);
+
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            bounds[bucket] = values[(int) ((long) bucket * size / bucketCount)];
+        }
+
+        if (size > 0) {
+            bounds[bucketCount] = values[size - 1];
+        }
+
+        _histograms[columnIndex] = bounds;
+        _histogramChanges[columnIndex] = 0;
+        return bounds;
+    }
+
+    /**
+     * Return the estimated number of rows whose value is within the given limits,
+     * both included, according to the given histogram, assuming that values are
+     * evenly distributed within each bucket.
+     *
+     * @param bounds Histogram as returned by {@link #histogram(TableStore, int)}.
+     * @param rowCount Number of rows in the table.
+     * @param min Minimum value accepted.
+     * @param max Maximum value accepted.
+     */
+    static double estimateRows(int[] bounds, int rowCount, long min, long max) {
+        final int bucketCount = bounds.length - 1;
+        if (bucketCount <= 0 || min > max) {
+            return 0;
+        }
+
+        final double rowsPerBucket = (double) rowCount / bucketCount;
+        double rows = 0;
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            final long lower = bounds[bucket];
+            final long upper = bounds[bucket + 1];
+            final long overlap = Math.min(max, upper) - Math.max(min, lower) + 1;
+            if (overlap > 0) {
+                rows += rowsPerBucket * overlap / (upper - lower + 1);
+            }
+        }
+
+        return Math.min(rows, rowCount);
+    }
+}
@@ -0,0 +1,327 @@
+package sword.database;
+
+import java.util.HashSet;
+
+import sword.collections.ImmutableIntKeyMap;
+import sword.collections.ImmutableList;
+import sword.collections.IntKeyMap;
+import sword.collections.List;
+
+import static sword.collections.SortUtils.equal;
+
+/**
+ * Restrictions and column value matches within a query that can be checked
+ * for the rows of a single view, before joining it with the rest of views.
+ * <p>
+ * Column indexes given in construction time refer to the whole joined row,
+ * but they are stored relative to the first column of the view.
+ * Restricted values are stored as raw values, except for parameters, that
+ * are kept until the filter is bound. The upper limit of
+ * {@link DbQuery.RestrictionIntTypes#BETWEEN} restrictions is stored apart,
+ * at the same position of the restriction. All values of {@link DbQuery.RestrictionTypes#IN}
+ * restrictions are stored as a single {@link IntProbeSet} for int columns, or as a
+ * {@link HashSet} of strings for text columns.
+ * Column value matches involving a previous view can not be checked before
+ * joining, but they are kept here to be applied just after the join.
+ */
+final class TableFilter {
+    final int offset;
+    final int[] restrictedColumns;
+    final Object[] restrictedValues;
+    final Object[] restrictedMaxValues;
+    final int[] restrictionTypes;
+    final int[] matchPairs;
+    final boolean[] mustMatch;
+    final ImmutableList<DbQuery.JoinColumnPair> joinedPairs;
+
+    TableFilter(int offset, ImmutableIntKeyMap<DbQuery.Restriction> restrictions,
+            List<DbQuery.JoinColumnPair> localPairs, ImmutableList<DbQuery.JoinColumnPair> joinedPairs) {
+        final int restrictionCount = restrictions.size();
+        restrictedColumns = new int[restrictionCount];
+        restrictedValues = new Object[restrictionCount];
+        restrictedMaxValues = new Object[restrictionCount];
+        restrictionTypes = new int[restrictionCount];
+        for (int i = 0; i < restrictionCount; i++) {
+            final DbQuery.Restriction restriction = restrictions.valueAt(i);
+            restrictedColumns[i] = restrictions.keyAt(i) - offset;
+            restrictedValues[i] = (restriction.type == DbQuery.RestrictionTypes.IN)? inValues(restriction.values) :
+                    rawValueOrParameter(restriction.value);
+            restrictedMaxValues[i] = (restriction.maxValue != null)? rawValueOrParameter(restriction.maxValue) : null;
+            restrictionTypes[i] = restriction.type;
+        }
+
+        final int pairCount = localPairs.size();
+        matchPairs = new int[pairCount * 2];
+        mustMatch = new boolean[pairCount];
+        for (int i = 0; i < pairCount; i++) {
+            final DbQuery.JoinColumnPair pair = localPairs.valueAt(i);
+            matchPairs[2 * i] = pair.left() - offset;
+            matchPairs[2 * i + 1] = pair.right() - offset;
+            mustMatch[i] = pair.mustMatch();
+        }
+
+        this.offset = offset;
+        this.joinedPairs = joinedPairs;
+    }
+
+    private TableFilter(TableFilter filter, Object[] restrictedValues, Object[] restrictedMaxValues) {
+        offset = filter.offset;
+        restrictedColumns = filter.restrictedColumns;
+        this.restrictedValues = restrictedValues;
+        this.restrictedMaxValues = restrictedMaxValues;
+        restrictionTypes = filter.restrictionTypes;
+        matchPairs = filter.matchPairs;
+        mustMatch = filter.mustMatch;
+        joinedPairs = filter.joinedPairs;
+    }
+
+    /**
+     * Return a filter where each restricted {@link DbQuery.Parameter} is replaced by its value.
+     *
+     * @param parameters Raw values for all parameters, by their index.
+     * @return A new filter, or this same instance if there are no parameters in it.
+     */
+    TableFilter bind(Object[] parameters) {
+        final Object[] values = bind(restrictedValues, parameters);
+        final Object[] maxValues = bind(restrictedMaxValues, parameters);
+        return (values != restrictedValues || maxValues != restrictedMaxValues)? new TableFilter(this, values, maxValues) : this;
+    }
+
+    private static Object[] bind(Object[] values, Object[] parameters) {
+        Object[] result = values;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof DbQuery.Parameter) {
+                if (result == values) {
+                    result = values.clone();
+                }
+
+                result[i] = parameters[((DbQuery.Parameter) values[i]).index];
+            }
+        }
+
+        return result;
+    }
+
+    private static Object inValues(ImmutableList<DbValue> values) {
+        final int size = values.size();
+        if (values.valueAt(0).isText()) {
+            final HashSet<String> texts = new HashSet<>();
+            for (DbValue value : values) {
+                texts.add(value.toText());
+            }
+
+            return texts;
+        }
+
+        final int[] ints = new int[size];
+        for (int i = 0; i < size; i++) {
+            ints[i] = values.valueAt(i).toInt();
+        }
+
+        return new IntProbeSet(ints);
+    }
+
+    private static Object rawValueOrParameter(DbValue value) {
+        return (value instanceof DbQuery.Parameter)? value : MemoryDatabase.rawValue(value);
+    }
+
+    /**
+     * Split all restrictions and column value matches within the query
+     * according to the view whose rows can be checked against them.
+     *
+     * @param query Query to be split.
+     * @return An array with a filter for each view in the query, in the same order.
+     */
+    static TableFilter[] split(DbQuery query) {
+        final int tableCount = query.getTableCount();
+        final ImmutableIntKeyMap<DbQuery.Restriction> restrictions = query.restrictions();
+        final TableFilter[] filters = new TableFilter[tableCount];
+        int offset = 0;
+        for (int tableIndex = 0; tableIndex < tableCount; tableIndex++) {
+            final int viewColumnCount = query.getView(tableIndex).columns().size();
+            final int min = offset;
+            final int max = offset + viewColumnCount - 1;
+            final ImmutableIntKeyMap.Builder<DbQuery.Restriction> tableRestrictions = new ImmutableIntKeyMap.Builder<>();
+            for (IntKeyMap.Entry<DbQuery.Restriction> entry : restrictions.entries()) {
+                if (entry.key() >= min && entry.key() <= max) {
+                    tableRestrictions.put(entry.key(), entry.value());
+                }
+            }
+
+            final ImmutableList.Builder<DbQuery.JoinColumnPair> localPairs = new ImmutableList.Builder<>();
+            final ImmutableList.Builder<DbQuery.JoinColumnPair> joinedPairs = new ImmutableList.Builder<>();
+            for (DbQuery.JoinColumnPair pair : query.columnValueMatchPairs()) {
+                if (pair.right() >= min && pair.right() <= max) {
+                    if (pair.left() >= min) {
+                        localPairs.add(pair);
+                    }
+                    else {
+                        joinedPairs.add(pair);
+                    }
+                }
+            }
+
+            filters[tableIndex] = new TableFilter(offset, tableRestrictions.build(), localPairs.build(), joinedPairs.build());
+            offset += viewColumnCount;
+        }
+
+        return filters;
+    }
+
+    boolean hasLocalChecks() {
+        return restrictedColumns.length > 0 || mustMatch.length > 0;
+    }
+
+    /**
+     * Return the restricted value for the given column relative to the view, or null if not restricted to an exact value.
+     */
+    Object exactValue(int column) {
+        for (int i = 0; i < restrictedColumns.length; i++) {
+            if (restrictedColumns[i] == column && restrictionTypes[i] == DbQuery.RestrictionTypes.EXACT) {
+                return restrictedValues[i];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the minimum value allowed by the given int restriction, included.
+     * This is returned as long, so that it can be out of the int range when no value is allowed.
+     *
+     * @param restriction Index of the restriction within this filter.
+     */
+    long lowerBound(int restriction) {
+        final int value = (Integer) restrictedValues[restriction];
+        switch (restrictionTypes[restriction]) {
+            case DbQuery.RestrictionIntTypes.LT:
+            case DbQuery.RestrictionIntTypes.LE:
+                return Integer.MIN_VALUE;
+            case DbQuery.RestrictionIntTypes.GT:
+                return value + 1L;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Return the maximum value allowed by the given int restriction, included.
+     * This is returned as long, so that it can be out of the int range when no value is allowed.
+     *
+     * @param restriction Index of the restriction within this filter.
+     */
+    long upperBound(int restriction) {
+        final int value = (Integer) restrictedValues[restriction];
+        switch (restrictionTypes[restriction]) {
+            case DbQuery.RestrictionIntTypes.LT:
+                return value - 1L;
+            case DbQuery.RestrictionIntTypes.GT:
+            case DbQuery.RestrictionIntTypes.GE:
+                return Integer.MAX_VALUE;
+            case DbQuery.RestrictionIntTypes.BETWEEN:
+                return (Integer) restrictedMaxValues[restriction];
+            default:
+                return value;
+        }
+    }
+
+    static boolean isRange(int restrictionType) {
+        return restrictionType >= DbQuery.RestrictionIntTypes.LT && restrictionType <= DbQuery.RestrictionIntTypes.BETWEEN;
+    }
+
+    private static Object columnValue(int id, List<Object> register, int column) {
+        return (column == 0)? id : register.valueAt(column - 1);
+    }
+
+    /**
+     * Check the given table row.
+     *
+     * @param id Identifier of the row.
+     * @param register Values for the row, excluding the identifier.
+     */
+    boolean matches(int id, List<Object> register) {
+        for (int i = 0; i < restrictedColumns.length; i++) {
+            if (!matchesRestriction(restrictionTypes[i], restrictedValues[i], restrictedMaxValues[i], columnValue(id, register, restrictedColumns[i]))) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < mustMatch.length; i++) {
+            final Object a = columnValue(id, register, matchPairs[2 * i]);
+            final Object b = columnValue(id, register, matchPairs[2 * i + 1]);
+            if (equal(a, b) != mustMatch[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check the given row, containing all columns of the view.
+     */
+    boolean matches(List<Object> row) {
+        for (int i = 0; i < restrictedColumns.length; i++) {
+            if (!matchesRestriction(restrictionTypes[i], restrictedValues[i], restrictedMaxValues[i], row.valueAt(restrictedColumns[i]))) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < mustMatch.length; i++) {
+            if (equal(row.valueAt(matchPairs[2 * i]), row.valueAt(matchPairs[2 * i + 1])) != mustMatch[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if the given joined row matches all column value matches that could
+     * not be checked before joining this view.
+     */
+    boolean matchesJoinedPairs(List<Object> row) {
+        for (DbQuery.JoinColumnPair pair : joinedPairs) {
+            if (equal(row.valueAt(pair.left()), row.valueAt(pair.right())) != pair.mustMatch()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Check if the given value matches a restriction.
+     *
+     * @param type Restriction type.
+     * @param restrictedValue Raw value within the restriction.
+     * @param restrictedMaxValue Raw upper limit for {@link DbQuery.RestrictionIntTypes#BETWEEN} restrictions. Ignored for the rest.
+     * @param value Raw value to be checked.
+     */
+    static boolean matchesRestriction(int type, Object restrictedValue, Object restrictedMaxValue, Object value) {
+        switch (type) {
+            case DbQuery.RestrictionTypes.EXACT:
+                return restrictedValue.equals(value);
+            case DbQuery.RestrictionStringTypes.ENDS_WITH:
+                return value.toString().endsWith((String) restrictedValue);
+            case DbQuery.RestrictionStringTypes.STARTS_WITH:
+                return value.toString().startsWith((String) restrictedValue);
+            case DbQuery.RestrictionStringTypes.CONTAINS:
+                return value.toString().contains((String) restrictedValue);
+            case DbQuery.RestrictionIntTypes.LT:
+                return (Integer) value < (Integer) restrictedValue;
+            case DbQuery.RestrictionIntTypes.LE:
+                return (Integer) value <= (Integer) restrictedValue;
+            case DbQuery.RestrictionIntTypes.GT:
+                return (Integer) value > (Integer) restrictedValue;
+            case DbQuery.RestrictionIntTypes.GE:
+                return (Integer) value >= (Integer) restrictedValue;
+            case DbQuery.RestrictionTypes.IN:
+                return (restrictedValue instanceof IntProbeSet)? ((IntProbeSet) restrictedValue).contains((Integer) value) :
+                        ((HashSet<?>) restrictedValue).contains(value);
+            default:
+                final int intValue = (Integer) value;
+                return intValue >= (Integer) restrictedValue && intValue <= (Integer) restrictedMaxValue;
+        }
+    }
+}
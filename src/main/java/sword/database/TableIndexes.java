@@ -0,0 +1,129 @@
+package sword.database;
+
+import sword.collections.List;
+
+/**
+ * All secondary indexes for a single table within {@link MemoryDatabase}.
+ * <p>
+ * Indexes are kept by column index, where columns without index are null.
+ * The identifier column is never indexed. Statistics for all columns are
+ * kept here as well, as they are updated along with the indexes.
+ */
+final class TableIndexes {
+    final ValueIndex[] values;
+    final TrigramIndex[] trigrams;
+    final SortedTextIndex[] prefixes;
+    final SortedTextIndex[] suffixes;
+    final OrderedIntIndex[] ordered;
+    final BitmapIndex[] bitmaps;
+    final StatisticsCollector statistics;
+
+    TableIndexes(int columnCount) {
+        values = new ValueIndex[columnCount];
+        trigrams = new TrigramIndex[columnCount];
+        prefixes = new SortedTextIndex[columnCount];
+        suffixes = new SortedTextIndex[columnCount];
+        ordered = new OrderedIntIndex[columnCount];
+        bitmaps = new BitmapIndex[columnCount];
+        statistics = new StatisticsCollector(columnCount);
+    }
+
+    /**
+     * Return the number of entries registered in the index of the given type for the given column,
+     * or -1 if there is no such index.
+     *
+     * @param columnIndex Column index within the table.
+     * @param type One of the values within {@link DbIndex.Types}.
+     */
+    int entryCount(int columnIndex, int type) {
+        switch (type) {
+            case DbIndex.Types.VALUE:
+                return (values[columnIndex] != null)? values[columnIndex].entryCount() : -1;
+
+            case DbIndex.Types.TRIGRAM:
+                return (trigrams[columnIndex] != null)? trigrams[columnIndex].entryCount() : -1;
+
+            case DbIndex.Types.PREFIX:
+                return (prefixes[columnIndex] != null)? prefixes[columnIndex].entryCount() : -1;
+
+            case DbIndex.Types.SUFFIX:
+                return (suffixes[columnIndex] != null)? suffixes[columnIndex].entryCount() : -1;
+
+            case DbIndex.Types.ORDERED:
+                return (ordered[columnIndex] != null)? ordered[columnIndex].entryCount() : -1;
+
+            default:
+                return (bitmaps[columnIndex] != null)? bitmaps[columnIndex].entryCount() : -1;
+        }
+    }
+
+    /**
+     * Add to the indexes all the values of the given row.
+     *
+     * @param id Identifier for the row.
+     * @param register Values for the row, excluding the identifier.
+     */
+    void add(int id, List<Object> register) {
+        statistics.add(register);
+        for (int columnIndex = 1; columnIndex < values.length; columnIndex++) {
+            if (values[columnIndex] != null) {
+                values[columnIndex].add(register.valueAt(columnIndex - 1), id);
+            }
+
+            if (trigrams[columnIndex] != null) {
+                trigrams[columnIndex].add((String) register.valueAt(columnIndex - 1), id);
+            }
+
+            if (prefixes[columnIndex] != null) {
+                prefixes[columnIndex].add((String) register.valueAt(columnIndex - 1), id);
+            }
+
+            if (suffixes[columnIndex] != null) {
+                suffixes[columnIndex].add((String) register.valueAt(columnIndex - 1), id);
+            }
+
+            if (ordered[columnIndex] != null) {
+                ordered[columnIndex].add((Integer) register.valueAt(columnIndex - 1), id);
+            }
+
+            if (bitmaps[columnIndex] != null) {
+                bitmaps[columnIndex].add((Integer) register.valueAt(columnIndex - 1), id);
+            }
+        }
+    }
+
+    /**
+     * Remove from the indexes all the values of the given row.
+     *
+     * @param id Identifier for the row.
+     * @param register Values for the row, excluding the identifier.
+     */
+    void remove(int id, List<Object> register) {
+        statistics.remove(register);
+        for (int columnIndex = 1; columnIndex < values.length; columnIndex++) {
+            if (values[columnIndex] != null) {
+                values[columnIndex].remove(register.valueAt(columnIndex - 1), id);
+            }
+
+            if (trigrams[columnIndex] != null) {
+                trigrams[columnIndex].remove((String) register.valueAt(columnIndex - 1), id);
+            }
+
+            if (prefixes[columnIndex] != null) {
+                prefixes[columnIndex].remove((String) register.valueAt(columnIndex - 1), id);
+            }
+
+            if (suffixes[columnIndex] != null) {
+                suffixes[columnIndex].remove((String) register.valueAt(columnIndex - 1), id);
+            }
+
+            if (ordered[columnIndex] != null) {
+                ordered[columnIndex].remove((Integer) register.valueAt(columnIndex - 1), id);
+            }
+
+            if (bitmaps[columnIndex] != null) {
+                bitmaps[columnIndex].remove((Integer) register.valueAt(columnIndex - 1), id);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package sword.database;
+
+import sword.collections.ImmutableList;
+
+/**
+ * Snapshot of the statistics for a table in {@link MemoryDatabase},
+ * as returned by {@link MemoryDatabase#getStatistics(DbTable)}.
+ */
+public final class TableStatistics {
+    private final int _rowCount;
+    private final ImmutableList<ColumnStatistics> _columns;
+
+    TableStatistics(int rowCount, ImmutableList<ColumnStatistics> columns) {
+        _rowCount = rowCount;
+        _columns = columns;
+    }
+
+    /**
+     * Return the number of rows in the table.
+     */
+    public int rowCount() {
+        return _rowCount;
+    }
+
+    /**
+     * Return the statistics for the given column.
+     *
+     * @param columnIndex Index of the column within {@link DbTable#columns()}.
+     */
+    public ColumnStatistics column(int columnIndex) {
+        return _columns.valueAt(columnIndex);
+    }
+}
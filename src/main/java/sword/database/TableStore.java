@@ -0,0 +1,156 @@
+package sword.database;
+
+import sword.collections.ImmutableList;
+import sword.collections.List;
+
+import static sword.collections.SortUtils.equal;
+
+/**
+ * Storage for the rows of a single table within {@link MemoryDatabase}.
+ * <p>
+ * Rows are kept sorted by their identifier, and they can be accessed by their
+ * position within that order. Any insertion or removal may change the
+ * position of the rows with greater identifiers.
+ * <p>
+ * Values are exchanged as raw values, where ints are represented as
+ * {@link Integer} and texts as {@link String}. Registers never include the
+ * identifier, while rows do include it as their first column.
+ */
+abstract class TableStore {
+
+    /**
+     * Check the rows of a table against a {@link TableFilter}.
+     * Each store can provide its own implementation for its layout.
+     */
+    abstract static class Matcher {
+        abstract boolean matches(int position);
+
+        /**
+         * Check a batch of rows, keeping only the positions of the matching ones
+         * at the beginning of the given selection vector, in the same order.
+         * <p>
+         * By default, each position is checked through {@link #matches(int)}, but stores
+         * may check all rows in the batch for a restriction before moving to the next one.
+         *
+         * @param selection Positions of the rows to be checked.
+         * @param count Number of positions to be checked within the selection vector.
+         * @return Number of matching positions kept.
+         */
+        int filter(int[] selection, int count) {
+            int kept = 0;
+            for (int index = 0; index < count; index++) {
+                final int position = selection[index];
+                if (matches(position)) {
+                    selection[kept++] = position;
+                }
+            }
+
+            return kept;
+        }
+    }
+
+    abstract int size();
+
+    abstract int idAt(int position);
+
+    /**
+     * Return the position of the row with the given identifier, or -1 if not present.
+     */
+    abstract int position(int id);
+
+    /**
+     * Return the raw value at the given position and column.
+     *
+     * @param position Position of the row within this store.
+     * @param column Column index within the table, where 0 is the identifier.
+     */
+    abstract Object valueAt(int position, int column);
+
+    /**
+     * Return all values for the row at the given position, excluding its identifier.
+     */
+    abstract ImmutableList<Object> registerAt(int position);
+
+    /**
+     * Return all values for the row at the given position, including its identifier as first column.
+     */
+    ImmutableList<Object> rowAt(int position) {
+        return registerAt(position).prepend(idAt(position));
+    }
+
+    /**
+     * Insert or replace the row with the given identifier.
+     *
+     * @param id Identifier of the row.
+     * @param register All values for the row, excluding its identifier.
+     */
+    abstract void put(int id, List<Object> register);
+
+    /**
+     * Return the position of the first row whose identifier is equal or greater than the given one,
+     * or the size of this store if there is none.
+     */
+    int lowerPosition(long id) {
+        int min = 0;
+        int max = size();
+        while (min < max) {
+            final int middle = (min + max) >>> 1;
+            if (idAt(middle) < id) {
+                min = middle + 1;
+            }
+            else {
+                max = middle;
+            }
+        }
+
+        return min;
+    }
+
+    abstract void removeAt(int position);
+
+    abstract Matcher matcher(TableFilter filter);
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int maxId() {
+        return idAt(size() - 1);
+    }
+
+    @Override
+    public int hashCode() {
+        final int size = size();
+        int hash = size;
+        for (int position = 0; position < size; position++) {
+            hash = hash * 31 + idAt(position);
+        }
+
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+
+        if (!(other instanceof TableStore)) {
+            return false;
+        }
+
+        final TableStore that = (TableStore) other;
+        final int size = size();
+        if (size != that.size()) {
+            return false;
+        }
+
+        for (int position = 0; position < size; position++) {
+            if (idAt(position) != that.idAt(position) || !equal(registerAt(position), that.registerAt(position))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+package sword.database;
+
+/**
+ * Inverted index of all trigrams within the texts of a single column in {@link MemoryDatabase}.
+ * <p>
+ * A trigram is any sequence of 3 consecutive characters within a text. Any
+ * text containing a given substring must contain all trigrams of that
+ * substring as well, so the rows containing all of them are the only
+ * candidates to match. Candidates still have to be checked, as the trigrams
+ * may be found in a different order or position.
+ */
+final class TrigramIndex {
+
+    static final int GRAM_LENGTH = 3;
+
+    private static final int[] NO_IDS = new int[0];
+
+    // Posting lists, keyed by the trigram packed in a long
+    private final ValueIndex _postings = new ValueIndex();
+
+    private static long trigramAt(String text, int index) {
+        return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+    }
+
+    /**
+     * Register that the row with the given identifier contains the given text.
+     */
+    void add(String text, int id) {
+        if (text != null) {
+            final int last = text.length() - GRAM_LENGTH;
+            for (int index = 0; index <= last; index++) {
+                _postings.add(trigramAt(text, index), id);
+            }
+        }
+    }
+
+    /**
+     * Unregister the given text for the row with the given identifier.
+     */
+    void remove(String text, int id) {
+        if (text != null) {
+            final int last = text.length() - GRAM_LENGTH;
+            for (int index = 0; index <= last; index++) {
+                _postings.remove(trigramAt(text, index), id);
+            }
+        }
+    }
+
+    /**
+     * Whether this index can provide the candidates for the given substring.
+     */
+    static boolean isApplicable(String substring) {
+        return substring.length() >= GRAM_LENGTH;
+    }
+
+    /**
+     * Return the number of pairs of trigram and row identifier registered in this index.
+     */
+    int entryCount() {
+        return _postings.entryCount();
+    }
+
+    /**
+     * Return the sorted identifiers of all rows whose text contains all trigrams of the given substring.
+     * The substring must be applicable according to {@link #isApplicable(String)}.
+     */
+    int[] candidates(String substring) {
+        final int gramCount = substring.length() - GRAM_LENGTH + 1;
+        final long[] grams = new long[gramCount];
+        int rarest = 0;
+        int rarestCount = Integer.MAX_VALUE;
+        for (int index = 0; index < gramCount; index++) {
+            grams[index] = trigramAt(substring, index);
+            final int count = _postings.count(grams[index]);
+            if (count < rarestCount) {
+                rarest = index;
+                rarestCount = count;
+            }
+        }
+
+        if (rarestCount == 0) {
+            return NO_IDS;
+        }
+
+        // Intersect starting from the shortest posting list, probing the rest of them
+        final int[] ids = _postings.ids(grams[rarest]);
+        int size = 0;
+        for (int id : ids) {
+            boolean found = true;
+            for (int index = 0; index < gramCount && found; index++) {
+                found = index == rarest || _postings.contains(grams[index], id);
+            }
+
+            if (found) {
+                ids[size++] = id;
+            }
+        }
+
+        if (size == ids.length) {
+            return ids;
+        }
+
+        final int[] result = new int[size];
+        System.arraycopy(ids, 0, result, 0, size);
+        return result;
+    }
+}
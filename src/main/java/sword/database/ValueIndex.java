@@ -0,0 +1,139 @@
+package sword.database;
+
+import java.util.HashMap;
+
+/**
+ * Secondary index for a single column within a table in {@link MemoryDatabase}.
+ * <p>
+ * This maps each value present in the column to the identifiers of the rows
+ * containing it. Identifiers for the same value are kept sorted, so that rows
+ * retrieved through this index are in the same order as in a full table scan.
+ */
+final class ValueIndex {
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final HashMap<Object, IdBucket> _buckets = new HashMap<>();
+    private int _entryCount;
+
+    private static final class IdBucket {
+        int[] ids = new int[2];
+        int size;
+
+        int find(int id) {
+            int min = 0;
+            int max = size - 1;
+            while (min <= max) {
+                final int middle = (min + max) >>> 1;
+                final int value = ids[middle];
+                if (value < id) {
+                    min = middle + 1;
+                }
+                else if (value > id) {
+                    max = middle - 1;
+                }
+                else {
+                    return middle;
+                }
+            }
+
+            return -min - 1;
+        }
+    }
+
+    /**
+     * Register that the row with the given identifier contains the given value.
+     */
+    void add(Object value, int id) {
+        IdBucket bucket = _buckets.get(value);
+        if (bucket == null) {
+            bucket = new IdBucket();
+            _buckets.put(value, bucket);
+        }
+
+        final int position = bucket.find(id);
+        if (position < 0) {
+            final int insertion = -position - 1;
+            if (bucket.size == bucket.ids.length) {
+                final int[] newIds = new int[bucket.size * 2];
+                System.arraycopy(bucket.ids, 0, newIds, 0, bucket.size);
+                bucket.ids = newIds;
+            }
+
+            System.arraycopy(bucket.ids, insertion, bucket.ids, insertion + 1, bucket.size - insertion);
+            bucket.ids[insertion] = id;
+            bucket.size++;
+            _entryCount++;
+        }
+    }
+
+    /**
+     * Unregister the given value for the row with the given identifier.
+     */
+    void remove(Object value, int id) {
+        final IdBucket bucket = _buckets.get(value);
+        if (bucket != null) {
+            final int position = bucket.find(id);
+            if (position >= 0) {
+                if (bucket.size == 1) {
+                    _buckets.remove(value);
+                }
+                else {
+                    System.arraycopy(bucket.ids, position + 1, bucket.ids, position, bucket.size - position - 1);
+                    bucket.size--;
+                }
+
+                _entryCount--;
+            }
+        }
+    }
+
+    boolean contains(Object value) {
+        return _buckets.containsKey(value);
+    }
+
+    /**
+     * Whether the row with the given identifier contains the given value.
+     */
+    boolean contains(Object value, int id) {
+        final IdBucket bucket = _buckets.get(value);
+        return bucket != null && bucket.find(id) >= 0;
+    }
+
+    /**
+     * Return the number of rows containing the given value.
+     */
+    int count(Object value) {
+        final IdBucket bucket = _buckets.get(value);
+        return (bucket != null)? bucket.size : 0;
+    }
+
+    /**
+     * Return the number of different values currently present in the column.
+     */
+    int distinctValueCount() {
+        return _buckets.size();
+    }
+
+    /**
+     * Return the number of pairs of value and row identifier registered in this index.
+     */
+    int entryCount() {
+        return _entryCount;
+    }
+
+    /**
+     * Return the sorted identifiers of all rows containing the given value.
+     * The returned array is a copy that can be freely modified.
+     */
+    int[] ids(Object value) {
+        final IdBucket bucket = _buckets.get(value);
+        if (bucket == null) {
+            return NO_IDS;
+        }
+
+        final int[] result = new int[bucket.size];
+        System.arraycopy(bucket.ids, 0, result, 0, bucket.size);
+        return result;
+    }
+}
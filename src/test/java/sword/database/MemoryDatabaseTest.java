@@ -1,5 +1,11 @@
 package sword.database;
 
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.jupiter.api.Test;
 import sword.collections.ImmutableHashSet;
 import sword.collections.ImmutableIntKeyMap;
@@ -16,6 +22,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 final class MemoryDatabaseTest {
@@ -35,8 +43,35 @@ final class MemoryDatabaseTest {
     private final DbColumn writtenColumn = new DbTextColumn("written");
     private final DbTable wordTable = new DbTable("WordTable", conceptColumn, languageColumn, writtenColumn);
 
+    private final DbSchema indexedSchema = new DbSchema() {
+        @Override
+        public ImmutableList<DbTable> tables() {
+            return new ImmutableList.Builder<DbTable>().add(setTable).add(wordTable).build();
+        }
+
+        @Override
+        public ImmutableList<DbIndex> indexes() {
+            return new ImmutableList.Builder<DbIndex>()
+                    .add(new DbIndex(setTable, setTable.columns().indexOf(setIdColumn)))
+                    .add(new DbIndex(wordTable, wordTable.columns().indexOf(conceptColumn)))
+                    .build();
+        }
+    };
+
     private final class State {
-        final MemoryDatabase db = new MemoryDatabase();
+        final MemoryDatabase db;
+
+        State() {
+            db = new MemoryDatabase();
+        }
+
+        State(DbSchema schema) {
+            db = new MemoryDatabase(schema);
+        }
+
+        State(DbSchema schema, int storageMode) {
+            db = new MemoryDatabase(schema, storageMode);
+        }
 
         private Integer insertText(String value) {
             final int columnIndex = textTable.columns().indexOf(textColumn);
@@ -132,6 +167,55 @@ final class MemoryDatabaseTest {
             }
         }
 
+        private String findWrittenWords(int restrictionType, String text) {
+            final int columnIndex = wordTable.columns().indexOf(writtenColumn);
+            final DbQuery selectQuery = new DbQuery.Builder(wordTable)
+                    .where(columnIndex, new DbQuery.Restriction(new DbStringValue(text), restrictionType))
+                    .select(columnIndex);
+            final StringBuilder sb = new StringBuilder();
+            try (DbResult result = db.select(selectQuery)) {
+                while (result.hasNext()) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(result.next().get(0).toText());
+                }
+            }
+
+            return sb.toString();
+        }
+
+        private String selectWrittenWords(int columnIndex, DbQuery.Restriction restriction) {
+            return concatenateTexts(new DbQuery.Builder(wordTable)
+                    .where(columnIndex, restriction)
+                    .select(wordTable.columns().indexOf(writtenColumn)));
+        }
+
+        private String concatenateTexts(DbQuery query) {
+            final StringBuilder sb = new StringBuilder();
+            try (DbResult result = db.select(query)) {
+                while (result.hasNext()) {
+                    sb.append(result.next().get(0).toText());
+                }
+            }
+
+            return sb.toString();
+        }
+
+        private String describeRows(DbQuery query) {
+            final StringBuilder sb = new StringBuilder();
+            try (DbResult result = db.select(query)) {
+                while (result.hasNext()) {
+                    for (DbValue value : result.next()) {
+                        sb.append(value.isText()? value.toText() : Integer.toString(value.toInt())).append(',');
+                    }
+                    sb.append('\n');
+                }
+            }
+
+            return sb.toString();
+        }
+
         private void assertText(int id, String expectedValue) {
             final int columnIndex = textTable.columns().indexOf(textColumn);
             final DbQuery selectQuery = new DbQuery.Builder(textTable)
@@ -615,4 +699,1455 @@ final class MemoryDatabaseTest {
                 .select(3);
         assertEquals("ghijklmno", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
     }
+
+    @Test
+    void testNonIdJoinKeepsLeftRowOrder() {
+        final State state = new State();
+        state.insertWord(1, 1, "a");
+        state.insertWord(1, 2, "b");
+        state.insertWord(2, 1, "c");
+        state.insertWord(3, 1, "d");
+
+        final int shortSetId = state.insertIntIterable(new ImmutableIntList.Builder().add(2).add(1).build());
+        final int longSetId = state.insertIntIterable(new ImmutableIntList.Builder().add(2).add(1).add(4).add(2).add(1).add(1).build());
+
+        final int setIdColumnIndex = setTable.columns().indexOf(setIdColumn);
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+
+        final DbQuery shortQuery = new DbQuery.Builder(setTable)
+                .join(wordTable, itemIdColumnIndex, conceptColumnIndex)
+                .where(setIdColumnIndex, shortSetId)
+                .select(setTable.columns().size() + writtenColumnIndex);
+        assertEquals("cab", state.db.select(shortQuery).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        final DbQuery longQuery = new DbQuery.Builder(setTable)
+                .join(wordTable, itemIdColumnIndex, conceptColumnIndex)
+                .where(setIdColumnIndex, longSetId)
+                .select(setTable.columns().size() + writtenColumnIndex);
+        assertEquals("cabcabab", state.db.select(longQuery).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+    }
+
+    @Test
+    void testInsertDeletedUniqueTextAgain() {
+        final State state = new State();
+        final String value = "text";
+        final int textId = state.insertUniqueText(value);
+        state.deleteUniqueText(textId);
+
+        final int newTextId = state.insertUniqueText(value);
+        state.assertUniqueText(newTextId, value);
+    }
+
+    @Test
+    void testUpdateUniqueTextReleasesOldValue() {
+        final State state = new State();
+        final int textId = state.insertUniqueText("oldText");
+        state.updateUniqueText(textId, "newText");
+        assertNull(state.insertUniqueText("newText"));
+
+        final int newTextId = state.insertUniqueText("oldText");
+        state.assertUniqueText(newTextId, "oldText");
+    }
+
+    @Test
+    void testIndexedSchemaKeepsIndexesInSync() {
+        final State state = new State(indexedSchema);
+        final WordTableCase inst = new WordTableCase(state);
+        inst.initializeWords();
+        inst.assertTranslations();
+        inst.assertSynonyms();
+
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbQuery query = new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, WordTableCase.conceptSmall)
+                .select(writtenColumnIndex);
+        assertEquals(WordTableCase.wordEnSmall + WordTableCase.wordEsSmall,
+                state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        final int tinyId = state.insertWord(3, WordTableCase.languageEn, "tiny");
+        state.updateConceptWord(tinyId, WordTableCase.conceptSmall);
+        assertEquals(WordTableCase.wordEnSmall + WordTableCase.wordEsSmall + "tiny",
+                state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        final DbDeleteQuery deleteQuery = new DbDeleteQuery.Builder(wordTable)
+                .where(wordTable.getIdColumnIndex(), tinyId)
+                .build();
+        assertTrue(state.db.delete(deleteQuery));
+        assertEquals(WordTableCase.wordEnSmall + WordTableCase.wordEsSmall,
+                state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+    }
+
+    @Test
+    void testIndexedSchemaResolvesJoins() {
+        final State state = new State(indexedSchema);
+        state.insertWord(1, 1, "a");
+        state.insertWord(1, 2, "b");
+        state.insertWord(2, 1, "c");
+        final int setId = state.insertIntIterable(new ImmutableIntList.Builder().add(2).add(1).add(3).build());
+
+        final int setIdColumnIndex = setTable.columns().indexOf(setIdColumn);
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+
+        final DbQuery query = new DbQuery.Builder(setTable)
+                .join(wordTable, itemIdColumnIndex, conceptColumnIndex)
+                .where(setIdColumnIndex, setId)
+                .select(setTable.columns().size() + writtenColumnIndex);
+        assertEquals("cab", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+    }
+
+    @Test
+    void testRestrictionsOnJoinedTablesAndViews() {
+        final State state = new State();
+        state.insertWord(1, 1, "a");
+        state.insertWord(1, 2, "b");
+        state.insertWord(2, 1, "c");
+        state.insertWord(2, 2, "d");
+        final int setId = state.insertIntIterable(new ImmutableIntList.Builder().add(2).add(1).build());
+
+        final int setIdColumnIndex = setTable.columns().indexOf(setIdColumn);
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final int setColumnCount = setTable.columns().size();
+
+        final DbQuery query = new DbQuery.Builder(setTable)
+                .join(wordTable, itemIdColumnIndex, conceptColumnIndex)
+                .where(setIdColumnIndex, setId)
+                .where(setColumnCount + languageColumnIndex, 2)
+                .select(setColumnCount + writtenColumnIndex);
+        assertEquals("db", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        final DbQuery spanishWords = new DbQuery.Builder(wordTable)
+                .where(languageColumnIndex, 2)
+                .select(conceptColumnIndex, writtenColumnIndex);
+        final DbQuery viewQuery = new DbQuery.Builder(spanishWords)
+                .join(setTable, 0, itemIdColumnIndex)
+                .where(1, new DbQuery.Restriction(new DbStringValue("d"), DbQuery.RestrictionStringTypes.EXACT))
+                .select(2 + setIdColumnIndex, 1);
+        try (DbResult result = state.db.select(viewQuery)) {
+            assertTrue(result.hasNext());
+            final List<DbValue> row = result.next();
+            assertEquals(setId, row.get(0).toInt());
+            assertEquals("d", row.get(1).toText());
+            assertFalse(result.hasNext());
+        }
+    }
+
+    @Test
+    void testOrderedQueryWithNarrowerRange() {
+        final State state = new State();
+        state.insertWord(5, 1, "a");
+        state.insertWord(3, 1, "b");
+        state.insertWord(5, 1, "c");
+        state.insertWord(1, 1, "d");
+        state.insertWord(3, 1, "e");
+        state.insertWord(2, 1, "f");
+        state.insertWord(5, 1, "g");
+
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbQuery ascendantQuery = new DbQuery.Builder(wordTable)
+                .orderBy(conceptColumnIndex)
+                .range(new ImmutableIntRange(0, 3))
+                .select(writtenColumnIndex);
+        assertEquals("dfbe", state.db.select(ascendantQuery).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        final DbQuery descendantQuery = new DbQuery.Builder(wordTable)
+                .orderBy(new DbQuery.Ordered(conceptColumnIndex, true))
+                .range(new ImmutableIntRange(1, 4))
+                .select(writtenColumnIndex);
+        assertEquals("cgbe", state.db.select(descendantQuery).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        final DbQuery wholeQuery = new DbQuery.Builder(wordTable)
+                .orderBy(new DbQuery.Ordered(conceptColumnIndex, true))
+                .range(new ImmutableIntRange(5, 9))
+                .select(writtenColumnIndex);
+        assertEquals("fd", state.db.select(wholeQuery).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+    }
+
+    @Test
+    void testResultKeepsRowsWhenTableIsModifiedWhileReading() {
+        final State state = new State();
+        final int firstId = state.insertText("a");
+        final int secondId = state.insertText("b");
+        state.insertText("c");
+
+        final int textColumnIndex = textTable.columns().indexOf(textColumn);
+        final DbQuery query = new DbQuery.Builder(textTable)
+                .select(textColumnIndex);
+        try (DbResult result = state.db.select(query)) {
+            assertEquals(3, result.getRemainingRows());
+            assertEquals("a", result.next().get(0).toText());
+
+            state.insertText("d");
+            final DbDeleteQuery deleteQuery = new DbDeleteQuery.Builder(textTable)
+                    .where(textTable.getIdColumnIndex(), secondId)
+                    .build();
+            assertTrue(state.db.delete(deleteQuery));
+
+            assertEquals(2, result.getRemainingRows());
+            assertEquals("b", result.next().get(0).toText());
+            assertEquals("c", result.next().get(0).toText());
+            assertFalse(result.hasNext());
+            assertEquals(0, result.getRemainingRows());
+        }
+
+        try (DbResult result = state.db.select(query)) {
+            assertEquals("a", result.next().get(0).toText());
+            assertTrue(state.db._openResults.contains(result));
+        }
+        assertTrue(state.db._openResults.isEmpty());
+
+        state.assertText(firstId, "a");
+        assertEquals("acd", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertTrue(state.db._openResults.isEmpty());
+    }
+
+    @Test
+    void testColumnarStorageMode() {
+        final State rowState = new State(indexedSchema, MemoryDatabase.StorageModes.ROWS);
+        final State columnState = new State(indexedSchema, MemoryDatabase.StorageModes.COLUMNS);
+        for (State state : new ImmutableList.Builder<State>().add(rowState).add(columnState).build()) {
+            state.insertWord(1, 1, "casa");
+            state.insertWord(1, 2, "house");
+            state.insertWord(2, 1, "cosa");
+            final int wordId = state.insertWord(2, 2, "thing");
+            state.insertWord(3, 1, "casa");
+            state.insertIntIterable(new ImmutableIntList.Builder().add(3).add(1).build());
+            state.updateWrittenWord(wordId, "stuff");
+        }
+
+        assertEquals(rowState.db, columnState.db);
+        assertEquals(rowState.db.hashCode(), columnState.db.hashCode());
+
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final int setColumnCount = setTable.columns().size();
+
+        final DbQuery joinQuery = new DbQuery.Builder(setTable)
+                .join(wordTable, itemIdColumnIndex, conceptColumnIndex)
+                .where(setColumnCount + writtenColumnIndex, new DbQuery.Restriction(new DbStringValue("ca"), DbQuery.RestrictionStringTypes.STARTS_WITH))
+                .select(setColumnCount + conceptColumnIndex, setColumnCount + writtenColumnIndex);
+        assertEquals("3casa1casa", columnState.db.select(joinQuery).map(row -> row.get(0).toInt() + row.get(1).toText()).reduce((a, b) -> a + b));
+
+        final DbQuery exactQuery = new DbQuery.Builder(wordTable)
+                .where(writtenColumnIndex, "casa")
+                .where(languageColumnIndex, 1)
+                .select(conceptColumnIndex);
+        assertEquals(4, columnState.db.select(exactQuery).map(row -> row.get(0).toInt()).reduce((a, b) -> a + b).intValue());
+
+        final DbQuery missingTextQuery = new DbQuery.Builder(wordTable)
+                .where(writtenColumnIndex, "thing")
+                .select(conceptColumnIndex);
+        assertFalse(columnState.db.select(missingTextQuery).hasNext());
+
+        final DbDeleteQuery deleteQuery = new DbDeleteQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 1)
+                .build();
+        assertTrue(rowState.db.delete(deleteQuery));
+        assertTrue(columnState.db.delete(deleteQuery));
+        assertEquals(rowState.db, columnState.db);
+        assertEquals("cosastuffcasa", columnState.db.select(new DbQuery.Builder(wordTable).select(writtenColumnIndex))
+                .map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+    }
+
+    @Test
+    void testColumnarDictionaryReusesReleasedCodes() {
+        final ColumnarTableStore store = new ColumnarTableStore(wordTable);
+        for (int id = 1; id <= 4; id++) {
+            store.put(id, new ImmutableList.Builder<Object>().add(id).add(1).add("w" + id).build());
+        }
+
+        for (int version = 0; version < 100; version++) {
+            store.put(2, new ImmutableList.Builder<Object>().add(2).add(1).add("v" + version).build());
+            store.put(3, new ImmutableList.Builder<Object>().add(3).add(1).add("w1").build());
+        }
+
+        // One extra code is needed while replacing a text, as the new one is encoded before releasing the old one
+        assertEquals(5, store.dictionarySize());
+        assertEquals("v99", store.valueAt(store.position(2), 3));
+        assertEquals("w1", store.valueAt(store.position(3), 3));
+
+        store.removeAt(store.position(1));
+        store.removeAt(store.position(3));
+        store.put(5, new ImmutableList.Builder<Object>().add(5).add(1).add("x").build());
+        assertEquals(5, store.dictionarySize());
+        assertEquals("x", store.valueAt(store.position(5), 3));
+        assertEquals("w4", store.valueAt(store.position(4), 3));
+    }
+
+    @Test
+    void testGroupedAggregatesKeepOrderOfFirstAppearance() {
+        final State state = new State();
+        state.insertWord(2, 1, "b");
+        state.insertWord(1, 1, "a");
+        state.insertWord(2, 2, "B");
+        state.insertWord(3, 1, "c");
+        state.insertWord(1, 2, "A");
+        state.insertWord(2, 1, "bb");
+
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbQuery query = new DbQuery.Builder(wordTable)
+                .groupBy(conceptColumnIndex)
+                .select(conceptColumnIndex, DbQuery.max(languageColumnIndex), DbQuery.concat(writtenColumnIndex));
+        assertEquals("2:2:bBbb 1:2:aA 3:1:c", state.db.select(query)
+                .map(row -> row.get(0).toInt() + ":" + row.get(1).toInt() + ":" + row.get(2).toText())
+                .reduce((a, b) -> a + " " + b));
+
+        final DbQuery multiColumnQuery = new DbQuery.Builder(wordTable)
+                .groupBy(conceptColumnIndex, languageColumnIndex)
+                .orderBy(languageColumnIndex)
+                .range(new ImmutableIntRange(1, 3))
+                .select(DbQuery.concat(writtenColumnIndex), languageColumnIndex);
+        assertEquals("a1 c1 B2", state.db.select(multiColumnQuery)
+                .map(row -> row.get(0).toText() + row.get(1).toInt())
+                .reduce((a, b) -> a + " " + b));
+    }
+
+    @Test
+    void testCountSumMinAndAvgAggregates() {
+        final State state = new State();
+        state.insertWord(1, 4, "a");
+        state.insertWord(2, 1, "b");
+        state.insertWord(1, -2, "c");
+        state.insertWord(1, 3, "d");
+        state.insertWord(2, 2, "e");
+
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final DbQuery query = new DbQuery.Builder(wordTable)
+                .groupBy(conceptColumnIndex)
+                .select(conceptColumnIndex, DbQuery.count(), DbQuery.sum(languageColumnIndex),
+                        DbQuery.min(languageColumnIndex), DbQuery.avg(languageColumnIndex));
+        assertEquals("1:3:5:-2:1 2:2:3:1:1", state.db.select(query)
+                .map(row -> row.get(0).toInt() + ":" + row.get(1).toInt() + ":" + row.get(2).toInt() + ":" + row.get(3).toInt() + ":" + row.get(4).toInt())
+                .reduce((a, b) -> a + " " + b));
+
+        final DbQuery countQuery = new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 2)
+                .select(DbQuery.count());
+        final DbColumn countColumn = countQuery.columns().valueAt(0);
+        assertEquals("count", countColumn.name());
+        assertFalse(countColumn.isText());
+        assertFalse(countColumn.isPrimaryKey());
+        try (DbResult result = state.db.select(countQuery)) {
+            assertEquals(2, result.next().get(0).toInt());
+            assertFalse(result.hasNext());
+        }
+    }
+
+    @Test
+    void testSumNotFittingIntoAnIntThrows() {
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final DbQuery conceptSums = new DbQuery.Builder(wordTable)
+                .groupBy(conceptColumnIndex)
+                .select(conceptColumnIndex, DbQuery.sum(languageColumnIndex));
+        final DbQuery conceptSumRows = new DbQuery.Builder(conceptSums).select(0, 1);
+
+        // Only the first state materializes the view, while the second one computes it on each query
+        final State state = new State();
+        final State expectedState = new State();
+        assertTrue(state.db.addMaterializedView(conceptSums));
+        for (State s : new State[] {state, expectedState}) {
+            s.insertWord(1, Integer.MAX_VALUE, "a");
+            s.insertWord(2, 1, "b");
+            s.insertWord(1, 1, "c");
+            assertThrows(ArithmeticException.class, () -> s.describeRows(conceptSumRows));
+        }
+
+        for (State s : new State[] {state, expectedState}) {
+            assertTrue(s.db.delete(new DbDeleteQuery.Builder(wordTable)
+                    .where(wordTable.getIdColumnIndex(), 3)
+                    .build()));
+            assertEquals("1," + Integer.MAX_VALUE + ",\n2,1,\n", s.describeRows(conceptSumRows));
+        }
+    }
+
+    @Test
+    void testSameQueryExecutedAfterModifyingTables() {
+        final State state = new State(indexedSchema);
+        state.insertWord(1, 1, "a");
+        state.insertWord(2, 1, "b");
+        final int setId = state.insertIntIterable(new ImmutableIntList.Builder().add(2).build());
+
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbQuery languageWords = new DbQuery.Builder(wordTable)
+                .where(languageColumnIndex, 1)
+                .select(conceptColumnIndex, writtenColumnIndex);
+        final DbQuery query = new DbQuery.Builder(languageWords)
+                .join(setTable, 0, itemIdColumnIndex)
+                .orderBy(0)
+                .select(1);
+
+        assertEquals("b", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        state.insertWord(2, 1, "c");
+        final int setIdColumnIndex = setTable.columns().indexOf(setIdColumn);
+        state.db.insert(new DbInsertQuery.Builder(setTable)
+                .put(setIdColumnIndex, setId)
+                .put(itemIdColumnIndex, 1)
+                .build());
+        assertEquals("abc", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        assertTrue(state.db.delete(new DbDeleteQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 2)
+                .build()));
+        assertEquals("a", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+    }
+
+    @Test
+    void testPreparedQueryWithParameters() {
+        final State state = new State(indexedSchema);
+        state.insertWord(1, 1, "casa");
+        state.insertWord(1, 2, "house");
+        state.insertWord(2, 1, "cosa");
+        state.insertWord(2, 2, "thing");
+        state.insertIntIterable(new ImmutableIntList.Builder().add(1).add(2).build());
+
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbQuery languageWords = new DbQuery.Builder(wordTable)
+                .where(languageColumnIndex, DbQuery.intParameter(0))
+                .select(conceptColumnIndex, writtenColumnIndex);
+        final DbQuery query = new DbQuery.Builder(languageWords)
+                .join(setTable, 0, itemIdColumnIndex)
+                .where(1, new DbQuery.Restriction(DbQuery.textParameter(1), DbQuery.RestrictionStringTypes.ENDS_WITH))
+                .select(1);
+        assertEquals(2, query.getParameterCount());
+        assertThrows(IllegalArgumentException.class, () -> state.db.select(query));
+        assertThrows(IllegalStateException.class, () -> DbQuery.intParameter(0).toInt());
+        assertThrows(IllegalStateException.class, () -> DbQuery.textParameter(1).toText());
+
+        final PreparedQuery prepared = state.db.prepare(query);
+        assertEquals("casacosa", prepared.select(new DbIntValue(1), new DbStringValue("sa"))
+                .map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals("thing", prepared.select(new DbIntValue(2), new DbStringValue("g"))
+                .map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertFalse(prepared.select(new DbIntValue(3), new DbStringValue("")).hasNext());
+
+        assertThrows(IllegalArgumentException.class, () -> prepared.select(new DbIntValue(1)));
+        assertThrows(IllegalArgumentException.class, () -> prepared.select(new DbStringValue("a"), new DbStringValue("a")));
+        assertThrows(IllegalArgumentException.class, () -> new DbQuery.Builder(wordTable)
+                .where(languageColumnIndex, DbQuery.intParameter(1))
+                .select(conceptColumnIndex));
+    }
+
+    @Test
+    void testResultCacheIsInvalidatedWhenReadTablesChange() {
+        final State state = new State();
+        state.db.setResultCacheCapacity(1);
+        state.insertWord(1, 1, "a");
+        state.insertWord(2, 1, "b");
+        state.insertText("x");
+
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbQuery languageWords = new DbQuery.Builder(wordTable)
+                .where(languageColumnIndex, 1)
+                .select(conceptColumnIndex, writtenColumnIndex);
+        final DbQuery query = new DbQuery.Builder(languageWords)
+                .orderBy(new DbQuery.Ordered(0, true))
+                .select(1);
+        final DbQuery textQuery = new DbQuery.Builder(textTable)
+                .select(textTable.columns().indexOf(textColumn));
+
+        assertEquals("ba", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals("ba", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        state.insertText("y");
+        assertEquals("ba", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals("xy", state.db.select(textQuery).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        state.insertWord(3, 1, "c");
+        assertEquals("cba", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+
+        state.db.setResultCacheCapacity(0);
+        state.insertWord(4, 1, "d");
+        assertEquals("dcba", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+    }
+
+    @Test
+    void testRejectedModificationsKeepCachedResults() {
+        final State state = new State();
+        state.db.setResultCacheCapacity(1);
+        final int id = state.insertUniqueText("a");
+        final int columnIndex = uniqueTextTable.columns().indexOf(uniqueTextColumn);
+        final DbQuery query = new DbQuery.Builder(uniqueTextTable)
+                .select(columnIndex);
+        assertEquals("a", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals(0, state.db.resultCacheHits());
+
+        assertNull(state.insertUniqueText("a"));
+        assertTrue(state.db.update(new DbUpdateQuery.Builder(uniqueTextTable)
+                .where(uniqueTextTable.getIdColumnIndex(), id + 1)
+                .put(columnIndex, "b")
+                .build()));
+        assertFalse(state.db.delete(new DbDeleteQuery.Builder(uniqueTextTable)
+                .where(uniqueTextTable.getIdColumnIndex(), id + 1)
+                .build()));
+        assertEquals("a", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals(1, state.db.resultCacheHits());
+
+        state.updateUniqueText(id, "b");
+        assertEquals("b", state.db.select(query).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals(1, state.db.resultCacheHits());
+    }
+
+    @Test
+    void testMaterializedViewsAreKeptUpToDate() {
+        final State state = new State();
+        state.insertWord(1, 1, "a");
+        state.insertWord(1, 2, "A");
+        final int wordId = state.insertWord(2, 1, "b");
+        final int setId = state.insertIntIterable(new ImmutableIntList.Builder().add(2).add(1).build());
+
+        final int setIdColumnIndex = setTable.columns().indexOf(setIdColumn);
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbQuery languageWords = new DbQuery.Builder(wordTable)
+                .where(languageColumnIndex, 1)
+                .select(conceptColumnIndex, writtenColumnIndex);
+        final DbQuery wordCounts = new DbQuery.Builder(wordTable)
+                .groupBy(conceptColumnIndex)
+                .select(conceptColumnIndex, DbQuery.count());
+        assertTrue(state.db.addMaterializedView(languageWords));
+        assertTrue(state.db.addMaterializedView(wordCounts));
+        assertFalse(state.db.addMaterializedView(languageWords));
+
+        final DbQuery setWords = new DbQuery.Builder(setTable)
+                .join(languageWords, itemIdColumnIndex, 0)
+                .where(setIdColumnIndex, setId)
+                .select(setTable.columns().size() + 1);
+        final DbQuery counts = new DbQuery.Builder(wordCounts)
+                .where(1, 2)
+                .select(0);
+        assertEquals("ba", state.db.select(setWords).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals(1, state.db.select(counts).next().get(0).toInt());
+
+        state.insertWord(2, 1, "bb");
+        state.updateWrittenWord(wordId, "c");
+        assertEquals("cbba", state.db.select(setWords).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals("12", state.db.select(counts).map(row -> Integer.toString(row.get(0).toInt())).reduce((a, b) -> a + b));
+
+        assertTrue(state.db.delete(new DbDeleteQuery.Builder(wordTable)
+                .where(languageColumnIndex, 1)
+                .where(conceptColumnIndex, 2)
+                .build()));
+        assertEquals("a", state.db.select(setWords).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+        assertEquals(1, state.db.select(counts).next().get(0).toInt());
+
+        assertTrue(state.db.removeMaterializedView(languageWords));
+        assertFalse(state.db.removeMaterializedView(languageWords));
+        assertEquals("a", state.db.select(setWords).map(row -> row.get(0).toText()).reduce((a, b) -> a + b));
+    }
+
+    @Test
+    void testJoinedAndGroupedMaterializedViewsAreUpdatedIncrementally() {
+        final int setIdColumnIndex = setTable.columns().indexOf(setIdColumn);
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final int wordOffset = setTable.columns().size();
+        final int textOffset = wordOffset + wordTable.columns().size();
+        final DbQuery setTexts = new DbQuery.Builder(setTable)
+                .join(wordTable, itemIdColumnIndex, conceptColumnIndex)
+                .join(textTable, wordOffset + writtenColumnIndex, textTable.columns().indexOf(textColumn))
+                .where(wordOffset + languageColumnIndex, 1)
+                .select(setIdColumnIndex, wordOffset, textOffset);
+        final DbQuery languageStats = new DbQuery.Builder(wordTable)
+                .groupBy(languageColumnIndex)
+                .select(languageColumnIndex, DbQuery.count(), DbQuery.sum(conceptColumnIndex));
+        assertTrue(new MaterializedView(QueryPlan.compile(setTexts)).isIncremental());
+        assertTrue(new MaterializedView(QueryPlan.compile(languageStats)).isIncremental());
+
+        // Only the first state materializes the views, while the second one computes them on each query
+        final State state = new State();
+        final State expectedState = new State();
+        assertTrue(state.db.addMaterializedView(setTexts));
+        assertTrue(state.db.addMaterializedView(languageStats));
+
+        final DbQuery setTextRows = new DbQuery.Builder(setTexts).select(0, 1, 2);
+        final DbQuery setTextRange = new DbQuery.Builder(setTexts)
+                .range(new ImmutableIntRange(1, 2))
+                .select(0, 1, 2);
+        final DbQuery languageStatRows = new DbQuery.Builder(languageStats).select(0, 1, 2);
+        final ImmutableList<Procedure<State>> changes = new ImmutableList.Builder<Procedure<State>>()
+                .add(s -> {
+                    s.insertWord(1, 1, "a");
+                    s.insertWord(1, 2, "A");
+                    s.insertWord(2, 1, "b");
+                })
+                .add(s -> {
+                    s.insertText("a");
+                    s.insertText("b");
+                    s.insertText("a");
+                })
+                .add(s -> {
+                    s.insertIntIterable(new ImmutableIntList.Builder().add(1).add(2).build());
+                    s.insertIntIterable(new ImmutableIntList.Builder().add(2).build());
+                })
+                .add(s -> s.insertWord(2, 1, "a"))
+                .add(s -> s.updateConceptWord(1, 2))
+                .add(s -> s.updateWrittenWord(3, "c"))
+                .add(s -> s.insertText("c"))
+                .add(s -> s.updateConceptWord(2, 5))
+                .add(s -> assertTrue(s.db.delete(new DbDeleteQuery.Builder(textTable)
+                        .where(textTable.getIdColumnIndex(), 1)
+                        .build())))
+                .add(s -> assertTrue(s.db.delete(new DbDeleteQuery.Builder(wordTable)
+                        .where(languageColumnIndex, 1)
+                        .where(conceptColumnIndex, 2)
+                        .build())))
+                .build();
+
+        for (Procedure<State> change : changes) {
+            change.apply(state);
+            change.apply(expectedState);
+            assertEquals(expectedState.describeRows(setTextRows), state.describeRows(setTextRows));
+            assertEquals(expectedState.describeRows(setTextRange), state.describeRows(setTextRange));
+            assertEquals(expectedState.describeRows(languageStatRows), state.describeRows(languageStatRows));
+        }
+
+        assertEquals("2,1,5,\n", state.describeRows(languageStatRows));
+    }
+
+    @Test
+    void testTrigramIndexKeepsTextRestrictionsInSync() {
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbSchema schema = new DbSchema() {
+            @Override
+            public ImmutableList<DbTable> tables() {
+                return new ImmutableList.Builder<DbTable>().add(wordTable).build();
+            }
+
+            @Override
+            public ImmutableList<DbIndex> indexes() {
+                return new ImmutableList.Builder<DbIndex>()
+                        .add(new DbIndex(wordTable, writtenColumnIndex, DbIndex.Types.TRIGRAM))
+                        .build();
+            }
+        };
+
+        final State state = new State(schema);
+        final int houseId = state.insertWord(1, 1, "house");
+        state.insertWord(2, 1, "mouse");
+        state.insertWord(3, 1, "hose");
+        state.insertWord(4, 1, "ousted");
+
+        assertEquals("house,mouse,ousted", state.findWrittenWords(DbQuery.RestrictionStringTypes.CONTAINS, "ous"));
+        assertEquals("house,mouse", state.findWrittenWords(DbQuery.RestrictionStringTypes.CONTAINS, "ouse"));
+        assertEquals("house,mouse,hose", state.findWrittenWords(DbQuery.RestrictionStringTypes.CONTAINS, "se"));
+        assertEquals("house,mouse", state.findWrittenWords(DbQuery.RestrictionStringTypes.ENDS_WITH, "ouse"));
+        assertEquals("", state.findWrittenWords(DbQuery.RestrictionStringTypes.CONTAINS, "sou"));
+
+        state.updateWrittenWord(houseId, "sound");
+        assertEquals("mouse,ousted", state.findWrittenWords(DbQuery.RestrictionStringTypes.CONTAINS, "ous"));
+        assertEquals("sound", state.findWrittenWords(DbQuery.RestrictionStringTypes.CONTAINS, "sou"));
+
+        assertTrue(state.db.delete(new DbDeleteQuery.Builder(wordTable)
+                .where(wordTable.columns().indexOf(conceptColumn), 2)
+                .build()));
+        assertEquals("ousted", state.findWrittenWords(DbQuery.RestrictionStringTypes.CONTAINS, "ous"));
+    }
+
+    @Test
+    void testPrefixAndSuffixIndexesKeepTextRestrictionsInSync() {
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbSchema schema = new DbSchema() {
+            @Override
+            public ImmutableList<DbTable> tables() {
+                return new ImmutableList.Builder<DbTable>().add(wordTable).build();
+            }
+
+            @Override
+            public ImmutableList<DbIndex> indexes() {
+                return new ImmutableList.Builder<DbIndex>()
+                        .add(new DbIndex(wordTable, writtenColumnIndex, DbIndex.Types.PREFIX))
+                        .add(new DbIndex(wordTable, writtenColumnIndex, DbIndex.Types.SUFFIX))
+                        .build();
+            }
+        };
+
+        final State state = new State(schema);
+        state.insertWord(1, 1, "carton");
+        final int carId = state.insertWord(2, 1, "car");
+        state.insertWord(3, 1, "scar");
+        state.insertWord(4, 1, "cart");
+        state.insertWord(5, 1, "car");
+
+        assertEquals("carton,car,cart,car", state.findWrittenWords(DbQuery.RestrictionStringTypes.STARTS_WITH, "car"));
+        assertEquals("car,scar,car", state.findWrittenWords(DbQuery.RestrictionStringTypes.ENDS_WITH, "car"));
+        assertEquals("carton,car,scar,cart,car", state.findWrittenWords(DbQuery.RestrictionStringTypes.STARTS_WITH, ""));
+        assertEquals("", state.findWrittenWords(DbQuery.RestrictionStringTypes.ENDS_WITH, "cars"));
+
+        state.updateWrittenWord(carId, "bar");
+        assertEquals("carton,cart,car", state.findWrittenWords(DbQuery.RestrictionStringTypes.STARTS_WITH, "car"));
+        assertEquals("bar,scar,car", state.findWrittenWords(DbQuery.RestrictionStringTypes.ENDS_WITH, "ar"));
+
+        assertTrue(state.db.delete(new DbDeleteQuery.Builder(wordTable)
+                .where(wordTable.columns().indexOf(conceptColumn), 5)
+                .build()));
+        assertEquals("bar,scar", state.findWrittenWords(DbQuery.RestrictionStringTypes.ENDS_WITH, "ar"));
+
+        // Texts are inserted out of order and a tenth of them replaced, so that both indexes are split and shrunk many times
+        final State largeState = new State(schema);
+        final int wordCount = 3000;
+        final int[] ids = new int[wordCount];
+        for (int i = 0; i < wordCount; i++) {
+            ids[i] = largeState.insertWord(i, 1, "p" + (i * 7919) % wordCount + "s");
+        }
+
+        final StringBuilder expectedPrefixed = new StringBuilder();
+        final StringBuilder expectedSuffixed = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            final int number = (i * 7919) % wordCount;
+            if (number % 10 == 0) {
+                largeState.updateWrittenWord(ids[i], "q" + number + "t");
+            }
+            else if (Integer.toString(number).startsWith("12")) {
+                expectedPrefixed.append((expectedPrefixed.length() > 0)? "," : "").append('p').append(number).append('s');
+            }
+
+            if (number % 10 == 0 && ("q" + number + "t").endsWith("010t")) {
+                expectedSuffixed.append((expectedSuffixed.length() > 0)? "," : "").append('q').append(number).append('t');
+            }
+        }
+
+        assertEquals(expectedPrefixed.toString(), largeState.findWrittenWords(DbQuery.RestrictionStringTypes.STARTS_WITH, "p12"));
+        assertEquals(expectedSuffixed.toString(), largeState.findWrittenWords(DbQuery.RestrictionStringTypes.ENDS_WITH, "010t"));
+    }
+
+    @Test
+    void testRangeRestrictionsOnIntColumns() {
+        final int idColumnIndex = wordTable.getIdColumnIndex();
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbSchema schema = new DbSchema() {
+            @Override
+            public ImmutableList<DbTable> tables() {
+                return new ImmutableList.Builder<DbTable>().add(wordTable).build();
+            }
+
+            @Override
+            public ImmutableList<DbIndex> indexes() {
+                return new ImmutableList.Builder<DbIndex>()
+                        .add(new DbIndex(wordTable, conceptColumnIndex, DbIndex.Types.ORDERED))
+                        .build();
+            }
+        };
+
+        for (int storageMode : new int[] {MemoryDatabase.StorageModes.ROWS, MemoryDatabase.StorageModes.COLUMNS}) {
+            final State state = new State(schema, storageMode);
+            final int firstId = state.insertWord(5, 1, "a");
+            state.insertWord(3, 2, "b");
+            final int thirdId = state.insertWord(8, 3, "c");
+            state.insertWord(Integer.MAX_VALUE, 4, "d");
+            final int fifthId = state.insertWord(3, 5, "e");
+
+            assertEquals("be", state.selectWrittenWords(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(5), DbQuery.RestrictionIntTypes.LT)));
+            assertEquals("abe", state.selectWrittenWords(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(5), DbQuery.RestrictionIntTypes.LE)));
+            assertEquals("cd", state.selectWrittenWords(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(5), DbQuery.RestrictionIntTypes.GT)));
+            assertEquals("acd", state.selectWrittenWords(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(5), DbQuery.RestrictionIntTypes.GE)));
+            assertEquals("", state.selectWrittenWords(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(Integer.MAX_VALUE), DbQuery.RestrictionIntTypes.GT)));
+            assertEquals("abce", state.selectWrittenWords(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(3), new DbIntValue(8))));
+
+            assertEquals("bcd", state.selectWrittenWords(languageColumnIndex, new DbQuery.Restriction(new DbIntValue(2), new DbIntValue(4))));
+            assertEquals("e", state.selectWrittenWords(languageColumnIndex, new DbQuery.Restriction(new DbIntValue(4), DbQuery.RestrictionIntTypes.GT)));
+            assertEquals("", state.selectWrittenWords(languageColumnIndex, new DbQuery.Restriction(new DbIntValue(Integer.MIN_VALUE), DbQuery.RestrictionIntTypes.LT)));
+
+            assertEquals("abc", state.selectWrittenWords(idColumnIndex, new DbQuery.Restriction(new DbIntValue(firstId), new DbIntValue(thirdId))));
+            assertEquals("de", state.selectWrittenWords(idColumnIndex, new DbQuery.Restriction(new DbIntValue(thirdId), DbQuery.RestrictionIntTypes.GT)));
+
+            state.updateConceptWord(fifthId, 9);
+            assertEquals("b", state.selectWrittenWords(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(5), DbQuery.RestrictionIntTypes.LT)));
+            assertEquals("ce", state.selectWrittenWords(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(8), new DbIntValue(10))));
+
+            final DbQuery query = new DbQuery.Builder(wordTable)
+                    .where(conceptColumnIndex, new DbQuery.Restriction(DbQuery.intParameter(0), DbQuery.intParameter(1)))
+                    .select(writtenColumnIndex);
+            try (DbResult result = state.db.prepare(query).select(new DbIntValue(4), new DbIntValue(8))) {
+                assertEquals("a", result.next().get(0).toText());
+                assertEquals("c", result.next().get(0).toText());
+                assertFalse(result.hasNext());
+            }
+        }
+
+        // Values are inserted out of order and half of them removed, so that the index is split and shrunk many times
+        final State state = new State(schema);
+        final int wordCount = 5000;
+        final int[] ids = new int[wordCount];
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            final int concept = (i * 7919) % wordCount;
+            ids[i] = state.insertWord(concept, 1, "w" + concept);
+            if ((concept & 1) != 0 && concept >= 1000 && concept < 2000) {
+                expected.append('w').append(concept);
+            }
+        }
+
+        for (int i = 0; i < wordCount; i++) {
+            if ((i * 7919) % wordCount % 2 == 0) {
+                assertTrue(state.db.delete(new DbDeleteQuery.Builder(wordTable)
+                        .where(idColumnIndex, ids[i])
+                        .build()));
+            }
+        }
+
+        assertEquals(expected.toString(), state.selectWrittenWords(conceptColumnIndex,
+                new DbQuery.Restriction(new DbIntValue(1000), new DbIntValue(1999))));
+        assertEquals("w4999", state.selectWrittenWords(conceptColumnIndex,
+                new DbQuery.Restriction(new DbIntValue(4998), DbQuery.RestrictionIntTypes.GE)));
+    }
+
+    @Test
+    void testInListRestrictions() {
+        final int idColumnIndex = wordTable.getIdColumnIndex();
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        for (int storageMode : new int[] {MemoryDatabase.StorageModes.ROWS, MemoryDatabase.StorageModes.COLUMNS}) {
+            final State state = new State(indexedSchema, storageMode);
+            final int firstId = state.insertWord(5, 1, "a");
+            state.insertWord(3, 2, "b");
+            final int thirdId = state.insertWord(8, 1000000, "c");
+            state.insertWord(0, 4, "d");
+            state.insertWord(3, 0, "e");
+
+            assertEquals("ac", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                    .whereIn(idColumnIndex, thirdId, firstId, thirdId + 100)
+                    .select(writtenColumnIndex)));
+            assertEquals("bde", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                    .whereIn(conceptColumnIndex, 3, 0, 7)
+                    .select(writtenColumnIndex)));
+            assertEquals("acd", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                    .whereIn(languageColumnIndex, 1000000, 4, 1)
+                    .select(writtenColumnIndex)));
+            assertEquals("be", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                    .whereIn(languageColumnIndex, 2, 0)
+                    .select(writtenColumnIndex)));
+            assertEquals("ce", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                    .whereIn(writtenColumnIndex, "e", "c", "x")
+                    .whereIn(conceptColumnIndex, 8, 3)
+                    .select(writtenColumnIndex)));
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new DbQuery.Builder(wordTable)
+                .whereIn(writtenColumnIndex, 1, 2)
+                .select(writtenColumnIndex));
+    }
+
+    @Test
+    void testBitmapIndexesResolveRestrictionsAndCounts() {
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final DbSchema schema = new DbSchema() {
+            @Override
+            public ImmutableList<DbTable> tables() {
+                return new ImmutableList.Builder<DbTable>().add(wordTable).build();
+            }
+
+            @Override
+            public ImmutableList<DbIndex> indexes() {
+                return new ImmutableList.Builder<DbIndex>()
+                        .add(new DbIndex(wordTable, conceptColumnIndex, DbIndex.Types.BITMAP))
+                        .add(new DbIndex(wordTable, languageColumnIndex, DbIndex.Types.BITMAP))
+                        .build();
+            }
+        };
+
+        final State state = new State(schema);
+        final int firstId = state.insertWord(1, 1, "a");
+        state.insertWord(1, 2, "b");
+        state.insertWord(2, 1, "c");
+        state.insertWord(2, 2, "d");
+        state.insertWord(1, 1, "e");
+
+        assertEquals("ae", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 1)
+                .where(languageColumnIndex, 1)
+                .select(writtenColumnIndex)));
+        assertEquals("abe", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 1)
+                .whereIn(languageColumnIndex, 2, 1, 5)
+                .select(writtenColumnIndex)));
+
+        final DbQuery countQuery = new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 1)
+                .where(languageColumnIndex, 1)
+                .select(DbQuery.count(), DbQuery.count());
+        try (DbResult result = state.db.select(countQuery)) {
+            final List<DbValue> row = result.next();
+            assertEquals(2, row.get(0).toInt());
+            assertEquals(2, row.get(1).toInt());
+            assertFalse(result.hasNext());
+        }
+
+        state.updateConceptWord(firstId, 2);
+        try (DbResult result = state.db.select(countQuery)) {
+            assertEquals(1, result.next().get(0).toInt());
+            assertFalse(result.hasNext());
+        }
+
+        assertTrue(state.db.delete(new DbDeleteQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 1)
+                .build()));
+        try (DbResult result = state.db.select(countQuery)) {
+            assertFalse(result.hasNext());
+        }
+
+        try (DbResult result = state.db.select(new DbQuery.Builder(wordTable).select(DbQuery.count()))) {
+            assertEquals(3, result.next().get(0).toInt());
+        }
+
+        // Negative identifiers must be provided before positive ones, even if placed in other containers
+        final int[] ids = {70000, -70000, 5, -3, 65536, -65537};
+        final String texts = "fghijk";
+        for (int index = 0; index < ids.length; index++) {
+            state.db.insert(new DbInsertQuery.Builder(wordTable)
+                    .put(wordTable.getIdColumnIndex(), ids[index])
+                    .put(conceptColumnIndex, 3)
+                    .put(languageColumnIndex, 1 + index % 2)
+                    .put(writtenColumnIndex, texts.substring(index, index + 1))
+                    .build());
+        }
+
+        assertEquals("gkihjf", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 3)
+                .whereIn(languageColumnIndex, 1, 2)
+                .select(writtenColumnIndex)));
+        assertEquals("gki", state.concatenateTexts(new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 3)
+                .where(languageColumnIndex, 2)
+                .select(writtenColumnIndex)));
+    }
+
+    @Test
+    void testParallelExecutionKeepsSequentialResults() {
+        final State parallelState = new State(indexedSchema);
+        final State sequentialState = new State(indexedSchema);
+        parallelState.db.setParallelThreshold(1);
+        sequentialState.db.setParallelThreshold(Integer.MAX_VALUE);
+
+        final int rowCount = 3 * ParallelExecution.MIN_CHUNK_SIZE;
+        for (State state : new State[] {parallelState, sequentialState}) {
+            for (int i = 0; i < rowCount; i++) {
+                state.insertWord(i % 101, i % 3, "w" + (i % 7));
+            }
+            state.insertIntIterable(new ImmutableIntList.Builder().add(5).add(7).build());
+        }
+
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final int setColumnCount = setTable.columns().size();
+        final DbQuery groupedQuery = new DbQuery.Builder(wordTable)
+                .where(languageColumnIndex, new DbQuery.Restriction(new DbIntValue(0), DbQuery.RestrictionIntTypes.GT))
+                .groupBy(conceptColumnIndex)
+                .select(conceptColumnIndex, DbQuery.count(), DbQuery.sum(languageColumnIndex), DbQuery.min(wordTable.getIdColumnIndex()),
+                        DbQuery.max(wordTable.getIdColumnIndex()), DbQuery.concat(writtenColumnIndex));
+        final DbQuery joinedQuery = new DbQuery.Builder(wordTable)
+                .join(setTable, conceptColumnIndex, setTable.columns().indexOf(itemIdColumn))
+                .orderBy(new DbQuery.Ordered(languageColumnIndex, true))
+                .range(new ImmutableIntRange(3, 200))
+                .select(wordTable.getIdColumnIndex(), writtenColumnIndex, languageColumnIndex);
+        final DbQuery countQuery = new DbQuery.Builder(wordTable)
+                .whereColumnValueMatch(conceptColumnIndex, languageColumnIndex)
+                .select(DbQuery.count());
+
+        for (DbQuery query : new DbQuery[] {groupedQuery, joinedQuery, countQuery}) {
+            final String expected = sequentialState.describeRows(query);
+            assertNotEquals("", expected);
+            assertEquals(expected, parallelState.describeRows(query));
+        }
+    }
+
+    @Test
+    void testBatchedColumnarFilteringMatchesRowStorage() {
+        final State rowState = new State(indexedSchema, MemoryDatabase.StorageModes.ROWS);
+        final State columnState = new State(indexedSchema, MemoryDatabase.StorageModes.COLUMNS);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final int idColumnIndex = wordTable.getIdColumnIndex();
+
+        final int rowCount = 3 * RowSource.TableScan.BATCH_SIZE + 17;
+        for (State state : new State[] {rowState, columnState}) {
+            for (int i = 0; i < rowCount; i++) {
+                state.insertWord(i % 97, i % 5, "w" + (i % 13));
+            }
+
+            final DbDeleteQuery deleteQuery = new DbDeleteQuery.Builder(wordTable)
+                    .where(languageColumnIndex, 4)
+                    .build();
+            assertTrue(state.db.delete(deleteQuery));
+        }
+
+        final DbQuery mixedQuery = new DbQuery.Builder(wordTable)
+                .whereIn(languageColumnIndex, 0, 2, 3)
+                .where(conceptColumnIndex, new DbQuery.Restriction(new DbIntValue(10), new DbIntValue(80)))
+                .where(writtenColumnIndex, new DbQuery.Restriction(new DbStringValue("1"), DbQuery.RestrictionStringTypes.CONTAINS))
+                .select(idColumnIndex, conceptColumnIndex, writtenColumnIndex);
+        final DbQuery matchQuery = new DbQuery.Builder(wordTable)
+                .whereColumnValueMatch(conceptColumnIndex, languageColumnIndex)
+                .where(writtenColumnIndex, "w2")
+                .select(idColumnIndex, languageColumnIndex);
+        final DbQuery idRangeQuery = new DbQuery.Builder(wordTable)
+                .where(idColumnIndex, new DbQuery.Restriction(new DbIntValue(1000), DbQuery.RestrictionIntTypes.GE))
+                .where(languageColumnIndex, new DbQuery.Restriction(new DbIntValue(2), DbQuery.RestrictionIntTypes.LT))
+                .select(idColumnIndex, writtenColumnIndex);
+
+        for (DbQuery query : new DbQuery[] {mixedQuery, matchQuery, idRangeQuery}) {
+            final String expected = rowState.describeRows(query);
+            assertNotEquals("", expected);
+            assertEquals(expected, columnState.describeRows(query));
+        }
+    }
+
+    @Test
+    void testJoinOrderKeepsColumnsAndRowOrder() {
+        final State state = new State(indexedSchema);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final int setIdColumnIndex = setTable.columns().indexOf(setIdColumn);
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int setColumnCount = setTable.columns().size();
+
+        final int conceptCount = 40;
+        for (int concept = 0; concept < conceptCount; concept++) {
+            state.insertWord(concept, 1, "w" + concept);
+        }
+
+        final StringBuilder expected = new StringBuilder();
+        int expectedSum = 0;
+        for (int i = 0; i < 2000; i++) {
+            final DbInsertQuery insertQuery = new DbInsertQuery.Builder(setTable)
+                    .put(setIdColumnIndex, i % conceptCount)
+                    .put(itemIdColumnIndex, i)
+                    .build();
+            final int id = state.db.insert(insertQuery);
+            if (i % conceptCount == 7) {
+                expected.append(id).append(',').append(i).append(",w7,\n");
+                expectedSum += i;
+            }
+        }
+
+        final DbQuery query = new DbQuery.Builder(setTable)
+                .join(wordTable, setIdColumnIndex, conceptColumnIndex)
+                .where(setColumnCount + writtenColumnIndex, "w7")
+                .select(setTable.getIdColumnIndex(), itemIdColumnIndex, setColumnCount + writtenColumnIndex);
+        assertEquals(expected.toString(), state.describeRows(query));
+
+        final DbQuery groupedQuery = new DbQuery.Builder(setTable)
+                .join(wordTable, setIdColumnIndex, conceptColumnIndex)
+                .where(setColumnCount + writtenColumnIndex, "w7")
+                .groupBy(setColumnCount + conceptColumnIndex)
+                .select(setColumnCount + conceptColumnIndex, DbQuery.count(), DbQuery.sum(itemIdColumnIndex));
+        assertEquals("7,50," + expectedSum + ",\n", state.describeRows(groupedQuery));
+    }
+
+    @Test
+    void testTableStatistics() {
+        final State state = new State(indexedSchema);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int languageColumnIndex = wordTable.columns().indexOf(languageColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+
+        final TableStatistics emptyStatistics = state.db.getStatistics(wordTable);
+        assertEquals(0, emptyStatistics.rowCount());
+        assertEquals(0, emptyStatistics.column(languageColumnIndex).distinctCount());
+        assertNull(emptyStatistics.column(languageColumnIndex).min());
+        assertTrue(emptyStatistics.column(languageColumnIndex).histogramBounds().isEmpty());
+
+        final int rowCount = 10000;
+        for (int i = 0; i < rowCount; i++) {
+            state.insertWord(i, i % 4, "w" + (i % 100));
+        }
+
+        final DbDeleteQuery deleteQuery = new DbDeleteQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 0)
+                .build();
+        assertTrue(state.db.delete(deleteQuery));
+
+        final TableStatistics statistics = state.db.getStatistics(wordTable);
+        assertEquals(rowCount - 1, statistics.rowCount());
+        assertEquals(rowCount - 1, statistics.column(wordTable.getIdColumnIndex()).distinctCount());
+        assertEquals(2, statistics.column(wordTable.getIdColumnIndex()).min().toInt());
+
+        final ColumnStatistics conceptStatistics = statistics.column(conceptColumnIndex);
+        assertTrue(Math.abs(conceptStatistics.distinctCount() - rowCount) < rowCount / 10);
+        assertEquals(1, conceptStatistics.min().toInt());
+        assertEquals(rowCount - 1, conceptStatistics.max().toInt());
+        assertEquals(rowCount - 1, conceptStatistics.histogramBounds().valueAt(conceptStatistics.histogramBounds().size() - 1));
+        assertTrue(Math.abs(conceptStatistics.estimateRowsBetween(1000, 2999) - 2000) < 200);
+        assertEquals(0, conceptStatistics.estimateRowsBetween(rowCount, 2 * rowCount));
+
+        final ColumnStatistics languageStatistics = statistics.column(languageColumnIndex);
+        assertEquals(4, languageStatistics.distinctCount());
+        assertEquals(0, languageStatistics.min().toInt());
+        assertEquals(3, languageStatistics.max().toInt());
+
+        final ColumnStatistics writtenStatistics = statistics.column(writtenColumnIndex);
+        assertTrue(Math.abs(writtenStatistics.distinctCount() - 100) < 10);
+        assertEquals("w0", writtenStatistics.min().toText());
+        assertEquals("w99", writtenStatistics.max().toText());
+        assertTrue(writtenStatistics.histogramBounds().isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> writtenStatistics.estimateRowsBetween(0, 1));
+    }
+
+    @Test
+    void testExplainDescribesPlanAndAnalyzeMeasuresIt() {
+        final State state = new State(indexedSchema);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        final int setIdColumnIndex = setTable.columns().indexOf(setIdColumn);
+        final int itemIdColumnIndex = setTable.columns().indexOf(itemIdColumn);
+        final int setColumnCount = setTable.columns().size();
+
+        final int conceptCount = 40;
+        for (int concept = 0; concept < conceptCount; concept++) {
+            state.insertWord(concept, 1, "w" + concept);
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            final DbInsertQuery insertQuery = new DbInsertQuery.Builder(setTable)
+                    .put(setIdColumnIndex, i % conceptCount)
+                    .put(itemIdColumnIndex, i)
+                    .build();
+            state.db.insert(insertQuery);
+        }
+
+        final DbQuery lookupQuery = new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 7)
+                .select(writtenColumnIndex);
+        final PlanNode lookupPlan = state.db.explain(lookupQuery);
+        assertEquals(PlanNode.Operators.PROJECTION, lookupPlan.operator());
+        final PlanNode lookupScan = lookupPlan.children().valueAt(0);
+        assertEquals(PlanNode.Operators.INDEX_SCAN, lookupScan.operator());
+        assertSame(wordTable, lookupScan.table());
+        assertEquals(conceptColumnIndex, lookupScan.column());
+        assertEquals(DbIndex.Types.VALUE, lookupScan.indexType());
+        assertEquals(1, lookupScan.estimatedRows());
+        assertEquals(-1, lookupScan.actualRows());
+
+        final DbQuery query = new DbQuery.Builder(setTable)
+                .join(wordTable, setIdColumnIndex, conceptColumnIndex)
+                .where(setColumnCount + writtenColumnIndex, "w7")
+                .orderBy(itemIdColumnIndex)
+                .select(itemIdColumnIndex, setColumnCount + writtenColumnIndex);
+        final PlanNode plan = state.db.explain(query);
+        assertEquals(PlanNode.Operators.PROJECTION, plan.operator());
+        final PlanNode sort = plan.children().valueAt(0);
+        assertEquals(PlanNode.Operators.SORT, sort.operator());
+
+        // The filtered word table is cheaper to read first
+        final PlanNode reorder = sort.children().valueAt(0);
+        assertEquals(PlanNode.Operators.REORDER, reorder.operator());
+        final PlanNode join = reorder.children().valueAt(0);
+        assertEquals(PlanNode.Operators.INDEX_JOIN, join.operator());
+        assertSame(setTable, join.table());
+        assertEquals(setIdColumnIndex, join.column());
+        assertEquals(DbIndex.Types.VALUE, join.indexType());
+        assertEquals(50, join.estimatedRows());
+        final PlanNode scan = join.children().valueAt(0);
+        assertEquals(PlanNode.Operators.FULL_SCAN, scan.operator());
+        assertSame(wordTable, scan.table());
+        assertEquals(1, scan.estimatedRows());
+        assertTrue(scan.children().isEmpty());
+
+        final String expected = state.describeRows(query);
+        final PlanNode analyzedPlan = state.db.explainAnalyze(query);
+        assertEquals(plan.toString().split("\n").length, analyzedPlan.toString().split("\n").length);
+        assertEquals(50, analyzedPlan.actualRows());
+        assertEquals(expected, state.describeRows(query));
+
+        PlanNode node = analyzedPlan;
+        while (!node.children().isEmpty()) {
+            final PlanNode child = node.children().valueAt(0);
+            assertTrue(child.actualRows() >= 0);
+            assertTrue(node.elapsedNanos() >= child.elapsedNanos());
+            node = child;
+        }
+        assertEquals(1, node.actualRows());
+    }
+
+    @Test
+    void testExplainAnalyzeDoesNotEnableAllocatedMemoryMeasurement() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean) ||
+                !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            return;
+        }
+
+        final com.sun.management.ThreadMXBean extendedBean = (com.sun.management.ThreadMXBean) bean;
+        final boolean enabled = extendedBean.isThreadAllocatedMemoryEnabled();
+        extendedBean.setThreadAllocatedMemoryEnabled(false);
+        try {
+            final State state = new State();
+            state.insertWord(1, 1, "a");
+            final DbQuery query = new DbQuery.Builder(wordTable)
+                    .select(wordTable.columns().indexOf(writtenColumn));
+            final PlanNode plan = state.db.explainAnalyze(query);
+            assertEquals(1, plan.actualRows());
+            assertEquals(-1, plan.allocatedBytes());
+            assertFalse(extendedBean.isThreadAllocatedMemoryEnabled());
+        }
+        finally {
+            extendedBean.setThreadAllocatedMemoryEnabled(enabled);
+        }
+    }
+
+    @Test
+    void testExplainAnalyzeFollowsTheExecutedPlan() {
+        final State state = new State(indexedSchema);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        final int writtenColumnIndex = wordTable.columns().indexOf(writtenColumn);
+        for (int concept = 0; concept < 2000; concept++) {
+            state.insertWord(concept, 1, "w" + concept);
+        }
+
+        // A third of the words are estimated to match, but only w123 and w1230 to w1239 do
+        final DbQuery query = new DbQuery.Builder(wordTable)
+                .where(writtenColumnIndex, new DbQuery.Restriction(new DbStringValue("w123"), DbQuery.RestrictionStringTypes.CONTAINS))
+                .orderBy(new DbQuery.Ordered(conceptColumnIndex, true))
+                .range(new ImmutableIntRange(0, 19))
+                .select(writtenColumnIndex);
+        final String expected = state.describeRows(query);
+
+        final PlanNode plan = state.db.explain(query);
+        assertEquals(PlanNode.Operators.TOP_ROWS, plan.children().valueAt(0).operator());
+        final PlanNode analyzedPlan = state.db.explainAnalyze(query);
+        final PlanNode sort = analyzedPlan.children().valueAt(0);
+        assertEquals(PlanNode.Operators.SORT, sort.operator());
+        assertEquals(11, sort.actualRows());
+
+        state.db.setParallelThreshold(1);
+        final PlanNode parallelPlan = state.db.explainAnalyze(query);
+        final PlanNode parallel = parallelPlan.children().valueAt(0).children().valueAt(0);
+        assertEquals(PlanNode.Operators.PARALLEL, parallel.operator());
+        assertEquals(11, parallel.actualRows());
+        assertEquals(PlanNode.Operators.FULL_SCAN, parallel.children().valueAt(0).operator());
+        assertEquals(-1, parallel.children().valueAt(0).actualRows());
+        assertEquals(expected, state.describeRows(query));
+
+        state.db.setParallelThreshold(Integer.MAX_VALUE);
+        state.db.setResultCacheCapacity(1);
+        assertEquals(PlanNode.Operators.PROJECTION, state.db.explain(query).operator());
+        assertEquals(expected, state.describeRows(query));
+        assertEquals(PlanNode.Operators.CACHED_RESULT, state.db.explain(query).operator());
+        final PlanNode cachedPlan = state.db.explainAnalyze(query);
+        assertEquals(PlanNode.Operators.CACHED_RESULT, cachedPlan.operator());
+        assertEquals(11, cachedPlan.actualRows());
+    }
+
+    @Test
+    void testExplainDoesNotModifyResultCache() {
+        final State state = new State();
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        for (int concept = 0; concept < 3; concept++) {
+            state.insertWord(concept, 1, "w" + concept);
+        }
+
+        final DbQuery[] queries = new DbQuery[3];
+        for (int concept = 0; concept < 3; concept++) {
+            queries[concept] = new DbQuery.Builder(wordTable)
+                    .where(conceptColumnIndex, concept)
+                    .select(wordTable.getIdColumnIndex());
+        }
+
+        state.db.setResultCacheCapacity(2);
+        state.describeRows(queries[0]);
+        state.describeRows(queries[1]);
+        assertEquals(0, state.db.resultCacheHits());
+        assertEquals(2, state.db.resultCacheMisses());
+
+        // Neither describing nor analyzing the least recently used query makes it the most recently used one
+        assertEquals(PlanNode.Operators.CACHED_RESULT, state.db.explain(queries[0]).operator());
+        assertEquals(PlanNode.Operators.CACHED_RESULT, state.db.explainAnalyze(queries[0]).operator());
+        state.describeRows(queries[2]);
+        assertEquals(PlanNode.Operators.PROJECTION, state.db.explain(queries[0]).operator());
+        assertEquals(PlanNode.Operators.CACHED_RESULT, state.db.explain(queries[1]).operator());
+        assertEquals(PlanNode.Operators.CACHED_RESULT, state.db.explain(queries[2]).operator());
+
+        // Analyzing a query missing from the cache does not keep its result
+        assertEquals(PlanNode.Operators.PROJECTION, state.db.explainAnalyze(queries[0]).operator());
+        assertEquals(PlanNode.Operators.PROJECTION, state.db.explain(queries[0]).operator());
+        assertEquals(PlanNode.Operators.CACHED_RESULT, state.db.explain(queries[1]).operator());
+        assertEquals(0, state.db.resultCacheHits());
+        assertEquals(3, state.db.resultCacheMisses());
+    }
+
+    @Test
+    void testListenerReceivesEveryOperation() {
+        final State state = new State();
+        final int columnIndex = uniqueTextTable.columns().indexOf(uniqueTextColumn);
+        final StringBuilder events = new StringBuilder();
+        state.db.setListener(new DatabaseListener() {
+            private void register(String operation, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+                assertTrue(elapsedNanos >= 0);
+                events.append(operation).append(',').append(scannedRows).append(',')
+                        .append(returnedRows).append(',').append(affectedRows).append('\n');
+            }
+
+            @Override
+            public void selected(DbQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+                register("select", elapsedNanos, scannedRows, returnedRows, affectedRows);
+            }
+
+            @Override
+            public void inserted(DbInsertQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+                register("insert", elapsedNanos, scannedRows, returnedRows, affectedRows);
+            }
+
+            @Override
+            public void updated(DbUpdateQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+                register("update", elapsedNanos, scannedRows, returnedRows, affectedRows);
+            }
+
+            @Override
+            public void deleted(DbDeleteQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+                register("delete", elapsedNanos, scannedRows, returnedRows, affectedRows);
+            }
+        });
+
+        state.insertUniqueText("a");
+        state.insertUniqueText("b");
+        state.insertUniqueText("c");
+        assertNull(state.insertUniqueText("a"));
+        assertEquals("insert,0,0,1\ninsert,0,0,1\ninsert,0,0,1\ninsert,0,0,0\n", events.toString());
+        events.setLength(0);
+
+        // Lazy results are reported once all their rows are computed
+        final DbQuery indexedQuery = new DbQuery.Builder(uniqueTextTable)
+                .where(columnIndex, "b")
+                .select(uniqueTextTable.getIdColumnIndex());
+        try (DbResult result = state.db.select(indexedQuery)) {
+            assertEquals("", events.toString());
+            assertEquals(2, result.next().get(0).toInt());
+            assertFalse(result.hasNext());
+        }
+        assertEquals("select,1,1,0\n", events.toString());
+        events.setLength(0);
+
+        final DbQuery orderedQuery = new DbQuery.Builder(uniqueTextTable)
+                .orderBy(uniqueTextTable.getIdColumnIndex())
+                .range(new ImmutableIntRange(1, 5))
+                .select(columnIndex);
+        assertEquals("b,\nc,\n", state.describeRows(orderedQuery));
+        assertEquals("select,3,2,0\n", events.toString());
+        events.setLength(0);
+
+        state.updateUniqueText(1, "d");
+        state.deleteUniqueText(3);
+        final DbDeleteQuery deleteQuery = new DbDeleteQuery.Builder(uniqueTextTable)
+                .where(uniqueTextTable.getIdColumnIndex(), 9)
+                .build();
+        assertFalse(state.db.delete(deleteQuery));
+        assertEquals("update,3,0,1\ndelete,1,0,1\ndelete,0,0,0\n", events.toString());
+        events.setLength(0);
+
+        state.db.setListener(null);
+        state.insertUniqueText("e");
+        assertEquals("", events.toString());
+    }
+
+    @Test
+    void testMetricsRecordOperationsAndArePublished() throws JMException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.valueAtPercentile(50));
+        for (int value = 1; value <= 100000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100000, histogram.count());
+        assertEquals(50000, histogram.valueAtPercentile(50), 50000 / LatencyHistogram.SUB_BUCKET_COUNT);
+        assertEquals(99900, histogram.valueAtPercentile(99.9), 99900 / LatencyHistogram.SUB_BUCKET_COUNT);
+        assertEquals(1, histogram.valueAtPercentile(0));
+        for (long value = 1; value > 0; value = value * 3 + 1) {
+            final int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.highestValueIn(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.highestValueIn(bucket - 1) < value);
+        }
+
+        final State state = new State(indexedSchema);
+        final int conceptColumnIndex = wordTable.columns().indexOf(conceptColumn);
+        state.db.setResultCacheCapacity(4);
+        final StringBuilder insertions = new StringBuilder();
+        state.db.setListener(new DatabaseListener() {
+            @Override
+            public void inserted(DbInsertQuery query, long elapsedNanos, int scannedRows, int returnedRows, int affectedRows) {
+                insertions.append(affectedRows);
+            }
+        });
+
+        final DatabaseMetrics metrics = state.db.enableMetrics();
+        assertSame(metrics, state.db.enableMetrics());
+        assertEquals(Integer.valueOf(0), metrics.getTableSizes().get(wordTable.name()));
+        assertEquals(Integer.valueOf(0), metrics.getIndexSizes().get(wordTable.name() + '.' + conceptColumn.name() + ".value"));
+
+        for (int i = 0; i < 10; i++) {
+            state.insertWord(i, 1, "w" + i);
+        }
+
+        final DbQuery query = new DbQuery.Builder(wordTable)
+                .where(conceptColumnIndex, 3)
+                .select(wordTable.getIdColumnIndex());
+        for (int i = 0; i < 4; i++) {
+            assertEquals("4,\n", state.describeRows(query));
+        }
+
+        state.updateConceptWord(4, 30);
+        final DbDeleteQuery deleteQuery = new DbDeleteQuery.Builder(wordTable)
+                .where(wordTable.getIdColumnIndex(), 5)
+                .build();
+        assertTrue(state.db.delete(deleteQuery));
+
+        assertEquals(10, metrics.getInsertCount());
+        assertEquals("1111111111", insertions.toString());
+        assertEquals(4, metrics.getSelectCount());
+        assertEquals(1, metrics.getUpdateCount());
+        assertEquals(1, metrics.getDeleteCount());
+        assertTrue(metrics.getSelectLatencyP50() > 0);
+        assertTrue(metrics.getInsertLatencyP50() <= metrics.getInsertLatencyP99());
+        assertTrue(metrics.getInsertLatencyP99() <= metrics.getInsertLatencyP999());
+        assertTrue(metrics.getSelectsPerSecond() >= 0);
+        assertEquals(0.75, metrics.getResultCacheHitRate(), 0.001);
+        assertEquals(0.75, metrics.getPlanCacheHitRate(), 0.001);
+        assertEquals(Integer.valueOf(9), metrics.getTableSizes().get(wordTable.name()));
+        assertEquals(Integer.valueOf(9), metrics.getIndexSizes().get(wordTable.name() + '.' + conceptColumn.name() + ".value"));
+
+        final ObjectName name = new ObjectName("sword.database:type=MemoryDatabase,name=metricsTest");
+        metrics.register(name);
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(4L, server.getAttribute(name, "SelectCount"));
+            assertEquals(0.75, (Double) server.getAttribute(name, "ResultCacheHitRate"), 0.001);
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "SelectCount"));
+            assertEquals(0.0, (Double) server.getAttribute(name, "ResultCacheHitRate"), 0.001);
+        }
+        finally {
+            metrics.unregister();
+        }
+    }
 }